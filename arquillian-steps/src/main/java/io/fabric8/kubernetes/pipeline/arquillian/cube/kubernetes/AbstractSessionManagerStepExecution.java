@@ -49,10 +49,12 @@ import hudson.model.TaskListener;
 import io.fabric8.kubernetes.client.utils.Utils;
 import io.fabric8.kubernetes.clnt.v2_5.KubernetesClient;
 import io.fabric8.openshift.clnt.v2_5.OpenShiftClient;
+import io.fabric8.workflow.core.ClientRegistry;
 
 public abstract class AbstractSessionManagerStepExecution<S extends AbstractSessionManagerStep> extends AbstractStepExecution<S> {
 
     protected Session session;
+    protected transient ClientRegistry.Ref<KubernetesClient> clientRef;
     protected transient KubernetesClient client;
     protected transient Configuration configuration;
     protected transient SessionManager sessionManager;
@@ -85,14 +87,28 @@ public abstract class AbstractSessionManagerStepExecution<S extends AbstractSess
 
     @Override
     public void stop(Throwable cause) throws Exception {
-        onStop(sessionManager);
+        try {
+            onStop(sessionManager);
+        } finally {
+            releaseKubernetesClient();
+        }
+    }
+
+    /**
+     * Releases the reference to the shared {@link KubernetesClient}.
+     */
+    protected void releaseKubernetesClient() {
+        if (clientRef != null) {
+            clientRef.close();
+        }
     }
 
     protected void init() throws Exception {
         String sessionId = generateSessionId();
         String namespace = generateNamespaceId(sessionId);
 
-        client = getKubernetesClient();
+        clientRef = acquireKubernetesClient();
+        client = clientRef.get();
         isOpenShift = client.isAdaptable(OpenShiftClient.class);
 
         boolean isNamespaceCleanupEnabled = getStep().isNamespaceCleanupEnabled() != null
@@ -9,9 +9,12 @@ import hudson.AbortException;
 import hudson.model.Run;
 import hudson.slaves.Cloud;
 import io.fabric8.kubernetes.client.utils.Utils;
+import io.fabric8.kubernetes.clnt.v2_5.Config;
+import io.fabric8.kubernetes.clnt.v2_5.ConfigBuilder;
 import io.fabric8.kubernetes.clnt.v2_5.DefaultKubernetesClient;
 import io.fabric8.kubernetes.clnt.v2_5.KubernetesClient;
 import io.fabric8.kubernetes.clnt.v2_5.utils.Serialization;
+import io.fabric8.workflow.core.ClientRegistry;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
@@ -31,11 +34,13 @@ public abstract class AbstractStepExecution<S extends AbstractStep> extends Step
     }
 
     /**
-     * Obtains a {@link KubernetesClient} either from the configured {@link Cloud} or a default instance.
-     * @return
+     * Obtains a shared {@link KubernetesClient} either for the configured {@link Cloud} or the default one.
+     * Clients are shared per cloud and connection settings (url, namespace and credentials), so the returned reference
+     * needs to be closed when no longer needed.
+     * @return  A reference to the client.
      * @throws AbortException
      */
-    protected KubernetesClient getKubernetesClient() throws AbortException {
+    protected ClientRegistry.Ref<KubernetesClient> acquireKubernetesClient() throws AbortException {
 
         Cloud cloud = Jenkins.getInstance().getCloud(getStep().getCloud());
         if (cloud == null) {
@@ -43,15 +48,25 @@ public abstract class AbstractStepExecution<S extends AbstractStep> extends Step
         } else if (!(cloud instanceof KubernetesCloud)) {
             LOGGER.warning("Cloud is not a Kubernetes cloud: [" + getStep().getCloud() + "]. Falling back to default KubernetesClient.");
         } else {
-            KubernetesCloud kubernetesCloud = (KubernetesCloud) cloud;
+            final KubernetesCloud kubernetesCloud = (KubernetesCloud) cloud;
             try {
-                String json = Serialization.asJson(kubernetesCloud.connect().getConfiguration());
-                return DefaultKubernetesClient.fromConfig(json);
+                String key = ClientRegistry.key(cloud.name, kubernetesCloud.getServerUrl(), kubernetesCloud.getNamespace(),
+                        kubernetesCloud.getCredentialsId(), String.valueOf(kubernetesCloud.isSkipTlsVerify()));
+                //Only connect when there is no client for the cloud yet. The connection is only needed for its configuration.
+                return ClientRegistry.shared(KubernetesClient.class, key, () -> {
+                    try (io.fabric8.kubernetes.client.KubernetesClient connection = kubernetesCloud.connect()) {
+                        return DefaultKubernetesClient.fromConfig(Serialization.asJson(connection.getConfiguration()));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
             } catch (Throwable t) {
                 LOGGER.warning("Could not connect to cloud: [" + getStep().getCloud() + "]. Falling back to default KubernetesClient.");
             }
         }
-        return new DefaultKubernetesClient();
+        final Config config = new ConfigBuilder().build();
+        String key = ClientRegistry.autoConfiguredKey(config.getMasterUrl(), config.getNamespace(), config.getUsername(), config.getOauthToken());
+        return ClientRegistry.shared(KubernetesClient.class, key, () -> new DefaultKubernetesClient(config));
     }
 
 
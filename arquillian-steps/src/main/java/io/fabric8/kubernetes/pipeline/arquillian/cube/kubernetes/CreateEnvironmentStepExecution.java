@@ -37,6 +37,8 @@ public class CreateEnvironmentStepExecution extends AbstractSessionManagerStepEx
             getContext().onSuccess(true);
         } catch (Throwable t) {
             getContext().onFailure(t);
+        } finally {
+            releaseKubernetesClient();
         }
         return true;
     }
@@ -29,6 +29,7 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 import io.fabric8.kubernetes.clnt.v2_5.KubernetesClient;
 import io.fabric8.openshift.clnt.v2_5.OpenShiftClient;
+import io.fabric8.workflow.core.ClientRegistry;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 
 
@@ -38,6 +39,7 @@ public class InNamespaceStepExecution extends AbstractStepExecution<InNamespaceS
 
     private String sessionId;
     private String namespace;
+    private transient ClientRegistry.Ref<KubernetesClient> clientRef;
     private transient KubernetesClient client;
     private transient NamespaceService namespaceService;
     private transient Configuration configuration;
@@ -58,7 +60,8 @@ public class InNamespaceStepExecution extends AbstractStepExecution<InNamespaceS
         sessionId = generateSessionId();
         namespace = generateNamespaceId(step.getName(), step.getPrefix(), sessionId);
 
-        client = getKubernetesClient();
+        clientRef = acquireKubernetesClient();
+        client = clientRef.get();
         isOpenshift = client.isAdaptable(OpenShiftClient.class);
 
         configuration = new DefaultConfigurationBuilder()
@@ -83,7 +86,7 @@ public class InNamespaceStepExecution extends AbstractStepExecution<InNamespaceS
 
         getContext().newBodyInvoker().
                 withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new NamespaceExpander(namespace))).
-                withCallback(new NamespaceDestructionCallback(namespace, configuration, namespaceService, namespaceAction)).
+                withCallback(new NamespaceDestructionCallback(namespace, configuration, namespaceService, namespaceAction, clientRef)).
                 start();
 
         return false;
@@ -91,10 +94,16 @@ public class InNamespaceStepExecution extends AbstractStepExecution<InNamespaceS
 
     @Override
     public void stop(Throwable cause) throws Exception {
-        if (configuration.isNamespaceDestroyEnabled()) {
-            namespaceService.destroy(namespace);
+        try {
+            if (configuration.isNamespaceDestroyEnabled()) {
+                namespaceService.destroy(namespace);
+            }
+            String ns = new NamespaceAction(getContext().get(Run.class)).pop();
+        } finally {
+            if (clientRef != null) {
+                clientRef.close();
+            }
         }
-        String ns = new NamespaceAction(getContext().get(Run.class)).pop();
     }
 
 
@@ -35,7 +35,7 @@ public class InSessionStepExecution extends AbstractSessionManagerStepExecution<
 
         getContext().newBodyInvoker().
                 withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new NamespaceExpander(session.getNamespace()))).
-                withCallback(new SessionManagerStopCallback(sessionManager)).
+                withCallback(new SessionManagerStopCallback(sessionManager, clientRef)).
                 start();
 
         return false;
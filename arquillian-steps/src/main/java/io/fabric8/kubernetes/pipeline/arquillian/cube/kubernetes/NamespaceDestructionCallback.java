@@ -6,25 +6,35 @@ import org.csanchez.jenkins.plugins.kubernetes.pipeline.NamespaceAction;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 
+import java.io.Closeable;
+
 public class NamespaceDestructionCallback extends BodyExecutionCallback.TailCall {
 
     private final String namespace;
     private final transient Configuration configuration;
     private final transient NamespaceService namespaceService;
     private final transient NamespaceAction namespaceAction;
+    private final transient Closeable clientRef;
 
-    NamespaceDestructionCallback(String namespace, Configuration configuration, NamespaceService namespaceService, NamespaceAction namespaceAction) {
+    NamespaceDestructionCallback(String namespace, Configuration configuration, NamespaceService namespaceService, NamespaceAction namespaceAction, Closeable clientRef) {
         this.namespace = namespace;
         this.configuration = configuration;
         this.namespaceService = namespaceService;
         this.namespaceAction = namespaceAction;
+        this.clientRef = clientRef;
     }
 
     @Override
     protected void finished(StepContext context) throws Exception {
-        if (configuration.isNamespaceDestroyEnabled()) {
-            namespaceService.destroy(namespace);
+        try {
+            if (configuration.isNamespaceDestroyEnabled()) {
+                namespaceService.destroy(namespace);
+            }
+            String ns = namespaceAction.pop();
+        } finally {
+            if (clientRef != null) {
+                clientRef.close();
+            }
         }
-        String ns = namespaceAction.pop();
     }
 }
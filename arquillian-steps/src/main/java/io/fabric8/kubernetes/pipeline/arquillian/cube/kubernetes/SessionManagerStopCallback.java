@@ -4,18 +4,28 @@ import org.arquillian.cube.kubernetes.impl.SessionManager;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 
+import java.io.Closeable;
+
 public class SessionManagerStopCallback extends BodyExecutionCallback.TailCall {
 
     private final transient SessionManager sessionManager;
+    private final transient Closeable clientRef;
 
-    public SessionManagerStopCallback(SessionManager sessionManager) {
+    public SessionManagerStopCallback(SessionManager sessionManager, Closeable clientRef) {
         this.sessionManager = sessionManager;
+        this.clientRef = clientRef;
     }
 
 
 
     @Override
     protected void finished(StepContext context) throws Exception {
-        sessionManager.stop();
+        try {
+            sessionManager.stop();
+        } finally {
+            if (clientRef != null) {
+                clientRef.close();
+            }
+        }
     }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.workflow.core.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.fabric8.workflow.core.Constants.UTF_8;
+
+/**
+ * Measures the exec path (exec connection, output pump, shell sessions) against a {@link FakeExecServer}.
+ * For each exec mode and concurrency level, a number of workers run commands that each emit a fixed amount of output.
+ * The results are printed and written to a CSV report named after the project version, so that versions can be compared with:
+ * <pre>
+ *     ExecBenchmark compare &lt;baseline.csv&gt; &lt;candidate.csv&gt;
+ * </pre>
+ *
+ * Settings (system properties):
+ * <ul>
+ *     <li>benchmark.modes: The exec modes to measure (default: TTY,RAW,SESSION).</li>
+ *     <li>benchmark.concurrency: The numbers of concurrent workers (default: 1,8,32,128).</li>
+ *     <li>benchmark.iterations: The number of commands each worker runs (default: 20).</li>
+ *     <li>benchmark.bytes: The number of bytes of output per command (default: 1MB).</li>
+ *     <li>benchmark.setupDelay: Simulated latency of opening an exec connection in milliseconds (default: 0).</li>
+ *     <li>benchmark.reports: The directory to write the report to.</li>
+ * </ul>
+ */
+public final class ExecBenchmark {
+
+    private static final String NAMESPACE = "benchmark";
+    private static final String POD_PREFIX = "benchmark-pod-";
+    private static final String CONTAINER = "benchmark";
+    private static final long COMMAND_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    private static final int WARMUP_ITERATIONS = 10;
+
+    private static final String HEADER = "version,mode,concurrency,commands,errors,bytes,elapsedMs,throughputMBs,setupP50Ms,setupP99Ms,durationP50Ms,durationP99Ms";
+
+    private ExecBenchmark() {
+        //Utility class
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && "compare".equals(args[0])) {
+            compare(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+
+        String version = System.getProperty("benchmark.version", "dev");
+        File reports = new File(System.getProperty("benchmark.reports", "target/benchmark-reports"));
+        long bytes = Long.getLong("benchmark.bytes", 1024 * 1024);
+        int iterations = Integer.getInteger("benchmark.iterations", 20);
+        long setupDelay = Long.getLong("benchmark.setupDelay", 0);
+
+        List<PodExecDecorator.Mode> modes = new ArrayList<>();
+        for (String mode : System.getProperty("benchmark.modes", "TTY,RAW,SESSION").split(",")) {
+            modes.add(PodExecDecorator.Mode.valueOf(mode.trim()));
+        }
+        List<Integer> concurrency = new ArrayList<>();
+        for (String c : System.getProperty("benchmark.concurrency", "1,8,32,128").split(",")) {
+            concurrency.add(Integer.parseInt(c.trim()));
+        }
+
+        List<Result> results = new ArrayList<>();
+        try (FakeExecServer server = new FakeExecServer(setupDelay)) {
+            server.start();
+            server.configureClient(NAMESPACE);
+            try (KubernetesFacade kubernetes = new KubernetesFacade()) {
+                for (PodExecDecorator.Mode mode : modes) {
+                    run(kubernetes, mode, 1, WARMUP_ITERATIONS, bytes);
+                }
+                System.out.println(String.format("%-8s %6s %9s %7s %10s %10s %10s %10s %10s",
+                        "mode", "conc.", "commands", "errors", "MB/s", "setup p50", "setup p99", "total p50", "total p99"));
+                for (PodExecDecorator.Mode mode : modes) {
+                    for (int c : concurrency) {
+                        Result result = run(kubernetes, mode, c, iterations, bytes);
+                        results.add(result);
+                        System.out.println(String.format("%-8s %6d %9d %7d %10.1f %10.2f %10.2f %10.2f %10.2f",
+                                mode, c, result.commands, result.errors, result.getThroughput(),
+                                millis(result.setup.getPercentile(50)), millis(result.setup.getPercentile(99)),
+                                millis(result.duration.getPercentile(50)), millis(result.duration.getPercentile(99))));
+                    }
+                }
+            }
+        }
+
+        if (!reports.exists() && !reports.mkdirs()) {
+            throw new IOException("Failed to create report directory:" + reports);
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (Result result : results) {
+            lines.add(result.toCsv(version));
+        }
+        Path report = new File(reports, "exec-" + version + ".csv").toPath();
+        Files.write(report, lines, StandardCharsets.UTF_8);
+        System.out.println("Report written to: " + report);
+    }
+
+    private static Result run(final KubernetesFacade kubernetes, final PodExecDecorator.Mode mode, int concurrency, final int iterations, final long bytes) throws InterruptedException {
+        final Result result = new Result(mode, concurrency);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            //Each worker gets its own pod, so that shell sessions aren't shared between workers.
+            final String podName = POD_PREFIX + i;
+            workers.execute(() -> {
+                for (int j = 0; j < iterations; j++) {
+                    try {
+                        runCommand(kubernetes, mode, podName, bytes, result);
+                    } catch (Exception e) {
+                        result.errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        result.elapsed = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void runCommand(KubernetesFacade kubernetes, PodExecDecorator.Mode mode, String podName, long bytes, Result result) throws Exception {
+        CountingOutputStream counter = new CountingOutputStream();
+        ExecOutputPump pump = new ExecOutputPump(counter);
+        PrintStream out = new PrintStream(pump, false, UTF_8);
+        String[] command = {FakeExecServer.EMIT, String.valueOf(bytes)};
+
+        long start = System.nanoTime();
+        CountDownLatch finished = new CountDownLatch(1);
+        switch (mode) {
+            case SESSION:
+                finished = kubernetes.execInSession(podName, CONTAINER, out, command).getFinished();
+                break;
+            case RAW:
+                kubernetes.execRaw(podName, CONTAINER, new AtomicBoolean(), new CountDownLatch(1), finished, pump, pump, out, command);
+                break;
+            default:
+                kubernetes.exec(podName, CONTAINER, new AtomicBoolean(), new CountDownLatch(1), finished, out, command);
+        }
+        result.setup.record(micros(System.nanoTime() - start));
+
+        try {
+            if (!finished.await(COMMAND_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Command timed out.");
+            }
+        } finally {
+            pump.close();
+        }
+        result.duration.record(micros(System.nanoTime() - start));
+        result.bytes.addAndGet(counter.count);
+        if (counter.count < bytes) {
+            throw new IOException("Expected " + bytes + " bytes of output, but got " + counter.count + ".");
+        }
+        result.commands.incrementAndGet();
+    }
+
+    /**
+     * Prints the difference between two reports.
+     */
+    private static void compare(Path baseline, Path candidate) throws IOException {
+        Map<String, String[]> before = read(baseline);
+        Map<String, String[]> after = read(candidate);
+        System.out.println(String.format("%-8s %6s %22s %22s %22s", "mode", "conc.", "MB/s", "setup p50 (ms)", "total p99 (ms)"));
+        for (Map.Entry<String, String[]> entry : after.entrySet()) {
+            String[] a = entry.getValue();
+            String[] b = before.get(entry.getKey());
+            if (b == null) {
+                continue;
+            }
+            System.out.println(String.format("%-8s %6s %22s %22s %22s", a[1], a[2],
+                    change(b[7], a[7]), change(b[8], a[8]), change(b[11], a[11])));
+        }
+    }
+
+    private static Map<String, String[]> read(Path report) throws IOException {
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith(HEADER)) {
+                continue;
+            }
+            String[] columns = line.split(",");
+            rows.put(columns[1] + "/" + columns[2], columns);
+        }
+        return rows;
+    }
+
+    private static String change(String before, String after) {
+        double b = Double.parseDouble(before);
+        double a = Double.parseDouble(after);
+        String percentage = b == 0 ? "n/a" : String.format("%+.1f%%", (a - b) * 100 / b);
+        return String.format("%s -> %s (%s)", before, after, percentage);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static final class Result {
+        private final PodExecDecorator.Mode mode;
+        private final int concurrency;
+        private final Histogram setup = new Histogram();
+        private final Histogram duration = new Histogram();
+        private final AtomicLong commands = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long elapsed;
+
+        private Result(PodExecDecorator.Mode mode, int concurrency) {
+            this.mode = mode;
+            this.concurrency = concurrency;
+        }
+
+        /**
+         * @return The aggregate output throughput in MB/s.
+         */
+        private double getThroughput() {
+            return elapsed == 0 ? 0 : bytes.get() / (1024.0 * 1024.0) / (elapsed / 1e9);
+        }
+
+        private String toCsv(String version) {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f", version, mode, concurrency, commands.get(), errors.get(), bytes.get(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), getThroughput(),
+                    millis(setup.getPercentile(50)), millis(setup.getPercentile(99)),
+                    millis(duration.getPercentile(50)), millis(duration.getPercentile(99)));
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private volatile long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.ByteString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stand-in for the API server, that only knows how to exec. Every exec connection gets a fake shell, that understands:
+ * <ul>
+ *     <li>emit &lt;bytes&gt;: writes the specified number of bytes of output (in lines of 80 characters).</li>
+ *     <li>exit: closes the connection.</li>
+ *     <li>the exit code marker of {@link ExecSession}: prints the marker with exit code 0.</li>
+ * </ul>
+ * Without stdin (raw exec) the command is taken from the exec arguments and the connection is closed once it's done.
+ */
+final class FakeExecServer implements Closeable {
+
+    static final String EMIT = "emit";
+
+    private static final byte STDOUT = 1;
+    private static final int FRAME_SIZE = 8 * 1024;
+    private static final int LINE_LENGTH = 80;
+    private static final long MAX_QUEUED = 1024 * 1024;
+    private static final Pattern MARKER = Pattern.compile("'DONE_(\\d+)'");
+
+    private final MockWebServer server = new MockWebServer();
+    private final long setupDelay;
+
+    /**
+     * @param setupDelay The time in milliseconds the server waits before it accepts an exec connection.
+     */
+    FakeExecServer(long setupDelay) {
+        this.setupDelay = setupDelay;
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (!request.getPath().contains("/exec")) {
+                    return new MockResponse().setResponseCode(404);
+                }
+                if (FakeExecServer.this.setupDelay > 0) {
+                    Thread.sleep(FakeExecServer.this.setupDelay);
+                }
+                boolean stdin = "true".equals(request.getRequestUrl().queryParameter("stdin"));
+                return new MockResponse().withWebSocketUpgrade(new FakeShell(stdin, request.getRequestUrl().queryParameterValues("command")));
+            }
+        });
+    }
+
+    void start() throws IOException {
+        server.start();
+    }
+
+    String getUrl() {
+        return server.url("/").toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * Points the shared kubernetes client to this server. Must be called before the client is first acquired.
+     */
+    void configureClient(String namespace) {
+        System.setProperty("kubernetes.master", getUrl());
+        System.setProperty("kubernetes.namespace", namespace);
+        System.setProperty("kubernetes.auth.tryKubeConfig", "false");
+        System.setProperty("kubernetes.auth.tryServiceAccount", "false");
+    }
+
+    private static final class FakeShell extends WebSocketListener {
+
+        private final boolean stdin;
+        private final List<String> command;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private FakeShell(boolean stdin, List<String> command) {
+            this.stdin = stdin;
+            this.command = command;
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            if (!stdin) {
+                run(webSocket, command);
+                webSocket.close(1000, null);
+            }
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, ByteString bytes) {
+            //The first byte is the channel, the client only writes to stdin.
+            for (int i = 1; i < bytes.size(); i++) {
+                byte b = bytes.getByte(i);
+                if (b == '\n') {
+                    String text = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+                    line.reset();
+                    onLine(webSocket, text);
+                } else {
+                    line.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+        }
+
+        private void onLine(WebSocket webSocket, String text) {
+            Matcher matcher = MARKER.matcher(text);
+            if (matcher.find()) {
+                send(webSocket, ("__EXEC_DONE_" + matcher.group(1) + ":0\n").getBytes(StandardCharsets.UTF_8));
+            } else if ("exit".equals(text)) {
+                webSocket.close(1000, null);
+            } else if (!text.isEmpty()) {
+                run(webSocket, Arrays.asList(text.split("\\s+")));
+            }
+        }
+
+        private void run(WebSocket webSocket, List<String> args) {
+            if (args.size() < 2 || !EMIT.equals(args.get(0))) {
+                return;
+            }
+            long remaining = Long.parseLong(args.get(1));
+            byte[] frame = new byte[FRAME_SIZE];
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = (byte) ((i + 1) % LINE_LENGTH == 0 ? '\n' : 'x');
+            }
+            while (remaining > 0) {
+                int n = (int) Math.min(frame.length, remaining);
+                //The websocket gives up on more than 16MB of queued frames, so we wait for the client to catch up.
+                while (webSocket.queueSize() > MAX_QUEUED) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                send(webSocket, Arrays.copyOf(frame, n));
+                remaining -= n;
+            }
+        }
+
+        private static void send(WebSocket webSocket, byte[] data) {
+            Buffer buffer = new Buffer();
+            buffer.writeByte(STDOUT);
+            buffer.write(data);
+            webSocket.send(buffer.readByteString());
+        }
+    }
+}
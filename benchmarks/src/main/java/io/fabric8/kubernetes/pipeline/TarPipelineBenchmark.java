@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how fast a build context tarball moves from the archiving thread to the thread that sends it to docker.
+ * It compares the piped streams with 8KB copies that buildImage used to rely on, with the {@link ContextPipe}.
+ * The reading side discards everything, so that only the archiving and the hand over are measured.
+ *
+ * Settings (system properties):
+ * <ul>
+ *     <li>benchmark.files: The number of small files in the context (default: 2000).</li>
+ *     <li>benchmark.fileSize: The size of the small files in bytes (default: 16KB).</li>
+ *     <li>benchmark.largeFiles: The number of large files in the context (default: 4).</li>
+ *     <li>benchmark.largeFileSize: The size of the large files in bytes (default: 64MB).</li>
+ *     <li>benchmark.iterations: The number of times each pipeline sends the context (default: 5).</li>
+ *     <li>benchmark.reports: The directory to write the report to.</li>
+ * </ul>
+ */
+public final class TarPipelineBenchmark {
+
+    private static final int LEGACY_BUFFER_SIZE = 8192;
+    private static final String HEADER = "version,pipeline,iterations,bytes,elapsedMs,throughputMBs";
+
+    private TarPipelineBenchmark() {
+        //Utility class
+    }
+
+    public static void main(String[] args) throws Exception {
+        String version = System.getProperty("benchmark.version", "dev");
+        File reports = new File(System.getProperty("benchmark.reports", "target/benchmark-reports"));
+        int files = Integer.getInteger("benchmark.files", 2000);
+        int fileSize = Integer.getInteger("benchmark.fileSize", 16 * 1024);
+        int largeFiles = Integer.getInteger("benchmark.largeFiles", 4);
+        long largeFileSize = Long.getLong("benchmark.largeFileSize", 64L * 1024 * 1024);
+        int iterations = Integer.getInteger("benchmark.iterations", 5);
+
+        Path context = Files.createTempDirectory("tar-pipeline-benchmark");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        try {
+            List<File> content = generate(context.toFile(), files, fileSize, largeFiles, largeFileSize);
+            //Warm up both pipelines.
+            send(executor, content, false);
+            send(executor, content, true);
+
+            System.out.println(String.format("%-12s %10s %12s %10s", "pipeline", "iterations", "bytes", "MB/s"));
+            for (boolean ring : new boolean[]{false, true}) {
+                long bytes = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    bytes += send(executor, content, ring);
+                }
+                long elapsed = System.nanoTime() - start;
+                double throughput = bytes / (1024.0 * 1024.0) / (elapsed / 1e9);
+                String name = ring ? "ContextPipe" : "Piped";
+                System.out.println(String.format("%-12s %10d %12d %10.1f", name, iterations, bytes, throughput));
+                lines.add(String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.1f", version, name, iterations, bytes, elapsed / 1000000, throughput));
+            }
+        } finally {
+            executor.shutdownNow();
+            delete(context.toFile());
+        }
+
+        if (!reports.exists() && !reports.mkdirs()) {
+            throw new IOException("Failed to create report directory:" + reports);
+        }
+        Path report = new File(reports, "tar-pipeline-" + version + ".csv").toPath();
+        Files.write(report, lines, StandardCharsets.UTF_8);
+        System.out.println("Report written to: " + report);
+    }
+
+    /**
+     * Archives the files on one thread and reads the tarball on another.
+     * @return The number of bytes read.
+     */
+    private static long send(ExecutorService executor, final List<File> content, boolean ring) throws Exception {
+        final OutputStream sink;
+        final InputStream source;
+        final ContextPipe pipe;
+        if (ring) {
+            pipe = new ContextPipe();
+            sink = pipe.sink();
+            source = pipe.source();
+        } else {
+            pipe = null;
+            PipedInputStream in = new PipedInputStream();
+            sink = new PipedOutputStream(in);
+            source = in;
+        }
+
+        Future<Long> reader = executor.submit(() -> {
+            byte[] buffer = new byte[ring ? ContextPipe.COPY_BUFFER_SIZE : LEGACY_BUFFER_SIZE];
+            long total = 0;
+            int n;
+            while ((n = source.read(buffer)) >= 0) {
+                total += n;
+            }
+            return total;
+        });
+
+        Future<?> writer = executor.submit(() -> {
+            byte[] buffer = new byte[ring ? ContextPipe.COPY_BUFFER_SIZE : LEGACY_BUFFER_SIZE];
+            try (TarArchiveOutputStream tar = new TarArchiveOutputStream(sink)) {
+                tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                for (File file : content) {
+                    TarArchiveEntry entry = new TarArchiveEntry(file, file.getName());
+                    tar.putArchiveEntry(entry);
+                    if (ring) {
+                        ContextPipe.copy(file, entry.getSize(), tar, buffer);
+                    } else {
+                        try (InputStream in = new FileInputStream(file)) {
+                            int n;
+                            while ((n = in.read(buffer)) >= 0) {
+                                tar.write(buffer, 0, n);
+                            }
+                        }
+                    }
+                    tar.closeArchiveEntry();
+                }
+            } catch (IOException e) {
+                if (pipe != null) {
+                    pipe.fail(e);
+                }
+                throw new IllegalStateException(e);
+            }
+        });
+
+        writer.get();
+        try {
+            return reader.get();
+        } finally {
+            source.close();
+        }
+    }
+
+    private static List<File> generate(File dir, int files, int fileSize, int largeFiles, long largeFileSize) throws IOException {
+        Random random = new Random(0);
+        byte[] data = new byte[1024 * 1024];
+        random.nextBytes(data);
+        List<File> content = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            content.add(write(new File(dir, "file-" + i), data, fileSize));
+        }
+        for (int i = 0; i < largeFiles; i++) {
+            content.add(write(new File(dir, "large-" + i), data, largeFileSize));
+        }
+        return content;
+    }
+
+    private static File write(File file, byte[] data, long size) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int n = (int) Math.min(data.length, remaining);
+                out.write(data, 0, n);
+                remaining -= n;
+            }
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.workflow.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared executor that limits how many tasks run at the same time for each key (e.g. the url of a docker daemon).
+ * Tasks over the limit are queued, in order, and start as soon as a task of the same key completes. Tasks submitted
+ * without a key aren't limited. Threads are named, daemon and reused across tasks, so that callers don't need their own pools.
+ * The time tasks spend in the queue is recorded in a {@link Histogram}.
+ */
+public final class BoundedExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final String name;
+    private final int maxPerKey;
+    private final ExecutorService workers;
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final Histogram waitTimes = new Histogram();
+
+    private int maxQueueDepth;
+
+    /**
+     * @param name      The name of the executor, used to name its threads.
+     * @param maxPerKey The maximum number of tasks that run at the same time for a key.
+     */
+    public BoundedExecutor(final String name, int maxPerKey) {
+        this.name = name;
+        this.maxPerKey = Math.max(1, maxPerKey);
+        final AtomicInteger count = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, name + " worker #" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Submits a task that isn't limited (e.g. local work that feeds a limited task).
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return workers.submit(task);
+    }
+
+    /**
+     * Submits a task that runs once fewer than the maximum number of tasks of the key are running.
+     * Cancelling the future of a queued task removes it from the queue.
+     */
+    public <T> Future<T> submit(String key, Callable<T> task) {
+        Queued<T> queued = new Queued<>(task);
+        boolean start;
+        synchronized (this) {
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                lanes.put(key, lane);
+            }
+            queued.lane = lane;
+            start = lane.running < maxPerKey;
+            if (start) {
+                lane.running++;
+            } else {
+                lane.queue.add(queued);
+                maxQueueDepth = Math.max(maxQueueDepth, lane.queue.size());
+            }
+        }
+        if (start) {
+            start(queued);
+        }
+        return queued;
+    }
+
+    /**
+     * Runs a task of the specified key and waits for it to complete.
+     * @return  The result of the task.
+     * @throws  Exception The exception thrown by the task.
+     */
+    public <T> T call(String key, Callable<T> task) throws Exception {
+        Future<T> future = submit(key, task);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of tasks of the key waiting to start.
+     */
+    public synchronized int getQueueDepth(String key) {
+        Lane lane = lanes.get(key);
+        return lane != null ? lane.queue.size() : 0;
+    }
+
+    /**
+     * @return The number of tasks of the key running.
+     */
+    public synchronized int getRunning(String key) {
+        Lane lane = lanes.get(key);
+        return lane != null ? lane.running : 0;
+    }
+
+    /**
+     * @return The maximum number of tasks that waited for a key at the same time.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public int getMaxPerKey() {
+        return maxPerKey;
+    }
+
+    /**
+     * @return The time in milliseconds that tasks of a key waited before starting.
+     */
+    public Histogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * @return A summary of the executor: the running and queued tasks of each key and the wait times.
+     */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(" executor (max ").append(maxPerKey).append(" per key, max queue depth ").append(maxQueueDepth).append(")\n");
+        for (Lane lane : lanes.values()) {
+            sb.append("  ").append(lane.key).append(": running=").append(lane.running).append(" queued=").append(lane.queue.size())
+                    .append(" completed=").append(lane.completed).append('\n');
+        }
+        sb.append("  wait (ms): ").append(waitTimes);
+        return sb.toString();
+    }
+
+    private void start(Queued<?> queued) {
+        waitTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued.submittedAt));
+        workers.execute(queued);
+    }
+
+    private void completed(Lane lane) {
+        Queued<?> next;
+        synchronized (this) {
+            lane.completed++;
+            next = lane.queue.poll();
+            if (next == null) {
+                lane.running--;
+                if (lane.running == 0) {
+                    lanes.remove(lane.key);
+                }
+                return;
+            }
+        }
+        //The slot passes on to the next task, so the lane never runs more than the limit.
+        start(next);
+    }
+
+    private synchronized boolean dequeue(Queued<?> queued) {
+        return queued.lane.queue.remove(queued);
+    }
+
+    private static final class Lane {
+        private final String key;
+        private final ArrayDeque<Queued<?>> queue = new ArrayDeque<>();
+        private int running;
+        private long completed;
+
+        private Lane(String key) {
+            this.key = key;
+        }
+    }
+
+    private final class Queued<T> extends FutureTask<T> {
+        private final long submittedAt = System.nanoTime();
+        private Lane lane;
+
+        private Queued(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                completed(lane);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                //A task that never started doesn't hold a slot, it only needs to leave the queue.
+                dequeue(this);
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.workflow.core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A registry of shared, reference counted clients.
+ * Clients are keyed (e.g. by cloud name and configuration) so that all steps talking to the same cluster reuse the
+ * same client and thus the same connection pool. When the last reference to a client is released, the client is kept
+ * around for an idle period and is only closed if nobody acquires it in the meantime.
+ * Code loaded by the same class loader shares the clients of the static registry (see {@link #shared(Class, String, Supplier)}),
+ * keyed by the type of the client and the connection settings of the cloud (see {@link #key(String...)}).
+ *
+ * @param <C> The client type.
+ */
+public class ClientRegistry<C extends AutoCloseable> {
+
+    private static final Logger LOGGER = Logger.getLogger(ClientRegistry.class.getName());
+
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String KEY_SEPARATOR = "|";
+    private static final String AUTO_CONFIGURED = "auto-configured";
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ClientRegistry evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ClientRegistry<AutoCloseable> SHARED = new ClientRegistry<>();
+
+    private final Map<String, Entry<C>> entries = new HashMap<>();
+    private final long idleTimeout;
+
+    public ClientRegistry() {
+        this(DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param idleTimeout   The time in milliseconds an unreferenced client is kept open, before it gets closed.
+     */
+    public ClientRegistry(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Acquires a reference to the client registered under the specified key.
+     * @param key       The key of the client.
+     * @param factory   The factory to use if no client is registered under the key.
+     * @return          A reference to the client, which needs to be closed when no longer needed.
+     */
+    public synchronized Ref<C> acquire(String key, Supplier<? extends C> factory) {
+        Entry<C> entry = entries.get(key);
+        if (entry == null) {
+            LOGGER.fine("Creating client for key:" + key);
+            entry = new Entry<>(key, factory.get());
+            entries.put(key, entry);
+        }
+        entry.retain();
+        return new Ref<>(this, entry);
+    }
+
+    /**
+     * Acquires a reference to a client of the static registry.
+     * Clients of different types (e.g. a kubernetes and an openshift client of the same cloud) are kept apart.
+     * @param type      The type of the client.
+     * @param key       The key of the client (e.g. built with {@link #key(String...)}).
+     * @param factory   The factory to use if no such client is registered.
+     * @return          A reference to the client, which needs to be closed when no longer needed.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends AutoCloseable> Ref<T> shared(Class<T> type, String key, Supplier<? extends T> factory) {
+        //The type is part of the key, so the client of the entry is always of the requested type.
+        return (Ref<T>) (Ref<?>) SHARED.acquire(type.getName() + KEY_SEPARATOR + key, factory);
+    }
+
+    /**
+     * Builds the key of a client from the settings of its connection (e.g. cloud name, url, namespace and credentials id),
+     * so that a cloud that gets reconfigured gets a new client.
+     */
+    public static String key(String... settings) {
+        StringBuilder sb = new StringBuilder();
+        for (String setting : settings) {
+            if (sb.length() > 0) {
+                sb.append(KEY_SEPARATOR);
+            }
+            sb.append(setting != null ? setting : "");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds the key of a client that uses the auto-configured (kubeconfig / service account) settings, so that changes
+     * to the kubeconfig or to the service account (e.g. a rotated token) result in a new client.
+     * The token itself is only hashed, so that it doesn't show up in the logs.
+     */
+    public static String autoConfiguredKey(String masterUrl, String namespace, String username, String oauthToken) {
+        return key(AUTO_CONFIGURED, masterUrl, namespace, username, Integer.toHexString(Objects.hashCode(oauthToken)));
+    }
+
+    /**
+     * @return The number of clients currently held by the registry.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Closes all clients regardless of their reference count.
+     */
+    public synchronized void closeAll() {
+        List<Entry<C>> all = new ArrayList<>(entries.values());
+        entries.clear();
+        for (Entry<C> entry : all) {
+            entry.cancelEviction();
+            closeQuietly(entry.client);
+        }
+    }
+
+    private synchronized void release(final Entry<C> entry) {
+        if (entry.release() > 0 || entries.get(entry.key) != entry) {
+            return;
+        }
+
+        if (idleTimeout <= 0) {
+            evict(entry);
+        } else {
+            entry.eviction = EVICTOR.schedule(() -> evict(entry), idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void evict(Entry<C> entry) {
+        if (entry.refs == 0 && entries.remove(entry.key, entry)) {
+            LOGGER.fine("Closing idle client for key:" + entry.key);
+            closeQuietly(entry.client);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable c) {
+        try {
+            c.close();
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to close client.", e);
+        }
+    }
+
+    private static class Entry<C> {
+        private final String key;
+        private final C client;
+        private int refs;
+        private ScheduledFuture<?> eviction;
+
+        private Entry(String key, C client) {
+            this.key = key;
+            this.client = client;
+        }
+
+        private void retain() {
+            cancelEviction();
+            refs++;
+        }
+
+        private int release() {
+            return --refs;
+        }
+
+        private void cancelEviction() {
+            if (eviction != null) {
+                eviction.cancel(false);
+                eviction = null;
+            }
+        }
+    }
+
+    /**
+     * A reference to a shared client. Closing the reference releases it, it doesn't close the client.
+     */
+    public static final class Ref<C extends AutoCloseable> implements Closeable {
+
+        private final ClientRegistry<C> registry;
+        private final Entry<C> entry;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Ref(ClientRegistry<C> registry, Entry<C> entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        public C get() {
+            return entry.client;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                registry.release(entry);
+            }
+        }
+    }
+}
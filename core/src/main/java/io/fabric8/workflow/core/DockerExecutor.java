@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.workflow.core;
+
+/**
+ * The executor the docker steps (build, tag and push) run on, shared by all the builds of the JVM (e.g. an agent).
+ * Work is keyed by the url of the docker daemon, so that no more than the configured number of operations run against a daemon
+ * at the same time; the rest wait in line. The limit is set with the {@value #MAX_CONCURRENT_PROPERTY} system property.
+ */
+public final class DockerExecutor {
+
+    public static final String MAX_CONCURRENT_PROPERTY = "io.fabric8.workflow.core.DockerExecutor.maxConcurrent";
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+
+    private static final BoundedExecutor INSTANCE = new BoundedExecutor("Docker", Integer.getInteger(MAX_CONCURRENT_PROPERTY, DEFAULT_MAX_CONCURRENT));
+
+    private DockerExecutor() {
+        //Utility class
+    }
+
+    public static BoundedExecutor get() {
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.workflow.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pool that reads, hashes and compresses build contexts, shared by all the builds of the JVM (e.g. an agent), so that
+ * concurrent builds don't each start a thread per processor. The size of the pool is set with the {@value #THREADS_PROPERTY}
+ * system property and defaults to the number of processors. Each build gets a view of the pool (see {@link #limit(int)})
+ * that runs no more than the parallelism of the build at the same time.
+ */
+public final class ReaderPool {
+
+    public static final String THREADS_PROPERTY = "io.fabric8.workflow.core.ReaderPool.threads";
+
+    private static final int THREADS = Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService INSTANCE;
+
+    static {
+        final AtomicInteger count = new AtomicInteger();
+        INSTANCE = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "Context reader #" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private ReaderPool() {
+        //Utility class
+    }
+
+    /**
+     * @return The number of threads of the pool.
+     */
+    public static int getThreads() {
+        return THREADS;
+    }
+
+    /**
+     * Returns a view of the pool for a single build. Shutting the view down cancels the tasks of the build, not the pool.
+     * @param parallelism   The maximum number of tasks of the build that run at the same time.
+     */
+    public static ExecutorService limit(int parallelism) {
+        return new Limited(INSTANCE, parallelism);
+    }
+
+    /**
+     * Runs up to a number of tasks at the same time on a shared executor; the rest wait in line, in order.
+     */
+    static final class Limited extends AbstractExecutorService {
+
+        private final ExecutorService executor;
+        private final int parallelism;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private final Set<Thread> threads = new HashSet<>();
+
+        private int running;
+        private boolean shutdown;
+
+        Limited(ExecutorService executor, int parallelism) {
+            this.executor = executor;
+            this.parallelism = Math.max(1, parallelism);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Executor has been shut down.");
+                }
+                if (running >= parallelism) {
+                    queue.add(task);
+                    return;
+                }
+                running++;
+            }
+            start(task);
+        }
+
+        private void start(final Runnable task) {
+            executor.execute(() -> {
+                Runnable next = task;
+                while (next != null) {
+                    run(next);
+                    //The thread keeps the slot while there are queued tasks.
+                    synchronized (this) {
+                        next = queue.poll();
+                        if (next == null) {
+                            running--;
+                            notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        private void run(Runnable task) {
+            synchronized (this) {
+                threads.add(Thread.currentThread());
+            }
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    threads.remove(Thread.currentThread());
+                }
+                //Don't leave an interrupt of this build behind on a shared thread.
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public synchronized List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> pending = new ArrayList<>(queue);
+            queue.clear();
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            return pending;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && running == 0;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (millis <= 0) {
+                    return false;
+                }
+                wait(millis);
+            }
+            return true;
+        }
+    }
+}
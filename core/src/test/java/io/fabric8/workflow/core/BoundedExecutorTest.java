@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.workflow.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedExecutorTest {
+
+    @Test
+    public void limitsConcurrentTasksPerKey() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor("Test", 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final int n = i;
+            futures.add(executor.submit("daemon-a", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                running.decrementAndGet();
+                return n;
+            }));
+        }
+        //Another daemon doesn't wait for the first one.
+        assertEquals("other", executor.call("daemon-b", () -> "other"));
+
+        assertEquals(2, executor.getRunning("daemon-a"));
+        assertEquals(4, executor.getQueueDepth("daemon-a"));
+        assertEquals(4, executor.getMaxQueueDepth());
+        release.countDown();
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, (int) futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, maxRunning.get());
+        assertEquals(7, executor.getWaitTimes().getCount());
+    }
+
+    @Test
+    public void cancelledTasksLeaveTheQueue() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor("Test", 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Object> first = executor.submit("daemon", () -> {
+            release.await();
+            return null;
+        });
+        Future<String> second = executor.submit("daemon", () -> "second");
+        Future<String> third = executor.submit("daemon", () -> "third");
+        assertEquals(2, executor.getQueueDepth("daemon"));
+        assertTrue(second.cancel(true));
+        assertEquals(1, executor.getQueueDepth("daemon"));
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        assertEquals("third", third.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void callRethrowsTheExceptionOfTheTask() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor("Test", 1);
+        try {
+            executor.call("daemon", () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail("Expected the exception of the task.");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.workflow.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClientRegistryTest {
+
+    @Test
+    public void sharesClientsPerKey() {
+        ClientRegistry<FakeClient> registry = new ClientRegistry<>();
+        AtomicInteger created = new AtomicInteger();
+
+        ClientRegistry.Ref<FakeClient> first = registry.acquire("cloud-a", () -> new FakeClient(created));
+        ClientRegistry.Ref<FakeClient> second = registry.acquire("cloud-a", () -> new FakeClient(created));
+        ClientRegistry.Ref<FakeClient> other = registry.acquire("cloud-b", () -> new FakeClient(created));
+
+        assertSame(first.get(), second.get());
+        assertNotSame(first.get(), other.get());
+        assertEquals(2, created.get());
+        registry.closeAll();
+    }
+
+    @Test
+    public void closesClientWhenLastReferenceIsReleased() {
+        ClientRegistry<FakeClient> registry = new ClientRegistry<>(0);
+        AtomicInteger created = new AtomicInteger();
+
+        ClientRegistry.Ref<FakeClient> first = registry.acquire("cloud", () -> new FakeClient(created));
+        ClientRegistry.Ref<FakeClient> second = registry.acquire("cloud", () -> new FakeClient(created));
+        FakeClient client = first.get();
+
+        first.close();
+        //Releasing the same reference twice should be a noop.
+        first.close();
+        assertFalse(client.closed);
+
+        second.close();
+        assertTrue(client.closed);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void keepsIdleClientUntilTimeout() {
+        ClientRegistry<FakeClient> registry = new ClientRegistry<>(60000);
+        AtomicInteger created = new AtomicInteger();
+
+        ClientRegistry.Ref<FakeClient> first = registry.acquire("cloud", () -> new FakeClient(created));
+        FakeClient client = first.get();
+        first.close();
+
+        ClientRegistry.Ref<FakeClient> second = registry.acquire("cloud", () -> new FakeClient(created));
+        assertSame(client, second.get());
+        assertFalse(client.closed);
+        assertEquals(1, created.get());
+
+        registry.closeAll();
+        assertTrue(client.closed);
+    }
+
+    @Test
+    public void sharedRegistryKeepsTypesApart() {
+        AtomicInteger created = new AtomicInteger();
+        ClientRegistry.Ref<FakeClient> first = ClientRegistry.shared(FakeClient.class, ClientRegistry.key("cloud", "https://a", "ns", null), () -> new FakeClient(created));
+        ClientRegistry.Ref<FakeClient> second = ClientRegistry.shared(FakeClient.class, ClientRegistry.key("cloud", "https://a", "ns", null), () -> new FakeClient(created));
+        ClientRegistry.Ref<OtherClient> other = ClientRegistry.shared(OtherClient.class, ClientRegistry.key("cloud", "https://a", "ns", null), OtherClient::new);
+        //A reconfigured cloud gets a client of its own.
+        ClientRegistry.Ref<FakeClient> reconfigured = ClientRegistry.shared(FakeClient.class, ClientRegistry.key("cloud", "https://b", "ns", null), () -> new FakeClient(created));
+
+        assertSame(first.get(), second.get());
+        assertNotSame(first.get(), reconfigured.get());
+        assertEquals(2, created.get());
+        assertTrue(other.get() instanceof OtherClient);
+        first.close();
+        second.close();
+        other.close();
+        reconfigured.close();
+    }
+
+    @Test
+    public void keysJoinSettings() {
+        assertEquals("cloud|https://a||creds", ClientRegistry.key("cloud", "https://a", null, "creds"));
+    }
+
+    @Test
+    public void autoConfiguredKeysChangeWithTheToken() {
+        String key = ClientRegistry.autoConfiguredKey("https://a", "ns", "user", "token");
+        assertEquals(key, ClientRegistry.autoConfiguredKey("https://a", "ns", "user", "token"));
+        assertNotEquals(key, ClientRegistry.autoConfiguredKey("https://a", "ns", "user", "rotated"));
+        assertFalse(key.contains("token"));
+    }
+
+    private static class OtherClient implements AutoCloseable {
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class FakeClient implements AutoCloseable {
+        private boolean closed;
+
+        private FakeClient(AtomicInteger created) {
+            created.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.workflow.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReaderPoolTest {
+
+    @Test
+    public void limitsTheTasksOfAView() throws Exception {
+        ExecutorService shared = Executors.newFixedThreadPool(8);
+        try {
+            ExecutorService view = new ReaderPool.Limited(shared, 2);
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final int value = i;
+                futures.add(view.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return value;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(Integer.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(2, maxRunning.get());
+            view.shutdown();
+            assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            shared.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shuttingDownAViewLeavesThePoolAlone() throws Exception {
+        ExecutorService shared = Executors.newFixedThreadPool(2);
+        try {
+            ExecutorService view = new ReaderPool.Limited(shared, 1);
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            view.submit(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            });
+            view.submit(() -> null);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            assertEquals(1, view.shutdownNow().size());
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+            assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+
+            ExecutorService other = new ReaderPool.Limited(shared, 2);
+            assertEquals("done", other.submit(() -> "done").get(10, TimeUnit.SECONDS));
+        } finally {
+            shared.shutdownNow();
+        }
+    }
+}
@@ -44,7 +44,6 @@ import io.fabric8.kubernetes.api.model.ReplicationController;
 import io.fabric8.kubernetes.api.model.Service;
 import io.fabric8.kubernetes.api.model.extensions.Deployment;
 import io.fabric8.kubernetes.api.model.extensions.ReplicaSet;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.kubernetes.client.dsl.LogWatch;
 import io.fabric8.kubernetes.internal.HasMetadataComparator;
@@ -54,7 +53,6 @@ import io.fabric8.kubernetes.pipeline.devops.elasticsearch.JsonUtils;
 import io.fabric8.kubernetes.pipeline.devops.git.GitConfig;
 import io.fabric8.kubernetes.pipeline.devops.git.GitInfoCallback;
 import io.fabric8.openshift.api.model.*;
-import io.fabric8.openshift.client.DefaultOpenShiftClient;
 import io.fabric8.openshift.client.OpenShiftAPIGroups;
 import io.fabric8.openshift.client.OpenShiftClient;
 import io.fabric8.openshift.client.dsl.BuildResource;
@@ -62,6 +60,7 @@ import io.fabric8.utils.IOHelpers;
 import io.fabric8.utils.Strings;
 import io.fabric8.utils.Systems;
 import io.fabric8.utils.URLUtils;
+import io.fabric8.workflow.core.ClientRegistry;
 import io.fabric8.workflow.core.Constants;
 import jenkins.model.Jenkins;
 import org.apache.commons.beanutils.BeanUtils;
@@ -109,7 +108,8 @@ public class ApplyStepExecution extends AbstractSynchronousStepExecution<List<Ha
     @StepContextParameter
     transient Run run;
 
-    private KubernetesClient kubernetes;
+    private transient ClientRegistry.Ref<KubernetesClient> kubernetes;
+    private transient ClientRegistry.Ref<OpenShiftClient> openShift;
 
     private final List<HasMetadata> items = new ArrayList<>();
 
@@ -129,7 +129,8 @@ public class ApplyStepExecution extends AbstractSynchronousStepExecution<List<Ha
             throw new AbortException("Supply target environment");
         }
 
-        try (KubernetesClient kubernetes = getKubernetes()) {
+        try {
+            KubernetesClient kubernetes = getKubernetes();
             Controller controller = new Controller(kubernetes);
             controller.setThrowExceptionOnError(true);
             controller.setRecreateMode(false);
@@ -309,6 +310,8 @@ public class ApplyStepExecution extends AbstractSynchronousStepExecution<List<Ha
         } catch (Exception e) {
             String stacktrace = ExceptionUtils.getStackTrace(e);
             throw new AbortException("Error during kubernetes apply: " + stacktrace);
+        } finally {
+            releaseClients();
         }
     }
 
@@ -457,12 +460,15 @@ public class ApplyStepExecution extends AbstractSynchronousStepExecution<List<Ha
         }
     }
 
-    private DefaultOpenShiftClient openShiftClient() {
-        return new DefaultOpenShiftClient();
+    private OpenShiftClient openShiftClient() {
+        if (openShift == null) {
+            openShift = KubernetesClientRef.acquireOpenShift();
+        }
+        return openShift.get();
     }
 
     private List<HasMetadata> loadImageStreams() throws IOException, InterruptedException {
-        if (kubernetes.isAdaptable(OpenShiftClient.class)) {
+        if (getKubernetes().isAdaptable(OpenShiftClient.class)) {
             FilePath child = workspace.child("target");
             if (child.exists() && child.isDirectory()) {
                 List<FilePath> paths = child.list();
@@ -925,8 +931,19 @@ public class ApplyStepExecution extends AbstractSynchronousStepExecution<List<Ha
 
     public KubernetesClient getKubernetes() {
         if (kubernetes == null) {
-            kubernetes = new DefaultKubernetesClient();
+            kubernetes = KubernetesClientRef.acquire();
+        }
+        return kubernetes.get();
+    }
+
+    private void releaseClients() {
+        if (kubernetes != null) {
+            kubernetes.close();
+            kubernetes = null;
+        }
+        if (openShift != null) {
+            openShift.close();
+            openShift = null;
         }
-        return kubernetes;
     }
 }
@@ -1,17 +1,22 @@
 package io.fabric8.kubernetes.pipeline.devops;
 
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.workflow.core.ClientRegistry;
 
 public class KubernetesClientRef {
 
-    private static KubernetesClient kubernetesClient;
+    private static ClientRegistry.Ref<KubernetesClient> kubernetesClient;
 
     public static synchronized KubernetesClient get() {
         if (kubernetesClient == null) {
-            kubernetesClient = create();
+            kubernetesClient = acquire();
         }
-        return kubernetesClient;
+        return kubernetesClient.get();
     }
 
     public static synchronized void close() {
@@ -22,9 +27,24 @@ public class KubernetesClientRef {
         kubernetesClient = null;
     }
 
+    /**
+     * @return A reference to the shared {@link KubernetesClient}. The reference needs to be closed when no longer used.
+     */
+    public static ClientRegistry.Ref<KubernetesClient> acquire() {
+        final Config config = new ConfigBuilder().build();
+        return ClientRegistry.shared(KubernetesClient.class, key(config), () -> new DefaultKubernetesClient(config));
+    }
+
+    /**
+     * @return A reference to the shared {@link OpenShiftClient}. The reference needs to be closed when no longer used.
+     */
+    public static ClientRegistry.Ref<OpenShiftClient> acquireOpenShift() {
+        final Config config = new ConfigBuilder().build();
+        return ClientRegistry.shared(OpenShiftClient.class, key(config), DefaultOpenShiftClient::new);
+    }
 
-    public static synchronized KubernetesClient create() {
-        return new DefaultKubernetesClient();
+    private static String key(Config config) {
+        return ClientRegistry.autoConfiguredKey(config.getMasterUrl(), config.getNamespace(), config.getUsername(), config.getOauthToken());
     }
 
 }
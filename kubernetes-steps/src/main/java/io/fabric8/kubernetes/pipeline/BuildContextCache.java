@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of build context tarballs on the agent, addressed by the hash of the content of the context.
+ * The hash of the context is computed from the names, modes and content hashes of its entries. Content hashes are
+ * cached by path, size and modification time, so that only files that changed since the last build are read.
+ * As modification times may only have a precision of a second (e.g. {@link File#lastModified()} on JDK 8), the hash of a file
+ * that was modified shortly before it was hashed is not cached: a rewrite of the same size within the same second wouldn't
+ * be noticed (the same "racily clean" files that git checks again).
+ * Only the latest tarball of each context directory is kept, and tarballs (along with the other files of the cache) that
+ * haven't been used for {@link #MAX_AGE_PROPERTY} milliseconds (default: a week) are deleted.
+ * When given an executor, the files that have to be hashed are hashed in parallel.
+ * As the context is archived after it was hashed, the archiver reports the files it wrote (see {@link #verify}) and a
+ * tarball is only committed if none of them changed in between. Builds of the same context directory in the same JVM
+ * update its files one at a time.
+ */
+final class BuildContextCache {
+
+    static final String DIR_NAME = "kubernetes-pipeline-build-context";
+
+    private static final String TAR_SUFFIX = ".tar";
+    private static final String HASHES_SUFFIX = ".hashes";
+    private static final String LATEST_SUFFIX = ".latest";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static final String MAX_AGE_PROPERTY = BuildContextCache.class.getName() + ".maxAge";
+    private static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    /**
+     * The coarsest precision of modification times that is expected (FAT has 2 seconds).
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000L;
+
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final File dir;
+    private final String contextKey;
+    private final Map<String, FileHash> previous = new HashMap<>();
+    private final Map<String, FileHash> hashes = new HashMap<>();
+    private final TreeMap<String, String> entries = new TreeMap<>();
+    private final Map<String, PendingHash> pendingHashes = new LinkedHashMap<>();
+    private final Set<String> racilyClean = new HashSet<>();
+    private final ExecutorService executor;
+
+    private int hashesReused;
+    private int filesHashed;
+    private String rootHash;
+    private String variant = "";
+    private File pending;
+    private int verified;
+    private boolean stale;
+
+    /**
+     * @param dir       The directory to keep the cache in.
+     * @param context   The context directory.
+     */
+    BuildContextCache(File dir, File context) throws IOException {
+        this(dir, context, null);
+    }
+
+    /**
+     * @param dir       The directory to keep the cache in.
+     * @param context   The context directory.
+     * @param executor  The executor to hash files on, or null to hash them on the calling thread.
+     */
+    BuildContextCache(File dir, File context, ExecutorService executor) throws IOException {
+        this.dir = dir;
+        this.executor = executor;
+        this.contextKey = hex(digest().digest(context.getAbsolutePath().getBytes(StandardCharsets.UTF_8)));
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create build context cache directory:" + dir);
+        }
+        loadHashes();
+    }
+
+    /**
+     * Adds a file to the context.
+     * @param name  The name of the entry in the tarball.
+     * @param file  The file.
+     * @param mode  The mode of the file, or -1 if unknown.
+     */
+    void addFile(String name, File file, int mode) throws IOException {
+        long size = file.length();
+        long modified = file.lastModified();
+        FileHash cached = previous.get(name);
+        if (cached != null && cached.size == size && cached.modified == modified) {
+            hashesReused++;
+            addFile(name, mode, cached);
+            return;
+        }
+        //The file is hashed after this, so the next build wouldn't notice a rewrite of the same size within the precision of its modification time.
+        if (System.currentTimeMillis() - modified < TIMESTAMP_GRANULARITY) {
+            racilyClean.add(name);
+        }
+        if (executor != null) {
+            filesHashed++;
+            pendingHashes.put(name, new PendingHash(mode, size, modified, executor.submit(() -> hash(file))));
+        } else {
+            filesHashed++;
+            addFile(name, mode, new FileHash(size, modified, hash(file)));
+        }
+    }
+
+    void addDirectory(String name, int mode) {
+        entries.put(name, "d " + mode);
+    }
+
+    void addSymlink(String name, String target) {
+        entries.put(name, "l " + target);
+    }
+
+    int getEntryCount() {
+        return entries.size() + pendingHashes.size();
+    }
+
+    /**
+     * @return The number of files whose hash didn't have to be computed.
+     */
+    int getHashesReused() {
+        return hashesReused;
+    }
+
+    int getFilesHashed() {
+        return filesHashed;
+    }
+
+    /**
+     * @return The hash of the whole context. Must only be called once all entries have been added.
+     */
+    String getRootHash() throws IOException {
+        if (rootHash == null) {
+            completeHashes();
+            MessageDigest digest = digest();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            rootHash = hex(digest.digest());
+        }
+        return rootHash;
+    }
+
+    /**
+     * Sets the variant of the tarball (e.g. a tarball whose Dockerfile was modified), so that tarballs of the same content
+     * that differ in the way they were archived are cached apart.
+     */
+    void setVariant(String variant) {
+        this.variant = variant != null ? variant : "";
+    }
+
+    /**
+     * @return The cached tarball of the context, or null if there is none.
+     */
+    File lookup() throws IOException {
+        saveHashes();
+        File tarball = new File(dir, getTarballName());
+        if (!tarball.isFile()) {
+            return null;
+        }
+        //Tarballs that are used are kept.
+        tarball.setLastModified(System.currentTimeMillis());
+        return tarball;
+    }
+
+    /**
+     * Persists the content hashes of the files, so that the next build only reads the files that changed.
+     */
+    void saveHashes() throws IOException {
+        completeHashes();
+        File file = new File(dir, contextKey + HASHES_SUFFIX);
+        File tmp = File.createTempFile(contextKey, ".tmp", dir);
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, FileHash> entry : hashes.entrySet()) {
+                if (entry.getKey().indexOf('\n') >= 0 || racilyClean.contains(entry.getKey())) {
+                    continue;
+                }
+                FileHash h = entry.getValue();
+                writer.write(h.size + " " + h.modified + " " + h.hash + " " + entry.getKey());
+                writer.newLine();
+            }
+        }
+        synchronized (lock()) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Returns a stream that writes to the specified stream and to the cache. The cached tarball only becomes
+     * available once {@link #commit()} is called.
+     */
+    OutputStream store(final OutputStream out) throws IOException {
+        pending = File.createTempFile(getRootHash(), ".tmp", dir);
+        final OutputStream file = new FileOutputStream(pending);
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                file.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                file.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+                file.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    file.close();
+                } finally {
+                    out.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Checks that a file that was archived is still the one that was hashed.
+     * @param name  The name of the entry in the tarball.
+     * @param file  The file, after its content was archived.
+     */
+    synchronized void verify(String name, File file) {
+        FileHash hash = hashes.get(name);
+        if (hash == null || hash.size != file.length() || hash.modified != file.lastModified()) {
+            stale = true;
+        } else {
+            verified++;
+        }
+    }
+
+    /**
+     * @return True if the archived files differ from the ones that were hashed (or some were not archived at all), in
+     * which case the stored tarball must not be committed under the hash of the context.
+     */
+    synchronized boolean isStale() {
+        return stale || verified != hashes.size();
+    }
+
+    /**
+     * Makes the stored tarball available and drops the previous tarball of the context.
+     */
+    void commit() throws IOException {
+        if (pending == null) {
+            return;
+        }
+        synchronized (lock()) {
+            File tarball = new File(dir, getTarballName());
+            Files.move(pending.toPath(), tarball.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            pending = null;
+
+            File latest = new File(dir, contextKey + LATEST_SUFFIX);
+            if (latest.isFile()) {
+                String previousName = new String(Files.readAllBytes(latest.toPath()), StandardCharsets.UTF_8).trim();
+                if (!previousName.isEmpty() && !previousName.equals(getTarballName())) {
+                    Files.deleteIfExists(new File(dir, previousName.endsWith(TAR_SUFFIX) ? previousName : previousName + TAR_SUFFIX).toPath());
+                }
+            }
+            //Readers never see a partially written name.
+            File tmp = File.createTempFile(contextKey, ".tmp", dir);
+            Files.write(tmp.toPath(), getTarballName().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), latest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        evict(dir, Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE));
+    }
+
+    /**
+     * Deletes the files of the cache that haven't been used for the specified time (e.g. the tarballs of context
+     * directories that are gone). A build that is just about to read a deleted tarball takes it as a miss.
+     * @param maxAge    The time in milliseconds.
+     */
+    static void evict(File dir, long maxAge) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - maxAge;
+        for (File file : files) {
+            long modified = file.lastModified();
+            if (modified != 0 && modified < oldest) {
+                //A file that can't be deleted now is deleted the next time.
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Drops a stored tarball that wasn't completed.
+     */
+    void abort() throws IOException {
+        if (pending != null) {
+            Files.deleteIfExists(pending.toPath());
+            pending = null;
+        }
+    }
+
+    /**
+     * @return The lock that serializes the updates of the files of the context in this JVM.
+     */
+    private Object lock() {
+        return LOCKS.computeIfAbsent(contextKey, k -> new Object());
+    }
+
+    private String getTarballName() throws IOException {
+        return getRootHash() + variant + TAR_SUFFIX;
+    }
+
+    private void addFile(String name, int mode, FileHash hash) {
+        entries.put(name, "f " + mode + " " + hash.hash);
+        hashes.put(name, hash);
+    }
+
+    /**
+     * Waits for the files that are being hashed.
+     */
+    private void completeHashes() throws IOException {
+        try {
+            for (Map.Entry<String, PendingHash> entry : pendingHashes.entrySet()) {
+                PendingHash pending = entry.getValue();
+                addFile(entry.getKey(), pending.mode, new FileHash(pending.size, pending.modified, pending.hash.get()));
+            }
+            pendingHashes.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            for (PendingHash pending : pendingHashes.values()) {
+                pending.hash.cancel(true);
+            }
+            pendingHashes.clear();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest = digest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, len);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private void loadHashes() {
+        File file = new File(dir, contextKey + HASHES_SUFFIX);
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                //size modified hash name (the name goes last, as it may contain spaces)
+                String[] parts = line.split(" ", 4);
+                if (parts.length == 4) {
+                    previous.put(parts[3], new FileHash(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            //A broken hash cache only means we have to hash everything again.
+            previous.clear();
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static final class PendingHash {
+        private final int mode;
+        private final long size;
+        private final long modified;
+        private final Future<String> hash;
+
+        private PendingHash(int mode, long size, long modified, Future<String> hash) {
+            this.mode = mode;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private static final class FileHash {
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        private FileHash(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
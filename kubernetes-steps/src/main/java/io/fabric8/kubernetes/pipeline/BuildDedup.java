@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.docker.api.model.ImageInspect;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets identical builds share a single image. Images are labelled with a hash of their build context (which includes the Dockerfile)
+ * and are also tagged as {@value #REPOSITORY}:&lt;hash&gt;, so that a build can find an image of identical content on the daemon and tag it,
+ * instead of building it again. Identical builds that run at the same time on the same JVM go through a single-flight lock:
+ * the first one builds, the others wait for it and then reuse its image.
+ */
+final class BuildDedup {
+
+    static final String LABEL = "io.fabric8.kubernetes.pipeline.context-hash";
+    static final String REPOSITORY = "kubernetes-pipeline-context";
+
+    /**
+     * Bumped whenever the way images are built changes, so that images built the old way aren't reused.
+     */
+    private static final String VERSION = "1";
+    private static final String DEFAULT_TAG = "latest";
+    private static final String REPRODUCIBLE = "reproducible";
+
+    private static final Map<String, Flight> FLIGHTS = new HashMap<>();
+
+    private BuildDedup() {
+        //Utility class
+    }
+
+    /**
+     * @param contextHash   The hash of the filtered build context.
+     * @param reproducible  True if the metadata of the context is normalized, which yields a different image.
+     * @return              The hash the image is labelled and tagged with.
+     */
+    static String imageHash(String contextHash, boolean reproducible) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest((VERSION + "\n" + contextHash + (reproducible ? "\n" + REPRODUCIBLE : "")).getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The instruction appended to the Dockerfile, so that the image carries the hash of its context.
+     */
+    static String labelInstruction(String hash) {
+        return "\nLABEL " + LABEL + "=\"" + hash + "\"\n";
+    }
+
+    /**
+     * @return The reference of the image built from the context with the specified hash.
+     */
+    static String reference(String hash) {
+        return REPOSITORY + ":" + hash;
+    }
+
+    /**
+     * @return True if the image carries the label of the specified hash.
+     */
+    static boolean isLabelled(ImageInspect image, String hash) {
+        if (image == null || image.getConfig() == null || image.getConfig().getLabels() == null) {
+            return false;
+        }
+        return hash.equals(image.getConfig().getLabels().get(LABEL));
+    }
+
+    /**
+     * Splits an image name into its repository and tag (e.g. registry:5000/example:1.0).
+     */
+    static String[] repositoryAndTag(String name) {
+        int colon = name.lastIndexOf(':');
+        if (colon > name.lastIndexOf('/')) {
+            return new String[]{name.substring(0, colon), name.substring(colon + 1)};
+        }
+        return new String[]{name, DEFAULT_TAG};
+    }
+
+    /**
+     * Waits until no other identical build runs, and holds off the next ones until the returned permit is closed.
+     * @param key       The key of the build (e.g. the daemon and the hash).
+     * @param timeout   The time in milliseconds to wait for the identical build.
+     * @throws TimeoutException If the identical build didn't complete in time.
+     */
+    static Permit acquire(String key, long timeout) throws InterruptedException, TimeoutException {
+        Flight flight;
+        synchronized (FLIGHTS) {
+            flight = FLIGHTS.get(key);
+            if (flight == null) {
+                flight = new Flight(key);
+                FLIGHTS.put(key, flight);
+            }
+            flight.refs++;
+        }
+        boolean waited = !flight.lock.tryLock();
+        if (waited) {
+            boolean locked = false;
+            try {
+                locked = flight.lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+            } finally {
+                if (!locked) {
+                    release(flight);
+                }
+            }
+            if (!locked) {
+                throw new TimeoutException("Timed out waiting for an identical build: [" + key + "].");
+            }
+        }
+        return new Permit(flight, waited);
+    }
+
+    /**
+     * @return The number of keys that have a build running or waiting.
+     */
+    static int getFlightCount() {
+        synchronized (FLIGHTS) {
+            return FLIGHTS.size();
+        }
+    }
+
+    private static void release(Flight flight) {
+        synchronized (FLIGHTS) {
+            if (--flight.refs == 0) {
+                FLIGHTS.remove(flight.key);
+            }
+        }
+    }
+
+    private static final class Flight {
+        private final String key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int refs;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The right to build the image of a key. Closing the permit lets the next identical build in.
+     */
+    static final class Permit implements Closeable {
+        private final Flight flight;
+        private final boolean waited;
+        private boolean closed;
+
+        private Permit(Flight flight, boolean waited) {
+            this.flight = flight;
+            this.waited = waited;
+        }
+
+        /**
+         * @return True if an identical build had to complete first.
+         */
+        boolean hasWaited() {
+            return waited;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                flight.lock.unlock();
+                release(flight);
+            }
+        }
+    }
+}
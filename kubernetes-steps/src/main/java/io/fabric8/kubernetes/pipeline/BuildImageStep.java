@@ -29,10 +29,21 @@ public class BuildImageStep extends AbstractDockerStep implements Serializable {
 
     private static final long serialVersionUID = 1851294902925088301L;
 
+    static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
     private Boolean rm;
     private String path;
     private long timeout = 600000L;
     private ArrayList ignorePatterns = new ArrayList();
+    private boolean cacheContext;
+    private int contextBufferSize = ContextPipe.DEFAULT_BUFFER_SIZE;
+    private int contextReadThreads;
+    private long contextReadAhead = ContextPrefetcher.DEFAULT_MEMORY_BUDGET;
+    private String contextCompression = BuildImageStepExecution.NO_COMPRESSION;
+    private int contextCompressionLevel = DEFAULT_COMPRESSION_LEVEL;
+    private long progressInterval = DockerProgressLog.DEFAULT_REFRESH_INTERVAL;
+    private boolean reuseImage;
+    private boolean reproducibleContext;
 
     @DataBoundConstructor
     public BuildImageStep(String name) {
@@ -75,6 +86,87 @@ public class BuildImageStep extends AbstractDockerStep implements Serializable {
         this.ignorePatterns = ignorePatterns;
     }
 
+    public boolean isCacheContext() {
+        return cacheContext;
+    }
+
+    @DataBoundSetter
+    public void setCacheContext(boolean cacheContext) {
+        this.cacheContext = cacheContext;
+    }
+
+    public int getContextBufferSize() {
+        return contextBufferSize;
+    }
+
+    @DataBoundSetter
+    public void setContextBufferSize(int contextBufferSize) {
+        this.contextBufferSize = contextBufferSize;
+    }
+
+    public int getContextReadThreads() {
+        return contextReadThreads;
+    }
+
+    @DataBoundSetter
+    public void setContextReadThreads(int contextReadThreads) {
+        this.contextReadThreads = contextReadThreads;
+    }
+
+    public long getContextReadAhead() {
+        return contextReadAhead;
+    }
+
+    @DataBoundSetter
+    public void setContextReadAhead(long contextReadAhead) {
+        this.contextReadAhead = contextReadAhead;
+    }
+
+    public String getContextCompression() {
+        return contextCompression;
+    }
+
+    @DataBoundSetter
+    public void setContextCompression(String contextCompression) {
+        this.contextCompression = contextCompression;
+    }
+
+    public int getContextCompressionLevel() {
+        return contextCompressionLevel;
+    }
+
+    @DataBoundSetter
+    public void setContextCompressionLevel(int contextCompressionLevel) {
+        this.contextCompressionLevel = contextCompressionLevel;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    @DataBoundSetter
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    public boolean isReuseImage() {
+        return reuseImage;
+    }
+
+    @DataBoundSetter
+    public void setReuseImage(boolean reuseImage) {
+        this.reuseImage = reuseImage;
+    }
+
+    public boolean isReproducibleContext() {
+        return reproducibleContext;
+    }
+
+    @DataBoundSetter
+    public void setReproducibleContext(boolean reproducibleContext) {
+        this.reproducibleContext = reproducibleContext;
+    }
+
     @Extension
     public static class DescriptorImpl extends AbstractStepDescriptorImpl {
 
@@ -22,45 +22,47 @@ import hudson.FilePath;
 import hudson.Functions;
 import hudson.model.TaskListener;
 import hudson.os.PosixException;
+import hudson.util.FileVisitor;
 import hudson.util.IOUtils;
 import hudson.util.io.Archiver;
 import hudson.util.io.ArchiverFactory;
 import io.fabric8.docker.api.model.ImageInspect;
 import io.fabric8.docker.client.DefaultDockerClient;
 import io.fabric8.docker.client.DockerClient;
-import io.fabric8.docker.client.utils.DockerIgnorePathMatcher;
+import io.fabric8.docker.client.DockerClientException;
 import io.fabric8.docker.dsl.EventListener;
 import io.fabric8.docker.dsl.OutputHandle;
+import io.fabric8.workflow.core.BoundedExecutor;
+import io.fabric8.workflow.core.DockerExecutor;
+import io.fabric8.workflow.core.ReaderPool;
 import jenkins.security.MasterToSlaveCallable;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.tools.tar.TarEntry;
 import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousStepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.nio.file.Path;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -74,6 +76,16 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
 
     private static final transient Logger LOGGER = Logger.getLogger(BuildImageStepExecution.class.getName());
 
+    static final String NO_COMPRESSION = "none";
+    static final String GZIP = "gzip";
+
+    private static final String DOCKERFILE = "Dockerfile";
+    private static final String LABELLED_VARIANT = "-labelled";
+    private static final String REPRODUCIBLE_VARIANT = "-reproducible";
+
+    private static final long START_POLL_INTERVAL = 1000L;
+    private static final long REPORTED_WAIT = 1000L;
+
     @Inject
     private BuildImageStep step;
 
@@ -89,74 +101,230 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
         return workspace.getChannel().call(new MasterToSlaveCallable<ImageInspect, Exception>() {
             @Override
             public ImageInspect call() throws Exception {
-                ExecutorService executorService = Executors.newFixedThreadPool(2);
-                try {
-                    Future<Boolean> createTarFuture;
-                    Future<ImageInspect> buildImageFuture;
-                    try (PipedInputStream pin = new PipedInputStream();
-                         PipedOutputStream pout = new PipedOutputStream(pin)) {
-                        createTarFuture = executorService.submit(new CreateTarTask(pout));
-                        buildImageFuture = executorService.submit(new BuildImageTask(pin));
-
-                        //Wait until the streams can be safely closed.
-                        if (!createTarFuture.get(step.getTimeout(), TimeUnit.MILLISECONDS)) {
-                            listener.getLogger().println("Failed to create docker image tarball.");
-                        }
-                    }
-
-                    ImageInspect imageInspect = buildImageFuture.get(step.getTimeout(), TimeUnit.MILLISECONDS);
-                    if (imageInspect == null) {
-                        throw new RuntimeException("Failed to build docker image.");
-                    } else {
-                        return imageInspect;
+                BoundedExecutor executor = DockerExecutor.get();
+                String daemon = step.getDockerConfig().getDockerUrl();
+                if (!step.isReuseImage()) {
+                    return build(executor, daemon, null, null, null);
+                }
+                //The hashes (and stats) of the context are reused for the tarball, which is checked against them as it is archived.
+                final ContextStats stats = new ContextStats();
+                final BuildContextCache context = hashContext(workspace.child(step.getPath()), stats);
+                final String hash = BuildDedup.imageHash(context.getRootHash(), step.isReproducibleContext());
+                try (BuildDedup.Permit permit = BuildDedup.acquire(daemon + " " + hash, step.getTimeout())) {
+                    if (permit.hasWaited()) {
+                        listener.getLogger().println("Waited for an identical build: [" + hash + "].");
                     }
-                } finally {
-                    executorService.shutdown();
-                    if (executorService.awaitTermination(30, TimeUnit.SECONDS)) {
-                        executorService.shutdownNow();
+                    ImageInspect existing = executor.call(daemon, () -> reuse(hash));
+                    if (existing != null) {
+                        return existing;
                     }
+                    return build(executor, daemon, hash, context, stats);
                 }
             }
         });
     }
 
+    /**
+     * Builds the image, streaming the tarball of the context to the daemon.
+     * @param hash      The hash to label and tag the image with, or null to leave the image unlabelled.
+     * @param context   The hashed context, or null if it wasn't hashed yet.
+     * @param stats     The stats collected while hashing the context, or null.
+     */
+    private ImageInspect build(BoundedExecutor executor, String daemon, String hash, BuildContextCache context, ContextStats stats) throws Exception {
+        Future<Boolean> createTarFuture = null;
+        Future<ImageInspect> buildImageFuture = null;
+        try (ContextPipe pipe = new ContextPipe(step.getContextBufferSize())) {
+            //Only the build counts against the limit of the daemon. The tarball waits for it in the pipe.
+            BuildImageTask buildImageTask = new BuildImageTask(pipe.source(), daemon);
+            buildImageFuture = executor.submit(daemon, buildImageTask);
+            CreateTarTask createTarTask = new CreateTarTask(pipe, hash, context, stats);
+            createTarFuture = executor.submit(createTarTask);
+
+            //The timeout applies to the build, not to the time spent waiting for the daemon.
+            buildImageTask.awaitStart(buildImageFuture);
+
+            if (!createTarFuture.get(step.getTimeout(), TimeUnit.MILLISECONDS)) {
+                listener.getLogger().println("Failed to create docker image tarball.");
+            }
+
+            ImageInspect imageInspect = buildImageFuture.get(step.getTimeout(), TimeUnit.MILLISECONDS);
+            LOGGER.fine("Build context: " + pipe.getTransferred() + " bytes, writer waits: " + pipe.getWriterWaits() + ", reader waits: " + pipe.getReaderWaits() + ".");
+            if (imageInspect == null) {
+                throw new RuntimeException("Failed to build docker image.");
+            }
+            if (hash != null) {
+                if (createTarTask.isStale()) {
+                    //The image carries the label, but without the tag identical builds don't find it.
+                    listener.getLogger().println("Build context changed while it was archived, identical builds won't reuse the image.");
+                } else {
+                    executor.call(daemon, () -> tagContextHash(hash));
+                }
+            }
+            return imageInspect;
+        } finally {
+            //The executor is shared, don't leave tasks of a failed or timed out build behind.
+            cancel(createTarFuture);
+            cancel(buildImageFuture);
+        }
+    }
+
+    /**
+     * Hashes the filtered context. The content hashes of files are cached, so only the files that changed are read.
+     * @param stats The stats to collect while walking the context.
+     * @return      The cache of the context, which has all of its hashes.
+     */
+    private BuildContextCache hashContext(FilePath path, ContextStats stats) throws IOException, InterruptedException {
+        File root = new File(path.getRemote());
+        ExecutorService readers = createReaders();
+        try {
+            BuildContextCache cache = new BuildContextCache(cacheDir(), root, readers);
+            new DockerIgnoreScanner(createMatcher(path), stats).scan(root, new ContextHashingVisitor(cache));
+            cache.saveHashes();
+            return cache;
+        } finally {
+            if (readers != null) {
+                readers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Tags the image built from an identical context with the name of the image, if the daemon has one.
+     * @return The image, or null if there is none.
+     */
+    private ImageInspect reuse(String hash) throws Exception {
+        try (DockerClient client = new DefaultDockerClient(step.getDockerConfig())) {
+            ImageInspect existing;
+            try {
+                existing = client.image().withName(BuildDedup.reference(hash)).inspect();
+            } catch (DockerClientException e) {
+                //No image was built from this context yet.
+                return null;
+            }
+            if (!BuildDedup.isLabelled(existing, hash)) {
+                return null;
+            }
+            String[] repositoryAndTag = BuildDedup.repositoryAndTag(step.getName());
+            if (!client.image().withName(BuildDedup.reference(hash)).tag().inRepository(repositoryAndTag[0]).force().withTagName(repositoryAndTag[1])) {
+                return null;
+            }
+            listener.getLogger().println("Reusing image: [" + existing.getId() + "] built from an identical context: [" + hash + "] as: [" + step.getName() + "].");
+            return client.image().withName(step.getName()).inspect();
+        }
+    }
+
+    /**
+     * Tags the image that was just built with the hash of its context, so that identical builds can find it.
+     */
+    private Boolean tagContextHash(String hash) throws Exception {
+        try (DockerClient client = new DefaultDockerClient(step.getDockerConfig())) {
+            boolean tagged = client.image().withName(step.getName()).tag().inRepository(BuildDedup.REPOSITORY).force().withTagName(hash);
+            if (!tagged) {
+                listener.getLogger().println("Failed to tag image: [" + step.getName() + "] as: [" + BuildDedup.reference(hash) + "], identical builds won't reuse it.");
+            }
+            return tagged;
+        }
+    }
+
+    /**
+     * @return The view of the shared reader pool that reads and hashes the files of the context, or null to read them on the calling thread.
+     */
+    private ExecutorService createReaders() {
+        int threads = getReadThreads();
+        return threads > 1 ? ReaderPool.limit(threads) : null;
+    }
+
+    /**
+     * @return The number of files of the build read at the same time: the configured number, but no more than the shared pool has.
+     */
+    private int getReadThreads() {
+        int threads = step.getContextReadThreads() > 0 ? step.getContextReadThreads() : ReaderPool.getThreads();
+        return Math.min(threads, ReaderPool.getThreads());
+    }
+
+    /**
+     * @return The opened tarball, or null if there is none (or a concurrent build of the same context replaced it).
+     */
+    private static FileChannel open(File tarball) throws IOException {
+        if (tarball == null) {
+            return null;
+        }
+        try {
+            return FileChannel.open(tarball.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static File cacheDir() {
+        return new File(System.getProperty("java.io.tmpdir"), BuildContextCache.DIR_NAME);
+    }
+
+    private static void cancel(Future<?> future) {
+        if (future != null && !future.isDone()) {
+            future.cancel(true);
+        }
+    }
+
     private class BuildImageTask implements Callable<ImageInspect> {
 
         private final InputStream inputStream;
+        private final String daemon;
+        private final long submittedAt = System.nanoTime();
+        private final CountDownLatch started = new CountDownLatch(1);
 
-        private BuildImageTask(InputStream inputStream) {
+        private BuildImageTask(InputStream inputStream, String daemon) {
             this.inputStream = inputStream;
+            this.daemon = daemon;
+        }
+
+        /**
+         * Waits until the build got a slot of the daemon, or didn't get to run at all.
+         */
+        private void awaitStart(Future<ImageInspect> future) throws InterruptedException {
+            while (!started.await(START_POLL_INTERVAL, TimeUnit.MILLISECONDS) && !future.isDone()) {
+                //Keep waiting.
+            }
         }
 
         @Override
         public ImageInspect call() throws Exception {
+            started.countDown();
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt);
+            if (waited >= REPORTED_WAIT) {
+                listener.getLogger().println("Waited " + waited + "ms for docker daemon: [" + daemon + "].");
+            }
             OutputHandle handle = null;
             try (DockerClient client = new DefaultDockerClient(step.getDockerConfig())) {
                 final BlockingQueue queue = new LinkedBlockingQueue();
                 listener.getLogger().println("Building image: [" + step.getName() + "].");
+                final DockerProgressLog progress = new DockerProgressLog(listener.getLogger(), step.getProgressInterval());
                 handle = client.image().build()
                         .withRepositoryName(step.getName())
                         .removingIntermediateOnSuccess()
                         .usingListener(new EventListener() {
                             @Override
                             public void onSuccess(String s) {
+                                progress.close();
                                 listener.getLogger().println(s);
                                 queue.add(true);
                             }
 
                             @Override
                             public void onError(String s) {
+                                progress.close();
                                 queue.add(new RuntimeException("Failed to build image. Error:" + s));
                             }
 
                             @Override
                             public void onError(Throwable throwable) {
+                                progress.close();
                                 queue.add(new RuntimeException("Failed to build image. Error:" + throwable));
                             }
 
                             @Override
                             public void onEvent(String s) {
-                                listener.getLogger().println(s);
+                                progress.onEvent(s);
                             }
 
                         }).fromTar(inputStream);
@@ -176,81 +344,279 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
                 if (handle != null) {
                     handle.close();
                 }
+                //Don't leave the tar task waiting for a reader that is gone.
+                inputStream.close();
             }
         }
     }
 
     private class CreateTarTask implements Callable<Boolean> {
-        private final OutputStream outputStream;
-
-        private CreateTarTask(OutputStream outputStream) {
-            this.outputStream = outputStream;
+        private final ContextPipe pipe;
+        private final String hash;
+        private final BuildContextCache context;
+        private final ContextStats hashedStats;
+        private OutputStream outputStream;
+        private ParallelGzipOutputStream gzip;
+        private volatile boolean stale;
+
+        /**
+         * @param hash          The hash to label the image with, or null.
+         * @param context       The context as it was hashed, or null to hash it here (if needed).
+         * @param hashedStats   The stats collected while hashing the context, or null.
+         */
+        private CreateTarTask(ContextPipe pipe, String hash, BuildContextCache context, ContextStats hashedStats) {
+            this.pipe = pipe;
+            this.hash = hash;
+            this.context = context;
+            this.hashedStats = hashedStats;
+            //Closing the stream (as the archiver always does) must not end the tarball, should the archive fail.
+            this.outputStream = pipe.unclosedSink();
         }
 
         @Override
         public Boolean call() throws Exception {
+            ExecutorService readers = createReaders();
             try {
                 FilePath path = workspace.child(step.getPath());
-                DockerIgnorePathMatcher matcher = createMatcher(path);
-                FileFilter dockerIgnoreFilter = new DockerIgnoreFileFilter(matcher);
-                listener.getLogger().println("Creating tar from path: [" + path.getRemote() + "]:");
-                for (FilePath c : path.list(dockerIgnoreFilter)) {
-                    listener.getLogger().println("\t" + c.getRemote());
+                DockerIgnoreMatcher matcher = createMatcher(path);
+                ContextStats stats = hashedStats != null ? hashedStats : new ContextStats();
+                listener.getLogger().println("Creating tar from path: [" + path.getRemote() + "].");
+                if (isGzip()) {
+                    //Docker detects the compression of the context by itself.
+                    gzip = new ParallelGzipOutputStream(outputStream, step.getContextCompressionLevel(), readers, readers != null ? getReadThreads() : 1);
+                    outputStream = gzip;
                 }
-                path.archive(new DockerArchiverFactory(matcher), outputStream, dockerIgnoreFilter);
-                outputStream.flush();
-                outputStream.close();
-                return true;
+                boolean result;
+                if (step.isCacheContext()) {
+                    result = archiveCached(path, matcher, stats, readers);
+                } else {
+                    //A single walk both archives the context and collects its stats (unless they were collected while hashing).
+                    path.archive(createArchiverFactory(readers, context), outputStream,
+                            new DockerIgnoreScanner(matcher, hashedStats != null ? null : stats, step.isReproducibleContext()));
+                    stale = context != null && context.isStale();
+                    outputStream.flush();
+                    outputStream.close();
+                    listener.getLogger().println(stats.summary());
+                    result = true;
+                }
+                if (gzip != null) {
+                    listener.getLogger().println(compressionSummary(gzip, pipe));
+                }
+                //Only now is the tarball complete.
+                pipe.sink().close();
+                return result;
             } catch (Throwable t) {
                 t.printStackTrace(listener.getLogger());
+                //Let docker know, rather than having it build from a truncated context.
+                pipe.fail(t);
                 return false;
+            } finally {
+                if (readers != null) {
+                    readers.shutdownNow();
+                }
             }
         }
-    }
 
-    private class DockerIgnoreFileFilter implements FileFilter, Serializable {
-        private final DockerIgnorePathMatcher dockerIgnorePathMatcher;
+        /**
+         * @return True if the archived context differs from the one that was hashed.
+         */
+        boolean isStale() {
+            return stale;
+        }
 
-        private DockerIgnoreFileFilter(DockerIgnorePathMatcher dockerIgnorePathMatcher) {
-            this.dockerIgnorePathMatcher = dockerIgnorePathMatcher;
+        /**
+         * @param verifier  The cache to report the archived files to, or null.
+         */
+        private DockerArchiverFactory createArchiverFactory(ExecutorService readers, BuildContextCache verifier) {
+            return new DockerArchiverFactory(readers, step.getContextReadAhead(), hash != null ? BuildDedup.labelInstruction(hash) : null,
+                    step.isReproducibleContext(), verifier);
         }
 
-        @Override
-        public boolean accept(File pathname) {
-            return !dockerIgnorePathMatcher.matches(pathname.toPath().toAbsolutePath());
+        private boolean isGzip() {
+            String compression = step.getContextCompression();
+            if (compression == null || compression.isEmpty() || NO_COMPRESSION.equalsIgnoreCase(compression)) {
+                return false;
+            } else if (GZIP.equalsIgnoreCase(compression)) {
+                return true;
+            }
+            throw new IllegalArgumentException("Unsupported build context compression: [" + compression + "]. Supported values: " + NO_COMPRESSION + ", " + GZIP + ".");
         }
+
+        /**
+         * Replays the cached tarball if the content of the context hasn't changed, or archives it and caches the result.
+         */
+        private Boolean archiveCached(FilePath path, DockerIgnoreMatcher matcher, ContextStats stats, ExecutorService readers) throws IOException, InterruptedException {
+            BuildContextCache cache = context;
+            if (cache == null) {
+                File root = new File(path.getRemote());
+                cache = new BuildContextCache(cacheDir(), root, readers);
+                //The stats are collected while hashing, as the context is only archived again on a cache miss.
+                new DockerIgnoreScanner(matcher, stats).scan(root, new ContextHashingVisitor(cache));
+            }
+            //The Dockerfile of a labelled tarball differs from the one in the context, and a reproducible one has different metadata.
+            cache.setVariant((hash != null ? LABELLED_VARIANT : "") + (step.isReproducibleContext() ? REPRODUCIBLE_VARIANT : ""));
+            listener.getLogger().println(stats.summary());
+
+            FileChannel cached = open(cache.lookup());
+            if (cached != null) {
+                listener.getLogger().println("Using cached build context: [" + cache.getRootHash() + "] (" + cache.getEntryCount() + " entries).");
+                try (FileChannel channel = cached) {
+                    if (gzip != null) {
+                        ContextPipe.copy(channel, channel.size(), gzip, new byte[ContextPipe.COPY_BUFFER_SIZE]);
+                    } else {
+                        pipe.transferFrom(channel);
+                    }
+                } finally {
+                    outputStream.close();
+                }
+                return true;
+            }
+
+            listener.getLogger().println("Caching build context: [" + cache.getRootHash() + "] (" + cache.getEntryCount() + " entries, "
+                    + cache.getFilesHashed() + " files hashed, " + cache.getHashesReused() + " hashes reused).");
+            boolean stored = false;
+            try {
+                path.archive(createArchiverFactory(readers, cache), cache.store(outputStream), new DockerIgnoreScanner(matcher, null, step.isReproducibleContext()));
+                if (cache.isStale()) {
+                    stale = true;
+                    //The tarball is fine for this build, but its content doesn't match the hash it would be cached under.
+                    listener.getLogger().println("Build context changed while it was archived, not caching it.");
+                } else {
+                    cache.commit();
+                    stored = true;
+                }
+            } finally {
+                if (!stored) {
+                    cache.abort();
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return The compression ratio, along with an estimate of the time it saved: the time the uncompressed context would
+     * have taken to send, at the rate the compressed one was sent, minus the time it actually took.
+     */
+    static String compressionSummary(ParallelGzipOutputStream gzip, ContextPipe pipe) {
+        long elapsed = Math.max(1, gzip.getElapsed());
+        double rate = (double) gzip.getBytesOut() / elapsed;
+        long saved = (long) (gzip.getBytesIn() / rate) - elapsed;
+        return String.format(Locale.ROOT, "Build context compressed: %s -> %s (ratio: %.2f) in %dms, saving an estimated %dms (writer waits: %d).",
+                ContextStats.formatBytes(gzip.getBytesIn()), ContextStats.formatBytes(gzip.getBytesOut()), gzip.getRatio(), elapsed,
+                Math.max(0, saved), pipe.getWriterWaits());
     }
 
+    /**
+     * Feeds the entries of the context to the cache, in the same way they end up in the tarball.
+     */
+    private static class ContextHashingVisitor extends FileVisitor {
+
+        private final BuildContextCache cache;
+
+        private ContextHashingVisitor(BuildContextCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void visit(File file, String relativePath) throws IOException {
+            String name = entryName(file, relativePath);
+            int mode = IOUtils.mode(file);
+            if (file.isDirectory()) {
+                cache.addDirectory(name, mode);
+            } else {
+                cache.addFile(name, file, mode);
+            }
+        }
 
-    private class DockerArchiverFactory extends ArchiverFactory {
+        @Override
+        public void visitSymlink(File link, String target, String relativePath) throws IOException {
+            cache.addSymlink(relativeName(relativePath), target);
+        }
 
-        private final DockerIgnorePathMatcher matcher;
+        @Override
+        public boolean understandsSymlink() {
+            return true;
+        }
+    }
 
-        public DockerArchiverFactory(DockerIgnorePathMatcher matcher) {
-            this.matcher = matcher;
+    static class DockerArchiverFactory extends ArchiverFactory {
+
+        private final transient ExecutorService readers;
+        private final long readAhead;
+        private final String dockerfileSuffix;
+        private final boolean reproducible;
+        private final transient BuildContextCache verifier;
+
+        /**
+         * @param dockerfileSuffix  Text appended to the Dockerfile at the root of the context (e.g. a label), or null.
+         * @param reproducible      True to normalize the metadata of the entries.
+         * @param verifier          The cache to report the archived files to, or null.
+         */
+        DockerArchiverFactory(ExecutorService readers, long readAhead, String dockerfileSuffix, boolean reproducible, BuildContextCache verifier) {
+            this.readers = readers;
+            this.readAhead = readAhead > 0 ? readAhead : ContextPrefetcher.DEFAULT_MEMORY_BUDGET;
+            this.dockerfileSuffix = dockerfileSuffix;
+            this.reproducible = reproducible;
+            this.verifier = verifier;
         }
 
         @Override
         public Archiver create(OutputStream out) throws IOException {
-            return new DockerImageArchiver(out, matcher);
+            return new DockerImageArchiver(out, new ContextPrefetcher<PrefetchedFile>(readers, readAhead), dockerfileSuffix, reproducible, verifier);
         }
     }
 
+    /**
+     * The tar entry and the content of a file, read ahead of the tarball.
+     */
+    private static class PrefetchedFile {
+        private final TarArchiveEntry entry;
+        private final byte[] content;
+
+        private PrefetchedFile(TarArchiveEntry entry, byte[] content) {
+            this.entry = entry;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Writes the tarball of the context. The metadata and the content of the files are read ahead by the {@link ContextPrefetcher},
+     * while the entries are written in the order they are visited, on the thread that walks the context.
+     * In reproducible mode the metadata that differs between checkouts (modification time, owner, exact mode bits, unicode form of
+     * names) is normalized, so that two checkouts of the same commit (walked in sorted order) produce the same tarball.
+     */
     private static class DockerImageArchiver extends Archiver {
 
-            private final byte[] buf = new byte[8192];
-            private final TarArchiveOutputStream tar;
-            private final DockerIgnorePathMatcher dockerIgnore;
+            private static final long REPRODUCIBLE_MOD_TIME = 0L;
+            private static final int EXECUTABLE_FILE_MODE = TarArchiveEntry.DEFAULT_FILE_MODE | 0111;
+            //The file type is carried by the type flag of the entry, the mode only has the permission bits.
+            private static final int SYMLINK_MODE = 0777;
 
-            DockerImageArchiver(OutputStream out, DockerIgnorePathMatcher dockerIgnore) {
-                this.dockerIgnore = dockerIgnore;
+            private final byte[] buf = new byte[ContextPipe.COPY_BUFFER_SIZE];
+            private final TarArchiveOutputStream tar;
+            private final ContextPrefetcher<PrefetchedFile> prefetcher;
+            private final String dockerfileSuffix;
+            private final boolean reproducible;
+            private final BuildContextCache verifier;
+
+            DockerImageArchiver(OutputStream out, ContextPrefetcher<PrefetchedFile> prefetcher, String dockerfileSuffix, boolean reproducible,
+                                BuildContextCache verifier) {
+                this.prefetcher = prefetcher;
+                this.dockerfileSuffix = dockerfileSuffix;
+                this.reproducible = reproducible;
+                this.verifier = verifier;
                 tar = new TarArchiveOutputStream(out);
                 tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
             }
 
             @Override
-            public void visitSymlink(File link, String target, String relativePath) throws IOException {
-                TarArchiveEntry e = new TarArchiveEntry(relativePath, LF_SYMLINK);
+            public void visitSymlink(final File link, final String target, final String relativePath) throws IOException {
+                prefetcher.add(ignored -> writeSymlink(link, target, relativePath));
+            }
+
+            private void writeSymlink(File link, String target, String relativePath) throws IOException {
+                TarArchiveEntry e = new TarArchiveEntry(relativeName(relativePath), LF_SYMLINK);
                 try {
                     int mode = IOUtils.mode(link);
                     if (mode != -1) {
@@ -259,16 +625,13 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
                 } catch (PosixException x) {
                     // ignore
                 }
-
-                try {
-                    StringBuffer linkName = (StringBuffer) LINKNAME_FIELD.get(e);
-                    linkName.setLength(0);
-                    linkName.append(target);
-                } catch (IllegalAccessException x) {
-                    throw new IOException("Failed to set linkName", x);
+                e.setLinkName(target);
+                if (reproducible) {
+                    normalize(e, SYMLINK_MODE);
                 }
 
                 tar.putArchiveEntry(e);
+                tar.closeArchiveEntry();
                 entriesWritten++;
             }
 
@@ -277,27 +640,69 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
                 return true;
             }
 
-        public void visit(File file, String relativePath) throws IOException {
-            if (recursiveMatch(dockerIgnore, file.toPath())) {
-                 return;
+        public void visit(final File file, final String relativePath) throws IOException {
+            final String name = entryName(file, relativePath);
+            if (dockerfileSuffix != null && !file.isDirectory() && DOCKERFILE.equals(name)) {
+                prefetcher.add(ignored -> {
+                    write(appendToDockerfile(file, relativePath));
+                    verify(name, file);
+                });
+                return;
             }
-
-            if (relativePath.contains("/")) {
-                relativePath = relativePath.substring(relativePath.indexOf("/") + 1);
+            long size = file.isDirectory() ? 0 : file.length();
+            if (prefetcher.accepts(size)) {
+                prefetcher.add(size, () -> {
+                    TarArchiveEntry te = createEntry(file, relativePath, reproducible);
+                    return new PrefetchedFile(te, te.isDirectory() ? null : ContextPrefetcher.read(file, te.getSize()));
+                }, prefetched -> {
+                    write(prefetched);
+                    verify(name, file);
+                });
             } else {
-                relativePath = ".";
+                //Large files are streamed once everything before them has been written.
+                prefetcher.add(ignored -> {
+                    write(new PrefetchedFile(createEntry(file, relativePath, reproducible), null));
+                    verify(name, file);
+                });
             }
+        }
 
-            if(Functions.isWindows()) {
-                relativePath = relativePath.replace('\\', '/');
+        /**
+         * Reports a file to the cache once its content was written, so that a file that changed after it was hashed is noticed.
+         */
+        private void verify(String name, File file) {
+            if (verifier != null && !file.isDirectory()) {
+                verifier.verify(name, file);
             }
+        }
+
+        private void write(PrefetchedFile prefetched) throws IOException {
+            TarArchiveEntry te = prefetched.entry;
+            tar.putArchiveEntry(te);
 
-            if(file.isDirectory()) {
-                relativePath += '/';
+            if (prefetched.content != null) {
+                tar.write(prefetched.content);
+            } else if (!te.isDirectory()) {
+                ContextPipe.copy(te.getFile(), te.getSize(), tar, buf);
             }
 
+            tar.closeArchiveEntry();
+            entriesWritten++;
+        }
+
+        private PrefetchedFile appendToDockerfile(File file, String relativePath) throws IOException {
+            byte[] content = Files.readAllBytes(file.toPath());
+            byte[] suffix = dockerfileSuffix.getBytes(StandardCharsets.UTF_8);
+            byte[] result = Arrays.copyOf(content, content.length + suffix.length);
+            System.arraycopy(suffix, 0, result, content.length, suffix.length);
+            TarArchiveEntry te = createEntry(file, relativePath, reproducible);
+            te.setSize(result.length);
+            return new PrefetchedFile(te, result);
+        }
+
+        private static TarArchiveEntry createEntry(File file, String relativePath, boolean reproducible) throws IOException {
             TarArchiveEntry te = new TarArchiveEntry(file);
-            te.setName(relativePath);
+            te.setName(entryName(file, relativePath));
 
             int mode = IOUtils.mode(file);
             if (mode!=-1) {
@@ -308,44 +713,39 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
             if(!file.isDirectory()) {
                 te.setSize(file.length());
             }
-
-            tar.putArchiveEntry(te);
-
-            if (!file.isDirectory()) {
-                FileInputStream in = new FileInputStream(file);
-                try {
-                    int len;
-                    while((len=in.read(buf))>=0)
-                        tar.write(buf,0,len);
-                } finally {
-                    in.close();
+            if (reproducible) {
+                if (file.isDirectory()) {
+                    normalize(te, TarArchiveEntry.DEFAULT_DIR_MODE);
+                } else {
+                    //Only the executable bit survives, as git does.
+                    boolean executable = mode != -1 ? (mode & 0100) != 0 : file.canExecute();
+                    normalize(te, executable ? EXECUTABLE_FILE_MODE : TarArchiveEntry.DEFAULT_FILE_MODE);
                 }
             }
-
-            tar.closeArchiveEntry();
-            entriesWritten++;
+            return te;
         }
 
-        public void close() throws IOException {
-            tar.close();
+        private static void normalize(TarArchiveEntry te, int mode) {
+            te.setName(Normalizer.normalize(te.getName(), Normalizer.Form.NFC));
+            te.setMode(mode);
+            te.setModTime(REPRODUCIBLE_MOD_TIME);
+            te.setUserId(0);
+            te.setGroupId(0);
+            te.setUserName("");
+            te.setGroupName("");
         }
 
-        private static final Field LINKNAME_FIELD = getTarEntryLinkNameField();
-
-        private static Field getTarEntryLinkNameField() {
+        public void close() throws IOException {
             try {
-                Field f = TarEntry.class.getDeclaredField("linkName");
-                f.setAccessible(true);
-                return f;
-            } catch (SecurityException e) {
-                throw new AssertionError(e);
-            } catch (NoSuchFieldException e) {
-                throw new AssertionError(e);
+                prefetcher.close();
+            } finally {
+                tar.close();
             }
         }
+
     }
 
-    private DockerIgnorePathMatcher createMatcher(FilePath root) throws IOException, InterruptedException {
+    private DockerIgnoreMatcher createMatcher(FilePath root) throws IOException, InterruptedException {
 
         FilePath dockerIgnorePath = root.child(DOCKER_IGNORE);
 
@@ -365,7 +765,7 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
             ignorePatterns.addAll(Arrays.asList(DEFAULT_IGNORE_PATTERNS));
         }
 
-        return new DockerIgnorePathMatcher(apply(root, ignorePatterns));
+        return DockerIgnoreMatcher.compile(ignorePatterns);
     }
 
 
@@ -385,25 +785,31 @@ public class BuildImageStepExecution extends AbstractSynchronousStepExecution<Im
         }
     }
 
-    private static List<String> apply(FilePath path, Collection<String> patterns) {
-        return apply(path, patterns.toArray(new String[patterns.size()]));
-    }
-
-    private static List<String> apply(FilePath path, String... patterns) {
-        List<String> result = new ArrayList<>();
-        for (String p : patterns) {
-            result.add(path.getRemote().endsWith(File.separator) ? path + p : path + File.separator + p);
+    /**
+     * @return The name of the file in the tarball, relative to the root of the context.
+     */
+    private static String entryName(File file, String relativePath) {
+        String name = relativeName(relativePath);
+        if(file.isDirectory()) {
+            name += '/';
         }
-        return result;
+        return name;
     }
 
-    private static boolean recursiveMatch(DockerIgnorePathMatcher match, Path file) {
-        if (match.matches(file)) {
-            return true;
-        } else if (file.getParent() != null) {
-            return recursiveMatch(match, file.getParent());
+    /**
+     * @return The path relative to the root of the context (the relative path of the scanner starts with the name of the root).
+     */
+    private static String relativeName(String relativePath) {
+        String name;
+        if (relativePath.contains("/")) {
+            name = relativePath.substring(relativePath.indexOf("/") + 1);
         } else {
-            return false;
+            name = ".";
+        }
+
+        if(Functions.isWindows()) {
+            name = name.replace('\\', '/');
         }
+        return name;
     }
 }
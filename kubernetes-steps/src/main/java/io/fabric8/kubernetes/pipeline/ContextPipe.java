@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands the build context tarball over from the thread that creates it to the thread that sends it to docker.
+ * Unlike a {@link java.io.PipedInputStream} (a 1KB buffer, with a wait / notify round trip every second), this is a
+ * large ring buffer for a single writer and a single reader. The lock is only held to reserve and to publish a region
+ * of the buffer; the bytes are copied outside of it, so that both sides can copy at the same time.
+ * A failure of the writer is passed on to the reader, so that docker never gets a truncated context.
+ */
+final class ContextPipe implements Closeable {
+
+    static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+    static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Files larger than this are memory mapped rather than read.
+     */
+    private static final long MAP_THRESHOLD = 16 * 1024 * 1024;
+    private static final long MAP_CHUNK = 64 * 1024 * 1024;
+
+    private final byte[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int head;
+    private int size;
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private Throwable failure;
+
+    private long transferred;
+    private long writerWaits;
+    private long readerWaits;
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                int[] region = reserve();
+                int n = Math.min(remaining, region[1]);
+                System.arraycopy(b, offset, ring, region[0], n);
+                publish(n);
+                offset += n;
+                remaining -= n;
+            }
+        }
+
+        @Override
+        public void close() {
+            closeWriter();
+        }
+    };
+
+    private final OutputStream unclosedSink = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            sink.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            sink.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            //The end of the tarball is only marked by closing the sink itself.
+        }
+    };
+
+    private final InputStream source = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int[] region = readable();
+            if (region == null) {
+                return -1;
+            }
+            int n = Math.min(len, region[1]);
+            System.arraycopy(ring, region[0], b, off, n);
+            consume(n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            closeReader();
+        }
+    };
+
+    ContextPipe(int bufferSize) {
+        this.ring = new byte[Math.max(64 * 1024, bufferSize)];
+    }
+
+    ContextPipe() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @return The stream the tarball is written to. Closing it marks the end of the tarball.
+     */
+    OutputStream sink() {
+        return sink;
+    }
+
+    /**
+     * @return A stream that writes to the sink, but that leaves the pipe open when it is closed. It is meant for writers
+     * that close their stream even when they fail (e.g. {@link hudson.FilePath#archive} closes its archiver, which writes
+     * the end of the tarball), so that the reader doesn't take a partial tarball for a complete one before the failure
+     * is passed on. Once the tarball is complete, {@link #sink()} has to be closed.
+     */
+    OutputStream unclosedSink() {
+        return unclosedSink;
+    }
+
+    /**
+     * @return The stream the tarball is read from.
+     */
+    InputStream source() {
+        return source;
+    }
+
+    /**
+     * Reads from a channel straight into the buffer, without an intermediate copy.
+     * @return The number of bytes transferred.
+     */
+    long transferFrom(FileChannel channel) throws IOException {
+        long total = 0;
+        while (true) {
+            int[] region = reserve();
+            int n = channel.read(ByteBuffer.wrap(ring, region[0], region[1]));
+            if (n < 0) {
+                return total;
+            }
+            publish(n);
+            total += n;
+        }
+    }
+
+    /**
+     * Fails the pipe, the reader gets the failure (wrapped in an {@link IOException}) instead of the end of the stream.
+     */
+    void fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            writerClosed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closeWriter();
+        closeReader();
+    }
+
+    long getTransferred() {
+        lock.lock();
+        try {
+            return transferred;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of times the writer had to wait for the reader.
+     */
+    long getWriterWaits() {
+        lock.lock();
+        try {
+            return writerWaits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of times the reader had to wait for the writer.
+     */
+    long getReaderWaits() {
+        lock.lock();
+        try {
+            return readerWaits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies (the first bytes of) a file to the specified stream. Small files are read through the buffer, large files are memory mapped.
+     * @param file      The file.
+     * @param length    The number of bytes to copy (e.g. the size in the tar header).
+     * @param out       The stream to copy to.
+     * @param buffer    The buffer to use.
+     */
+    static void copy(File file, long length, OutputStream out, byte[] buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            copy(channel, length, out, buffer);
+        }
+    }
+
+    /**
+     * Copies (the first bytes of) an open file to the specified stream (see {@link #copy(File, long, OutputStream, byte[])}).
+     */
+    static void copy(FileChannel channel, long length, OutputStream out, byte[] buffer) throws IOException {
+        long size = Math.min(length, channel.size());
+        long position = 0;
+        if (size >= MAP_THRESHOLD) {
+            while (position < size) {
+                long chunk = Math.min(MAP_CHUNK, size - position);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, chunk);
+                while (mapped.hasRemaining()) {
+                    int n = Math.min(buffer.length, mapped.remaining());
+                    mapped.get(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+                position += chunk;
+            }
+        } else {
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            while (position < size) {
+                bb.clear();
+                bb.limit((int) Math.min(buffer.length, size - position));
+                int n = channel.read(bb);
+                if (n < 0) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * Waits for free space.
+     * @return The offset and the length of the contiguous free region.
+     */
+    private int[] reserve() throws IOException {
+        lock.lock();
+        try {
+            while (true) {
+                if (readerClosed) {
+                    throw new IOException("Pipe closed by the reader.");
+                } else if (writerClosed) {
+                    throw new IOException("Pipe closed.");
+                } else if (size < ring.length) {
+                    int tail = (head + size) % ring.length;
+                    return new int[]{tail, Math.min(ring.length - size, ring.length - tail)};
+                }
+                writerWaits++;
+                notFull.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish(int n) {
+        lock.lock();
+        try {
+            size += n;
+            transferred += n;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for data.
+     * @return The offset and the length of the contiguous readable region, or null at the end of the stream.
+     */
+    private int[] readable() throws IOException {
+        lock.lock();
+        try {
+            while (true) {
+                if (readerClosed) {
+                    throw new IOException("Pipe closed.");
+                } else if (size > 0) {
+                    return new int[]{head, Math.min(size, ring.length - head)};
+                } else if (failure != null) {
+                    throw new IOException("Failed to create the build context.", failure);
+                } else if (writerClosed) {
+                    return null;
+                }
+                readerWaits++;
+                notEmpty.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void consume(int n) {
+        lock.lock();
+        try {
+            head = (head + n) % ring.length;
+            size -= n;
+            notFull.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeWriter() {
+        lock.lock();
+        try {
+            writerClosed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeReader() {
+        lock.lock();
+        try {
+            readerClosed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
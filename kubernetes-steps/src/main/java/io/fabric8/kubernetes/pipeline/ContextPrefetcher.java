@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the entries of the build context ahead, in parallel, and hands them over to a writer in the order they were added.
+ * The tarball has to be written in order, but reading the files doesn't. Reads run on the specified executor, as long as the
+ * bytes read ahead fit in the memory budget. When they don't, the entries at the head of the queue are written first.
+ * Entries that don't fit in a fraction of the budget aren't read ahead at all: they are written (e.g. streamed) in order.
+ *
+ * Not thread safe: entries are added and written by a single thread.
+ *
+ * @param <T> The type of what is read ahead.
+ */
+final class ContextPrefetcher<T> implements Closeable {
+
+    static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Entries larger than the budget divided by this aren't read ahead, so that a large file doesn't stall the pipeline.
+     */
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    /**
+     * Writes an entry.
+     * @param <T> The type of what is read ahead.
+     */
+    interface Writer<T> {
+        /**
+         * @param prefetched What was read ahead, or null for entries that weren't.
+         */
+        void write(T prefetched) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final long memoryBudget;
+    private final ArrayDeque<Pending<T>> queue = new ArrayDeque<>();
+
+    private long reserved;
+    private long prefetched;
+    private long budgetWaits;
+
+    /**
+     * @param executor      The executor to read on, or null to read on the calling thread.
+     * @param memoryBudget  The maximum number of bytes read ahead.
+     */
+    ContextPrefetcher(ExecutorService executor, long memoryBudget) {
+        this.executor = executor;
+        this.memoryBudget = Math.max(1, memoryBudget);
+    }
+
+    /**
+     * @return True if an entry of the specified size is read ahead.
+     */
+    boolean accepts(long size) {
+        return executor != null && size <= memoryBudget / MAX_ENTRY_FRACTION;
+    }
+
+    /**
+     * Adds an entry that is read ahead.
+     * @param size      The number of bytes the entry takes in memory, once read.
+     * @param read      Reads the entry.
+     * @param writer    Writes the entry.
+     */
+    void add(long size, Callable<T> read, Writer<T> writer) throws IOException {
+        if (!accepts(size)) {
+            T value;
+            try {
+                value = read.call();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            add(new Pending<>(null, value, 0, writer));
+            return;
+        }
+        while (reserved + size > memoryBudget && !queue.isEmpty()) {
+            budgetWaits++;
+            writeHead();
+        }
+        reserved += size;
+        prefetched += size;
+        add(new Pending<>(executor.submit(read), null, size, writer));
+    }
+
+    /**
+     * Adds an entry that isn't read ahead. It's written once all the entries before it have been written.
+     */
+    void add(Writer<T> writer) throws IOException {
+        if (queue.isEmpty()) {
+            writer.write(null);
+        } else {
+            add(new Pending<>(null, null, 0, writer));
+        }
+    }
+
+    /**
+     * Writes all pending entries.
+     */
+    void flush() throws IOException {
+        while (!queue.isEmpty()) {
+            writeHead();
+        }
+    }
+
+    /**
+     * Writes all pending entries. On failure, the reads that are still pending are cancelled.
+     */
+    @Override
+    public void close() throws IOException {
+        boolean flushed = false;
+        try {
+            flush();
+            flushed = true;
+        } finally {
+            if (!flushed) {
+                for (Pending<T> pending : queue) {
+                    if (pending.future != null) {
+                        pending.future.cancel(true);
+                    }
+                }
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The number of bytes that were read ahead.
+     */
+    long getPrefetched() {
+        return prefetched;
+    }
+
+    /**
+     * @return The number of times an entry had to wait for memory to be released.
+     */
+    long getBudgetWaits() {
+        return budgetWaits;
+    }
+
+    /**
+     * Reads the specified number of bytes of a file.
+     */
+    static byte[] read(File file, long size) throws IOException {
+        byte[] content = new byte[(int) size];
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("File: [" + file + "] changed while creating the build context.");
+                }
+            }
+        }
+        return content;
+    }
+
+    private void add(Pending<T> pending) throws IOException {
+        queue.add(pending);
+        //Write what is ready, so that the writer keeps up with the readers.
+        while (!queue.isEmpty() && queue.peek().isReady()) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        Pending<T> head = queue.poll();
+        try {
+            head.writer.write(head.get());
+        } finally {
+            reserved -= head.size;
+        }
+    }
+
+    private static final class Pending<T> {
+        private final Future<T> future;
+        private final T value;
+        private final long size;
+        private final Writer<T> writer;
+
+        private Pending(Future<T> future, T value, long size, Writer<T> writer) {
+            this.future = future;
+            this.value = value;
+            this.size = size;
+            this.writer = writer;
+        }
+
+        private boolean isReady() {
+            return future == null || future.isDone();
+        }
+
+        private T get() throws IOException {
+            if (future == null) {
+                return value;
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the numbers of a build context while it's being archived: what went into it, the largest files and where the time went.
+ * It replaces the listing of the context in the console with a summary of a few lines.
+ */
+final class ContextStats {
+
+    static final int TOP = 5;
+
+    private static final Comparator<Map.Entry<String, Long>> BY_VALUE = Comparator.comparing(Map.Entry::getValue);
+
+    private final long startedAt = System.nanoTime();
+    private final PriorityQueue<Map.Entry<String, Long>> largest = new PriorityQueue<>(BY_VALUE);
+    private final Map<String, Long> timePerDirectory = new HashMap<>();
+
+    private long files;
+    private long directories;
+    private long symlinks;
+    private long bytes;
+    private int prunedDirectories;
+    private long elapsed = -1;
+
+    /**
+     * Records an entry of the context.
+     * @param name      The name of the entry, relative to the root of the context.
+     * @param size      The size of a file.
+     * @param directory True for a directory.
+     * @param nanos     The time it took to archive the entry.
+     */
+    void record(String name, long size, boolean directory, long nanos) {
+        if (directory) {
+            directories++;
+        } else {
+            files++;
+            bytes += size;
+            largest.add(new AbstractMap.SimpleImmutableEntry<>(name, size));
+            if (largest.size() > TOP) {
+                largest.poll();
+            }
+        }
+        timePerDirectory.merge(parentOf(name), nanos, Long::sum);
+    }
+
+    void recordSymlink() {
+        symlinks++;
+    }
+
+    void setPrunedDirectories(int prunedDirectories) {
+        this.prunedDirectories = prunedDirectories;
+    }
+
+    /**
+     * Marks the end of the walk.
+     */
+    void done() {
+        elapsed = System.nanoTime() - startedAt;
+    }
+
+    long getFiles() {
+        return files;
+    }
+
+    long getDirectories() {
+        return directories;
+    }
+
+    long getSymlinks() {
+        return symlinks;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The largest files, largest first.
+     */
+    List<Map.Entry<String, Long>> getLargestFiles() {
+        List<Map.Entry<String, Long>> result = new ArrayList<>(largest);
+        result.sort(Collections.reverseOrder(BY_VALUE));
+        return result;
+    }
+
+    /**
+     * @return The directories that took the longest to archive (their files, not their subdirectories), slowest first.
+     */
+    List<Map.Entry<String, Long>> getSlowestDirectories() {
+        List<Map.Entry<String, Long>> result = new ArrayList<>(timePerDirectory.entrySet());
+        result.sort(Collections.reverseOrder(BY_VALUE));
+        return result.subList(0, Math.min(TOP, result.size()));
+    }
+
+    String summary() {
+        long nanos = elapsed >= 0 ? elapsed : System.nanoTime() - startedAt;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Build context: ").append(files).append(" files, ").append(directories).append(" directories, ")
+                .append(symlinks).append(" symlinks, ").append(formatBytes(bytes))
+                .append(" in ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms");
+        if (prunedDirectories > 0) {
+            sb.append(" (").append(prunedDirectories).append(" ignored directories skipped)");
+        }
+        sb.append('.');
+        if (!largest.isEmpty()) {
+            sb.append("\n\tLargest files:");
+            for (Map.Entry<String, Long> e : getLargestFiles()) {
+                sb.append(' ').append(e.getKey()).append(" (").append(formatBytes(e.getValue())).append(')');
+            }
+        }
+        if (!timePerDirectory.isEmpty()) {
+            sb.append("\n\tSlowest directories:");
+            for (Map.Entry<String, Long> e : getSlowestDirectories()) {
+                sb.append(' ').append(e.getKey()).append(" (").append(TimeUnit.NANOSECONDS.toMillis(e.getValue())).append("ms)");
+            }
+        }
+        return sb.toString();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ROOT, "%.1f %sB", bytes / (double) (1L << (unit * 10)), " KMGTPE".charAt(unit));
+    }
+
+    private static String parentOf(String name) {
+        String path = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        int i = path.lastIndexOf('/');
+        return i < 0 ? "." : path.substring(0, i);
+    }
+}
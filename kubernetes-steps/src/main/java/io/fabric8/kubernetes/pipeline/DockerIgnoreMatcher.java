@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The .dockerignore patterns of a build context, compiled into a trie keyed by path segment.
+ * Literal segments are looked up in a map, wildcard segments are compiled to a regular expression once and `**` matches any number of segments.
+ *
+ * As with docker, the last pattern that matches a path or any of its parent directories wins, and patterns starting with `!` include paths again.
+ * A path is matched one segment at a time, starting from {@link #root()}, so that a walker can carry the state of a directory over to its children
+ * and skip a directory altogether when it's excluded and no later `!` pattern can include anything below it.
+ */
+final class DockerIgnoreMatcher implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int NONE = -1;
+
+    private final Node trie = new Node(null);
+    private final List<Boolean> negated = new ArrayList<>();
+
+    private DockerIgnoreMatcher() {
+    }
+
+    /**
+     * Compiles the specified patterns (e.g. the lines of a .dockerignore file). Empty lines and comments are skipped.
+     */
+    static DockerIgnoreMatcher compile(Collection<String> patterns) {
+        DockerIgnoreMatcher matcher = new DockerIgnoreMatcher();
+        for (String pattern : patterns) {
+            matcher.add(pattern);
+        }
+        matcher.trie.computeNegationsBelow();
+        return matcher;
+    }
+
+    /**
+     * @return The state of the root of the context, which is never excluded.
+     */
+    State root() {
+        List<Node> nodes = new ArrayList<>();
+        addWithClosure(nodes, trie);
+        return new State(nodes, NONE);
+    }
+
+    /**
+     * @param relativePath The path relative to the root of the context, using '/' as the separator.
+     * @return True if the path is excluded by the patterns.
+     */
+    boolean isExcluded(String relativePath) {
+        State state = root();
+        for (String segment : relativePath.split("/")) {
+            if (!segment.isEmpty() && !".".equals(segment)) {
+                state = state.child(segment);
+            }
+        }
+        return state.isExcluded();
+    }
+
+    private void add(String line) {
+        String pattern = line.trim();
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return;
+        }
+        boolean negation = pattern.startsWith("!");
+        if (negation) {
+            pattern = pattern.substring(1).trim();
+        }
+
+        Node node = trie;
+        boolean empty = true;
+        for (String segment : pattern.split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            empty = false;
+            node = node.child(segment);
+        }
+        if (empty) {
+            return;
+        }
+        node.rule = negated.size();
+        negated.add(negation);
+    }
+
+    private boolean isNegated(int rule) {
+        return rule != NONE && negated.get(rule);
+    }
+
+    /**
+     * Adds the node along with the `**` nodes it leads to, as those also match zero segments.
+     */
+    private static void addWithClosure(List<Node> nodes, Node node) {
+        for (Node n : nodes) {
+            if (n == node) {
+                return;
+            }
+        }
+        nodes.add(node);
+        if (node.anyDepth != null) {
+            addWithClosure(nodes, node.anyDepth);
+        }
+    }
+
+    /**
+     * The position of a walker in the trie: the nodes a path can still continue from and the last pattern that matched so far.
+     */
+    final class State {
+
+        private final List<Node> nodes;
+        private final int rule;
+
+        private State(List<Node> nodes, int rule) {
+            this.nodes = nodes;
+            this.rule = rule;
+        }
+
+        /**
+         * @return The state of the specified child of this path.
+         */
+        State child(String segment) {
+            List<Node> next = new ArrayList<>();
+            int matched = rule;
+            for (Node node : nodes) {
+                if (node.isAnyDepth()) {
+                    matched = Math.max(matched, advance(next, node));
+                }
+                Node literal = node.literals != null ? node.literals.get(segment) : null;
+                if (literal != null) {
+                    matched = Math.max(matched, advance(next, literal));
+                }
+                if (node.wildcards != null) {
+                    for (Node wildcard : node.wildcards) {
+                        if (wildcard.pattern.matcher(segment).matches()) {
+                            matched = Math.max(matched, advance(next, wildcard));
+                        }
+                    }
+                }
+            }
+            return new State(next, matched);
+        }
+
+        /**
+         * @return True if the path is excluded.
+         */
+        boolean isExcluded() {
+            return rule != NONE && !isNegated(rule);
+        }
+
+        /**
+         * @return True if the path is excluded, along with everything below it.
+         */
+        boolean isPruned() {
+            if (!isExcluded()) {
+                return false;
+            }
+            for (Node node : nodes) {
+                if (node.negationsBelow > rule) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int advance(List<Node> next, Node node) {
+            addWithClosure(next, node);
+            return node.rule;
+        }
+    }
+
+    private static final class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String segment;
+        private final Pattern pattern;
+        private Map<String, Node> literals;
+        private List<Node> wildcards;
+        private Node anyDepth;
+        /**
+         * The index of the last pattern that ends at this node.
+         */
+        private int rule = NONE;
+        /**
+         * The index of the last `!` pattern that can match a path below this node.
+         */
+        private int negationsBelow = NONE;
+
+        private Node(String segment) {
+            this.segment = segment;
+            this.pattern = segment != null && isWildcard(segment) ? Pattern.compile(toRegex(segment)) : null;
+        }
+
+        private boolean isAnyDepth() {
+            return "**".equals(segment);
+        }
+
+        private Node child(String segment) {
+            if ("**".equals(segment)) {
+                if (anyDepth == null) {
+                    anyDepth = new Node(segment);
+                }
+                return anyDepth;
+            } else if (isWildcard(segment)) {
+                if (wildcards == null) {
+                    wildcards = new ArrayList<>();
+                }
+                for (Node wildcard : wildcards) {
+                    if (wildcard.segment.equals(segment)) {
+                        return wildcard;
+                    }
+                }
+                Node wildcard = new Node(segment);
+                wildcards.add(wildcard);
+                return wildcard;
+            }
+            if (literals == null) {
+                literals = new HashMap<>();
+            }
+            Node literal = literals.get(segment);
+            if (literal == null) {
+                literal = new Node(segment);
+                literals.put(segment, literal);
+            }
+            return literal;
+        }
+
+        /**
+         * @return The index of the last `!` pattern that ends at this node or below.
+         */
+        private int computeNegationsBelow() {
+            List<Node> children = new ArrayList<>();
+            if (literals != null) {
+                children.addAll(literals.values());
+            }
+            if (wildcards != null) {
+                children.addAll(wildcards);
+            }
+            if (anyDepth != null) {
+                children.add(anyDepth);
+            }
+            for (Node child : children) {
+                negationsBelow = Math.max(negationsBelow, child.computeNegationsBelow());
+            }
+            int own = rule;
+            if (isAnyDepth()) {
+                //A `**` node matches again one level down.
+                negationsBelow = Math.max(negationsBelow, own);
+            }
+            return Math.max(negationsBelow, own);
+        }
+    }
+
+    private static boolean isWildcard(String segment) {
+        for (char c : segment.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Translates a segment of a pattern (the syntax of Go's filepath.Match) to a regular expression.
+     */
+    private static String toRegex(String segment) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            switch (c) {
+                case '*':
+                    sb.append(".*");
+                    break;
+                case '?':
+                    sb.append('.');
+                    break;
+                case '\\':
+                    if (i + 1 < segment.length()) {
+                        sb.append(Pattern.quote(String.valueOf(segment.charAt(++i))));
+                    }
+                    break;
+                case '[':
+                    int end = segment.indexOf(']', i + 1);
+                    if (end < 0) {
+                        sb.append(Pattern.quote("["));
+                        break;
+                    }
+                    String range = segment.substring(i + 1, end);
+                    if (range.startsWith("^") || range.startsWith("!")) {
+                        range = "^" + range.substring(1);
+                    }
+                    sb.append('[').append(range.replace("[", "\\[")).append(']');
+                    i = end;
+                    break;
+                default:
+                    sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return sb.toString();
+    }
+}
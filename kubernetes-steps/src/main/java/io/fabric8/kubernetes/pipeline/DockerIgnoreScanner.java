@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import hudson.Util;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Walks the build context, skipping what the .dockerignore patterns exclude.
+ * Unlike a {@link DirScanner.Filter}, which still walks every excluded directory, an excluded directory is not even listed unless a `!` pattern
+ * may include something below it. The relative paths passed to the visitor are the same as those of {@link DirScanner.Full}.
+ * When given {@link ContextStats}, the walk also records every entry it visits, so that the context is only walked once.
+ * A sorted walk visits the children of a directory by their NFC normalized name, so that the order doesn't depend on the file system.
+ */
+final class DockerIgnoreScanner extends DirScanner {
+
+    private static final long serialVersionUID = 1L;
+    //Names are compared in the form they end up in a reproducible tarball, so that the order is the same whatever form the checkout used.
+    private static final Comparator<File> BY_NAME = Comparator.comparing((File f) -> Normalizer.normalize(f.getName(), Normalizer.Form.NFC));
+
+    private final DockerIgnoreMatcher matcher;
+    private final transient ContextStats stats;
+    private final boolean sorted;
+
+    private transient int prunedCount;
+
+    DockerIgnoreScanner(DockerIgnoreMatcher matcher) {
+        this(matcher, null);
+    }
+
+    DockerIgnoreScanner(DockerIgnoreMatcher matcher, ContextStats stats) {
+        this(matcher, stats, false);
+    }
+
+    DockerIgnoreScanner(DockerIgnoreMatcher matcher, ContextStats stats, boolean sorted) {
+        this.matcher = matcher;
+        this.stats = stats;
+        this.sorted = sorted;
+    }
+
+    @Override
+    public void scan(File dir, FileVisitor visitor) throws IOException {
+        scan(dir, "", matcher.root(), visitor);
+        if (stats != null) {
+            stats.setPrunedDirectories(prunedCount);
+            stats.done();
+        }
+    }
+
+    /**
+     * @return The number of excluded directories that were skipped.
+     */
+    int getPrunedCount() {
+        return prunedCount;
+    }
+
+    private void scan(File f, String path, DockerIgnoreMatcher.State state, FileVisitor visitor) throws IOException {
+        if (!f.canRead()) {
+            return;
+        }
+        String relativePath = path + f.getName();
+        if (visitor.understandsSymlink()) {
+            String target;
+            try {
+                target = Util.resolveSymlink(f);
+            } catch (IOException x) {
+                target = null;
+            }
+            if (target != null) {
+                if (!state.isExcluded()) {
+                    visitor.visitSymlink(f, target, relativePath);
+                    if (stats != null) {
+                        stats.recordSymlink();
+                    }
+                }
+                return;
+            }
+        }
+        boolean directory = f.isDirectory();
+        if (!state.isExcluded()) {
+            long start = System.nanoTime();
+            visitor.visit(f, relativePath);
+            if (stats != null) {
+                stats.record(nameOf(relativePath), directory ? 0 : f.length(), directory, System.nanoTime() - start);
+            }
+        }
+        if (directory) {
+            if (state.isPruned()) {
+                prunedCount++;
+                return;
+            }
+            File[] children = f.listFiles();
+            if (children != null && sorted) {
+                Arrays.sort(children, BY_NAME);
+            }
+            if (children != null) {
+                for (File child : children) {
+                    scan(child, relativePath + '/', state.child(child.getName()), visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The path relative to the root of the context (the relative path starts with the name of the root).
+     */
+    private static String nameOf(String relativePath) {
+        int i = relativePath.indexOf('/');
+        return i < 0 ? "." : relativePath.substring(i + 1);
+    }
+}
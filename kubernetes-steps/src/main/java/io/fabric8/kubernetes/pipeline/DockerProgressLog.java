@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the events of a docker build, push or pull into a readable console log.
+ * The daemon reports the progress of each layer many times per second; those events are folded into the state of the layer and
+ * rendered as a single summary line (the progress of each layer and the overall rate) at most once per refresh interval.
+ * Every other message (build output, layer status changes, errors) is printed as it comes.
+ */
+final class DockerProgressLog implements Closeable {
+
+    static final long DEFAULT_REFRESH_INTERVAL = 5000L;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int MAX_LAYERS_SHOWN = 6;
+    private static final int SHORT_ID_LENGTH = 12;
+
+    private final PrintStream out;
+    private final long refreshInterval;
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+
+    private long lastRender = System.nanoTime();
+    private long bytesSinceRender;
+    private long totalBytes;
+    private boolean pending;
+
+    /**
+     * @param out               The console log.
+     * @param refreshInterval   The minimum time between two progress lines in milliseconds, or 0 to print every event as is.
+     */
+    DockerProgressLog(PrintStream out, long refreshInterval) {
+        this.out = out;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @param event A message of the docker daemon (usually a JSON object).
+     */
+    synchronized void onEvent(String event) {
+        if (refreshInterval <= 0) {
+            out.println(event);
+            return;
+        }
+        JsonNode json = parse(event);
+        if (json == null) {
+            print(event);
+            return;
+        }
+
+        String id = json.path("id").asText(null);
+        String status = json.path("status").asText(null);
+        JsonNode detail = json.path("progressDetail");
+        if (json.hasNonNull("stream")) {
+            print(json.get("stream").asText().replaceAll("\\s+$", ""));
+        } else if (json.hasNonNull("error")) {
+            print(json.get("error").asText());
+        } else if (id != null && status != null && detail.has("current")) {
+            progress(id, status, detail.path("current").asLong(), detail.path("total").asLong());
+        } else if (id != null && status != null) {
+            Layer layer = layer(id);
+            layer.status = status;
+            layer.done = isDone(status);
+            if (layer.done) {
+                print(shortId(id) + ": " + status);
+            } else {
+                //Intermediate states (e.g. "Preparing", "Waiting") only show up in the progress line.
+                pending = true;
+            }
+        } else if (status != null) {
+            print(status);
+        } else {
+            print(event);
+        }
+    }
+
+    /**
+     * Prints the last progress line, if there is progress that wasn't rendered yet.
+     */
+    @Override
+    public synchronized void close() {
+        if (pending) {
+            render();
+        }
+    }
+
+    /**
+     * @return The number of bytes reported as transferred, across all layers.
+     */
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void progress(String id, String status, long current, long total) {
+        Layer layer = layer(id);
+        if (!status.equals(layer.status)) {
+            //e.g. from "Downloading" to "Extracting", where the progress starts again.
+            layer.status = status;
+            layer.current = 0;
+        }
+        long delta = current - layer.current;
+        if (delta > 0) {
+            bytesSinceRender += delta;
+            totalBytes += delta;
+        }
+        layer.current = current;
+        layer.total = total;
+        layer.done = false;
+        pending = true;
+        if (System.nanoTime() - lastRender >= TimeUnit.MILLISECONDS.toNanos(refreshInterval)) {
+            render();
+        }
+    }
+
+    private void print(String message) {
+        if (message != null && !message.isEmpty()) {
+            out.println(message);
+        }
+    }
+
+    private void render() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastRender) / 1e9;
+        int done = 0;
+        StringBuilder sb = new StringBuilder();
+        int shown = 0;
+        for (Map.Entry<String, Layer> entry : layers.entrySet()) {
+            Layer layer = entry.getValue();
+            if (layer.done) {
+                done++;
+                continue;
+            }
+            if (shown++ < MAX_LAYERS_SHOWN) {
+                sb.append(", ").append(shortId(entry.getKey())).append(' ').append(layer.status);
+                if (layer.total > 0) {
+                    sb.append(String.format(Locale.ROOT, " %d%%", Math.min(100, layer.current * 100 / layer.total)));
+                }
+            }
+        }
+        if (shown > MAX_LAYERS_SHOWN) {
+            sb.append(", ").append(shown - MAX_LAYERS_SHOWN).append(" more");
+        }
+        out.println(String.format(Locale.ROOT, "Progress: %d/%d layers done%s (%s, %.1f MB/s)", done, layers.size(), sb,
+                ContextStats.formatBytes(totalBytes), bytesSinceRender / seconds / (1024 * 1024)));
+        lastRender = now;
+        bytesSinceRender = 0;
+        pending = false;
+    }
+
+    private Layer layer(String id) {
+        Layer layer = layers.get(id);
+        if (layer == null) {
+            layer = new Layer();
+            layers.put(id, layer);
+        }
+        return layer;
+    }
+
+    private static JsonNode parse(String event) {
+        String trimmed = event != null ? event.trim() : "";
+        if (!trimmed.startsWith("{")) {
+            return null;
+        }
+        try {
+            return MAPPER.readTree(trimmed);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return True for the statuses a layer ends up with, once pushed or pulled.
+     */
+    private static boolean isDone(String status) {
+        return status.equals("Pushed") || status.equals("Layer already exists") || status.startsWith("Mounted from")
+                || status.equals("Pull complete") || status.equals("Already exists");
+    }
+
+    private static String shortId(String id) {
+        return id.length() > SHORT_ID_LENGTH ? id.substring(0, SHORT_ID_LENGTH) : id;
+    }
+
+    private static final class Layer {
+        private String status;
+        private long current;
+        private long total;
+        private boolean done;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded ring buffer between the output of an exec connection and the build log.
+ * The websocket thread only copies bytes into the buffer, while a drain thread of the pump flushes the buffer to the log
+ * in batches, whenever it reaches the flush size or the flush interval expires. When the buffer is full, writers are
+ * blocked (which pushes back on the websocket) and only if the log doesn't catch up within the maximum blocking time,
+ * output gets dropped. Each pump has its own drain thread, so a slow log only ever holds back its own output.
+ */
+final class ExecOutputPump extends OutputStream {
+
+    private static final transient Logger LOGGER = Logger.getLogger(ExecOutputPump.class.getName());
+
+    static final long DEFAULT_FLUSH_INTERVAL = 200L;
+    static final int DEFAULT_FLUSH_SIZE = 64 * 1024;
+
+    private static final int CAPACITY_FACTOR = 16;
+    private static final long DEFAULT_MAX_BLOCK = TimeUnit.SECONDS.toMillis(30);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final OutputStream target;
+    private final byte[] buffer;
+    private final int flushSize;
+    private final long flushInterval;
+    private final long maxBlock;
+    private final long createdAt = System.nanoTime();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread drainer;
+
+    private int head;
+    private int size;
+    private boolean flushRequested;
+    private volatile CountDownLatch finished;
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+
+    ExecOutputPump(OutputStream target) {
+        this(target, DEFAULT_FLUSH_INTERVAL, DEFAULT_FLUSH_SIZE);
+    }
+
+    ExecOutputPump(OutputStream target, long flushInterval, int flushSize) {
+        this(target, flushInterval, flushSize, DEFAULT_MAX_BLOCK);
+    }
+
+    /**
+     * @param target        The stream to pump the output to.
+     * @param flushInterval The maximum time in milliseconds output stays in the buffer.
+     * @param flushSize     The number of buffered bytes that triggers a flush. The buffer holds 16 times as much.
+     * @param maxBlock      The maximum time in milliseconds a writer is blocked on a full buffer, before output is dropped.
+     */
+    ExecOutputPump(OutputStream target, long flushInterval, int flushSize, long maxBlock) {
+        this.target = target;
+        this.flushSize = Math.max(1, flushSize);
+        this.buffer = new byte[this.flushSize * CAPACITY_FACTOR];
+        this.maxBlock = maxBlock;
+        this.flushInterval = Math.max(1, flushInterval);
+        this.drainer = new Thread(this::drainLoop, "ExecOutputPump-" + THREAD_COUNT.incrementAndGet());
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Closes the pump once the specified latch is released and everything has been flushed.
+     */
+    ExecOutputPump closeWhen(CountDownLatch finished) {
+        this.finished = finished;
+        return this;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed.get()) {
+            //Late output (e.g. after the process was killed) goes straight to the target.
+            target.write(b, off, len);
+            return;
+        }
+        bytesIn.addAndGet(len);
+        boolean flush = false;
+        lock.lock();
+        try {
+            int offset = off;
+            int remaining = len;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBlock);
+            boolean waited = false;
+            while (remaining > 0) {
+                int free = buffer.length - size;
+                if (free == 0) {
+                    if (!waited) {
+                        waited = true;
+                        throttled.incrementAndGet();
+                    }
+                    requestFlush();
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0) {
+                        if (droppedBytes.get() == 0) {
+                            LOGGER.info("Exec output is being dropped, as the build log didn't keep up for " + maxBlock + "ms (" + throttled.get() + " throttled writes so far).");
+                        }
+                        drop(b, offset, remaining);
+                        break;
+                    }
+                    notFull.awaitNanos(nanos);
+                    continue;
+                }
+                int n = Math.min(free, remaining);
+                int tail = (head + size) % buffer.length;
+                int first = Math.min(n, buffer.length - tail);
+                System.arraycopy(b, offset, buffer, tail, first);
+                System.arraycopy(b, offset + first, buffer, 0, n - first);
+                size += n;
+                offset += n;
+                remaining -= n;
+            }
+            flush = size >= flushSize;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            lock.unlock();
+        }
+        if (flush) {
+            requestFlush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            requestFlush();
+            drain();
+            //Throttling and dropping mean the log is too slow, which is worth knowing about without the fine logs.
+            Level level = throttled.get() > 0 || droppedBytes.get() > 0 ? Level.INFO : Level.FINE;
+            if (LOGGER.isLoggable(level)) {
+                LOGGER.log(level, "Exec output: " + bytesOut.get() + " bytes at " + getBytesPerSecond() + " bytes/s, "
+                        + throttled.get() + " throttled writes, " + droppedBytes.get() + " dropped bytes (" + droppedLines.get() + " lines).");
+            }
+            if (droppedBytes.get() > 0) {
+                target.write(("[output] Dropped " + droppedBytes.get() + " bytes (" + droppedLines.get() + " lines) of output, as the log could not keep up.\n").getBytes(StandardCharsets.UTF_8));
+                target.flush();
+            }
+        }
+    }
+
+    long getBytesPerSecond() {
+        long elapsed = System.nanoTime() - createdAt;
+        return elapsed <= 0 ? 0 : bytesOut.get() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * @return The number of writes that had to wait for the buffer to be flushed.
+     */
+    long getThrottledCount() {
+        return throttled.get();
+    }
+
+    long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    private void drop(byte[] b, int off, int len) {
+        droppedBytes.addAndGet(len);
+        long lines = 0;
+        for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') {
+                lines++;
+            }
+        }
+        droppedLines.addAndGet(Math.max(1, lines));
+    }
+
+    /**
+     * Wakes up the drain thread.
+     */
+    private void requestFlush() {
+        lock.lock();
+        try {
+            flushRequested = true;
+            flushNeeded.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drains the buffer whenever a flush is requested or the flush interval expires, until the pump is closed.
+     */
+    private void drainLoop() {
+        try {
+            while (!closed.get()) {
+                lock.lock();
+                try {
+                    if (!flushRequested && size < flushSize) {
+                        flushNeeded.await(flushInterval, TimeUnit.MILLISECONDS);
+                    }
+                    flushRequested = false;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    drain();
+                    CountDownLatch latch = finished;
+                    if (latch != null && latch.getCount() == 0) {
+                        close();
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to flush exec output.", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes everything buffered to the target. The copy is made under the lock, the (slow) write outside of it.
+     */
+    private void drain() throws IOException {
+        drainLock.lock();
+        try {
+            while (true) {
+                byte[] chunk;
+                lock.lock();
+                try {
+                    if (size == 0) {
+                        break;
+                    }
+                    chunk = new byte[size];
+                    int first = Math.min(size, buffer.length - head);
+                    System.arraycopy(buffer, head, chunk, 0, first);
+                    System.arraycopy(buffer, 0, chunk, first, size - first);
+                    head = (head + size) % buffer.length;
+                    size = 0;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                target.write(chunk);
+                bytesOut.addAndGet(chunk.length);
+            }
+            target.flush();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+}
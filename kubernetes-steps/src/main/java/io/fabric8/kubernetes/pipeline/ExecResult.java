@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import static io.fabric8.workflow.core.Constants.UTF_8;
+
+/**
+ * The outcome of a command that was executed in a container.
+ */
+public final class ExecResult {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String SUCCESS = "Success";
+    private static final String EXIT_CODE = "ExitCode";
+
+    private final String podName;
+    private final String containerName;
+    private final Integer exitCode;
+    private final long duration;
+
+    public ExecResult(String podName, String containerName, Integer exitCode, long duration) {
+        this.podName = podName;
+        this.containerName = containerName;
+        this.exitCode = exitCode;
+        this.duration = duration;
+    }
+
+    public String getPodName() {
+        return podName;
+    }
+
+    public String getContainerName() {
+        return containerName;
+    }
+
+    /**
+     * @return The exit code of the command, or null if it is not known (the status channel was not sent, e.g. the connection dropped).
+     */
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return The time in milliseconds from issuing the exec until the connection was closed.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Reads the exit code from what the api server sent on the status channel of an exec: a Status object that is
+     * either a success, or a failure whose causes include the exit code.
+     * @return The exit code, or null if the status is missing or doesn't include one.
+     */
+    static Integer exitCodeOf(ByteArrayOutputStream status) {
+        try {
+            return exitCodeOf(status.toString(UTF_8));
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    static Integer exitCodeOf(String status) {
+        JsonNode json = parse(status);
+        if (json == null) {
+            return null;
+        }
+        if (SUCCESS.equals(json.path("status").asText())) {
+            return 0;
+        }
+        for (JsonNode cause : json.path("details").path("causes")) {
+            if (EXIT_CODE.equals(cause.path("reason").asText())) {
+                try {
+                    return Integer.valueOf(cause.path("message").asText());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static JsonNode parse(String status) {
+        String trimmed = status != null ? status.trim() : "";
+        if (!trimmed.startsWith("{")) {
+            return null;
+        }
+        try {
+            return MAPPER.readTree(trimmed);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ExecResult[pod:" + podName + ", container:" + containerName + ", exitCode:" + exitCode + ", duration:" + duration + "ms]";
+    }
+}
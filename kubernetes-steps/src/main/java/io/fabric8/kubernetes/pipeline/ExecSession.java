@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.ExecListener;
+import io.fabric8.kubernetes.client.dsl.ExecWatch;
+import okhttp3.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.fabric8.workflow.core.Constants.CTRL_C;
+import static io.fabric8.workflow.core.Constants.NEWLINE;
+import static io.fabric8.workflow.core.Constants.SPACE;
+import static io.fabric8.workflow.core.Constants.UTF_8;
+
+/**
+ * A long lived shell in a container, that runs successive commands over the same exec connection.
+ * After each command the shell prints a sentinel marker with the exit code, which tells us that the command is done.
+ * The marker is printed in two halves, so that the echo of the command itself never matches it, and is part of the same
+ * command line as the command, so that it can't be left behind in the input of the terminal.
+ * Commands are interrupted with a ctrl-c, which only stops the foreground command and leaves the shell running.
+ * As the ctrl-c also makes the shell drop the rest of the command line (marker included), the marker is then sent again.
+ * A command that exits the shell itself (e.g. a plain {@code exit}) fails, as there is no exit code to report.
+ */
+final class ExecSession implements Closeable {
+
+    private static final String MARKER_START = "__EXEC_";
+    private static final String MARKER_END = "DONE_";
+    private static final Pattern MARKER = Pattern.compile(Pattern.quote(MARKER_START + MARKER_END) + "(\\d+):(-?\\d+)");
+
+    /**
+     * Turns off the echo and the prompts, which would otherwise end up in the output of the commands.
+     */
+    private static final String INIT = "stty -echo 2>/dev/null; export PS1= PS2=";
+
+    private static final long OPEN_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * How long an interrupted command has to print its marker, before the session is given up on.
+     */
+    private static final long INTERRUPT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final int MAX_PARTIAL_LINE = 4096;
+    /**
+     * The bytes of a partial line that are held back, as they could be the start of a marker
+     * (both halves, the id, the colon and the exit code).
+     */
+    private static final int MARKER_TAIL = MARKER_START.length() + MARKER_END.length() + 32;
+
+    private final String podName;
+    private final String containerName;
+    private final AtomicBoolean alive = new AtomicBoolean();
+    private final AtomicLong sequence = new AtomicLong();
+    private final SessionOutput output = new SessionOutput();
+    private final ExecWatch watch;
+
+    ExecSession(KubernetesClient client, String podName, String containerName) throws IOException, InterruptedException {
+        this.podName = podName;
+        this.containerName = containerName;
+        final CountDownLatch started = new CountDownLatch(1);
+        this.watch = client.pods().withName(podName)
+                .inContainer(containerName)
+                .redirectingInput()
+                .writingOutput(output)
+                .writingError(output)
+                .withTTY()
+                .usingListener(new ExecListener() {
+                    @Override
+                    public void onOpen(Response response) {
+                        alive.set(true);
+                        started.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t, Response response) {
+                        started.countDown();
+                        terminate();
+                    }
+
+                    @Override
+                    public void onClose(int code, String reason) {
+                        started.countDown();
+                        terminate();
+                    }
+                }).exec();
+
+        if (!started.await(OPEN_TIMEOUT, TimeUnit.MILLISECONDS) || !alive.get()) {
+            close();
+            throw new IOException("Failed to open shell session in pod:" + podName + " container:" + containerName + ".");
+        }
+        write(INIT + NEWLINE);
+    }
+
+    String getPodName() {
+        return podName;
+    }
+
+    String getContainerName() {
+        return containerName;
+    }
+
+    boolean isAlive() {
+        return alive.get();
+    }
+
+    /**
+     * Runs a command in the shell. Only one command may run at a time.
+     * @param out           The stream to write the output of the command to.
+     * @param onComplete    Called once the command has completed.
+     * @param statements    The statements that make up the command.
+     * @return              The running command.
+     */
+    Command run(PrintStream out, Runnable onComplete, String... statements) throws IOException {
+        if (!alive.get()) {
+            throw new IOException("Shell session in pod:" + podName + " container:" + containerName + " is closed.");
+        }
+        Command command = new Command(sequence.incrementAndGet(), watch, out, onComplete, this);
+        //Whatever is left from before this command (e.g. init output) doesn't belong to it.
+        output.start(command);
+
+        try {
+            write(commandLine(command.id, statements));
+        } catch (IOException e) {
+            output.start(null);
+            terminate();
+            throw e;
+        }
+        return command;
+    }
+
+    /**
+     * @return The command line that runs the statements and then prints the marker of the command. The statements are
+     * grouped, so that the shell reads the marker along with them (the newline keeps a trailing comment from hiding it).
+     */
+    static String commandLine(long id, String... statements) {
+        StringBuilder sb = new StringBuilder("{ ");
+        for (String stmt : statements) {
+            sb.append(stmt).append(SPACE);
+        }
+        sb.append(NEWLINE).append("}; ").append(marker(id)).append(NEWLINE);
+        return sb.toString();
+    }
+
+    private static String marker(long id) {
+        return "printf '%s%s:%s\\n' '" + MARKER_START + "' '" + MARKER_END + id + "' \"$?\"";
+    }
+
+    /**
+     * Interrupts a command with a ctrl-c. The ctrl-c makes the shell skip the rest of the command line, so the marker is
+     * sent again (after the ctrl-c, so that the terminal doesn't discard it). If it still doesn't show up, the session is closed,
+     * which fails the command.
+     */
+    private void interrupt(Command command) throws IOException, InterruptedException {
+        watch.getInput().write(CTRL_C);
+        write(marker(command.id) + NEWLINE);
+        if (!command.finished.await(INTERRUPT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            close();
+        }
+    }
+
+    private void write(String s) throws IOException {
+        watch.getInput().write(s.getBytes(UTF_8));
+        watch.getInput().flush();
+    }
+
+    /**
+     * Marks the session as dead and fails the running command (if any).
+     */
+    private void terminate() {
+        alive.set(false);
+        Command command = output.start(null);
+        if (command != null) {
+            command.fail("The shell session in pod:" + podName + " container:" + containerName + " was closed before the command completed."
+                    + " Commands that exit the shell (e.g. exit) are not supported with a persistent shell.");
+        }
+    }
+
+    @Override
+    public void close() {
+        terminate();
+        watch.close();
+    }
+
+    static final class Command {
+        private final long id;
+        private final ExecWatch watch;
+        private final PrintStream out;
+        private final Runnable onComplete;
+        private final ExecSession session;
+        private final AtomicBoolean alive = new AtomicBoolean(true);
+        private final AtomicInteger exitCode = new AtomicInteger(-1);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile String failure;
+
+        /**
+         * @param session   The session the command runs in, or null if it can't be interrupted.
+         */
+        Command(long id, ExecWatch watch, PrintStream out, Runnable onComplete, ExecSession session) {
+            this.id = id;
+            this.watch = watch;
+            this.out = out;
+            this.onComplete = onComplete;
+            this.session = session;
+        }
+
+        /**
+         * @return The connection of the shell the command runs in.
+         */
+        ExecWatch getWatch() {
+            return watch;
+        }
+
+        AtomicBoolean getAlive() {
+            return alive;
+        }
+
+        AtomicInteger getExitCode() {
+            return exitCode;
+        }
+
+        CountDownLatch getFinished() {
+            return finished;
+        }
+
+        /**
+         * @return Why the command failed without an exit code, or null.
+         */
+        String getFailure() {
+            return failure;
+        }
+
+        /**
+         * Interrupts the command (but not the shell it runs in).
+         */
+        void interrupt() throws IOException, InterruptedException {
+            if (alive.get() && session != null) {
+                session.interrupt(this);
+            }
+        }
+
+        private void fail(String reason) {
+            failure = reason;
+            complete(-1);
+        }
+
+        private void complete(int code) {
+            if (alive.compareAndSet(true, false)) {
+                exitCode.set(code);
+                out.flush();
+                finished.countDown();
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forwards the output of the shell to the current command, line by line, until the marker of the command shows up.
+     * Partial lines that grow too long are forwarded early, except for the tail that could be the start of the marker.
+     */
+    static final class SessionOutput extends OutputStream {
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private Command current;
+
+        /**
+         * Starts forwarding to the specified command, dropping whatever is left from before.
+         * @return The command that was current until now.
+         */
+        synchronized Command start(Command command) {
+            Command previous = current;
+            current = command;
+            line.reset();
+            return previous;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            line.write(b);
+            if (b == '\n') {
+                processLine();
+            } else if (line.size() >= MAX_PARTIAL_LINE) {
+                byte[] bytes = line.toByteArray();
+                int keep = MARKER_TAIL;
+                forward(bytes, 0, bytes.length - keep);
+                line.write(bytes, bytes.length - keep, keep);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        private void processLine() throws IOException {
+            byte[] bytes = line.toByteArray();
+            String text = new String(bytes, UTF_8);
+            Matcher matcher = MARKER.matcher(text);
+            if (!matcher.find()) {
+                forward(bytes, 0, bytes.length);
+                return;
+            }
+            //Commands that don't end with a newline leave their output in front of the marker.
+            byte[] output = text.substring(0, matcher.start()).getBytes(UTF_8);
+            forward(output, 0, output.length);
+            Command command = current;
+            if (command != null && command.id == Long.parseLong(matcher.group(1))) {
+                current = null;
+                command.complete(Integer.parseInt(matcher.group(2)));
+            }
+        }
+
+        private void forward(byte[] bytes, int off, int len) {
+            Command command = current;
+            if (command != null && len > 0) {
+                command.out.write(bytes, off, len);
+            }
+            line.reset();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.workflow.core.ClientRegistry;
+
+/**
+ * Hands out the {@link KubernetesClient} instances shared by all steps of this plugin.
+ */
+public final class KubernetesClients {
+
+    private KubernetesClients() {
+        //Utility class
+    }
+
+    /**
+     * @return A reference to the shared client that uses the auto-configured (kubeconfig / service account) settings.
+     */
+    public static ClientRegistry.Ref<KubernetesClient> acquire() {
+        final Config config = new ConfigBuilder().build();
+        String key = ClientRegistry.autoConfiguredKey(config.getMasterUrl(), config.getNamespace(), config.getUsername(), config.getOauthToken());
+        return ClientRegistry.shared(KubernetesClient.class, key, () -> new DefaultKubernetesClient(config));
+    }
+}
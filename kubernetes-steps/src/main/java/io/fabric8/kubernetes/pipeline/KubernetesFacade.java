@@ -33,22 +33,39 @@ import io.fabric8.kubernetes.api.model.Volume;
 import io.fabric8.kubernetes.api.model.VolumeBuilder;
 import io.fabric8.kubernetes.api.model.VolumeMount;
 import io.fabric8.kubernetes.api.model.VolumeMountBuilder;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.kubernetes.client.dsl.ExecListener;
 import io.fabric8.kubernetes.client.dsl.ExecWatch;
 import io.fabric8.kubernetes.client.dsl.LogWatch;
+import io.fabric8.workflow.core.ClientRegistry;
 import okhttp3.Response;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -65,46 +82,69 @@ public final class KubernetesFacade implements Closeable {
 
     private static final transient Logger LOGGER = Logger.getLogger(KubernetesFacade.class.getName());
     private static final String VOLUME_FORMAT = "volume-%d";
+    private static final String ROOT_PVC_NAME = "jenkins-workspace";
     private static final Pattern SPLIT_IN_SPACES = Pattern.compile("([^\"]\\S*|\".+?\")\\s*");
 
-    private final Set<Closeable> closeables = new HashSet<>();
-    private final KubernetesClient client = new DefaultKubernetesClient();
+    /**
+     * Where the workspace of a pod comes from.
+     */
+    private enum WorkspaceSource {
+        /**
+         * A volume of the template is mounted at the workspace.
+         */
+        TEMPLATE,
+        /**
+         * The pvc of the job.
+         */
+        BUILD_PVC,
+        /**
+         * The pvc shared by all jobs.
+         */
+        ROOT_PVC,
+        /**
+         * The workspace directory of the node.
+         */
+        HOST_PATH
+    }
+
+    private final PodResources resources = new PodResources();
+    private final Map<String, Deque<ExecSession>> sessions = new ConcurrentHashMap<>();
+    private final ClientRegistry.Ref<KubernetesClient> clientRef = KubernetesClients.acquire();
+    private final KubernetesClient client = clientRef.get();
+    private final ResourceCache cache = ResourceCache.get();
 
 
     public Pod createPod(String hostname, String jobname, PodTemplate podTemplate, String buildWorkspace, Map<String, String> labels) {
         LOGGER.info("Creating pod with name:" + podTemplate.getName());
+        PodLifecycle.get().requested(podTemplate.getName());
         List<Volume> volumes = new ArrayList<>();
         List<VolumeMount> mounts = new ArrayList<>();
 
         int volumeIndex = 1;
         String rootWorkspace = Paths.get(buildWorkspace).getParent().toAbsolutePath().toString();
-        if (hasWorkspaceMount(rootWorkspace, podTemplate.getVolumes())) {
-            LOGGER.info("Found volume mount for workspace:[" + buildWorkspace + "].");
-        } else if (hasWorkspaceMount(buildWorkspace, podTemplate.getVolumes())) {
-            LOGGER.info("Found volume mount for build workspace:[" + buildWorkspace + "].");
-        } else {
-            // mount jenkins-workspace pvc if available
-            String rootPvcName = "jenkins-workspace";
-            String buildPvcName = "jenkins-workspace-" + jobname;
-            String volumeName = String.format(VOLUME_FORMAT, volumeIndex);
-            if (client.persistentVolumeClaims().withName(buildPvcName).get() != null) {
-                LOGGER.info("Using build pvc: ["+buildPvcName+"] for build workspace:[" + buildWorkspace + "].");
-                volumes.add(new VolumeBuilder().withName(volumeName).withNewPersistentVolumeClaim(buildPvcName, false).build());
-                mounts.add(new VolumeMountBuilder().withName(volumeName).withMountPath(buildWorkspace).build());
+        String workspaceVolume = String.format(VOLUME_FORMAT, volumeIndex);
+        switch (getWorkspaceSource(jobname, buildWorkspace, podTemplate.getVolumes())) {
+            case TEMPLATE:
+                LOGGER.info("Found volume mount for workspace:[" + buildWorkspace + "].");
+                break;
+            case BUILD_PVC:
+                LOGGER.info("Using build pvc: ["+buildPvcName(jobname)+"] for build workspace:[" + buildWorkspace + "].");
+                volumes.add(new VolumeBuilder().withName(workspaceVolume).withNewPersistentVolumeClaim(buildPvcName(jobname), false).build());
+                mounts.add(new VolumeMountBuilder().withName(workspaceVolume).withMountPath(buildWorkspace).build());
                 volumeIndex++;
-            } else if (client.persistentVolumeClaims().withName(rootPvcName).get() != null) {
-                LOGGER.info("Using workspace pvc: ["+rootPvcName+"] for workspace:[" + rootWorkspace + "].");
-                volumes.add(new VolumeBuilder().withName(volumeName).withNewPersistentVolumeClaim(rootPvcName, false).build());
-                //mounts.add(new VolumeMountBuilder().withName(volumeName).withMountPath(rootWorkspace).build());
-                mounts.add(new VolumeMountBuilder().withName(volumeName).withMountPath("/home/jenkins/workspace").build());
+                break;
+            case ROOT_PVC:
+                LOGGER.info("Using workspace pvc: ["+ROOT_PVC_NAME+"] for workspace:[" + rootWorkspace + "].");
+                volumes.add(new VolumeBuilder().withName(workspaceVolume).withNewPersistentVolumeClaim(ROOT_PVC_NAME, false).build());
+                //mounts.add(new VolumeMountBuilder().withName(workspaceVolume).withMountPath(rootWorkspace).build());
+                mounts.add(new VolumeMountBuilder().withName(workspaceVolume).withMountPath("/home/jenkins/workspace").build());
                 volumeIndex++;
-            }
-            else {
+                break;
+            default:
                 LOGGER.warning("No volume mount for workspace. And no pvc named: [jenkins-workspace] found. Falling back to hostPath volumes.");
-                volumes.add(new VolumeBuilder().withName(volumeName).withNewHostPath(buildWorkspace).build());
-                mounts.add(new VolumeMountBuilder().withName(volumeName).withMountPath(buildWorkspace).build());
+                volumes.add(new VolumeBuilder().withName(workspaceVolume).withNewHostPath(buildWorkspace).build());
+                mounts.add(new VolumeMountBuilder().withName(workspaceVolume).withMountPath(buildWorkspace).build());
                 volumeIndex++;
-            }
         }
 
         for (PodVolume volume : podTemplate.getVolumes()) {
@@ -152,8 +192,9 @@ public final class KubernetesFacade implements Closeable {
                 .withNewMetadata()
                     .withName(podTemplate.getName())
                     .addToLabels(labels)
-                    .addToLabels("owner", "jenkins")
-                    .addToLabels("name", podTemplate.getName())
+                    .addToLabels(PodWatchDispatcher.OWNER_LABEL, PodWatchDispatcher.OWNER)
+                    .addToLabels(PodReaper.NAME_LABEL, podTemplate.getName())
+                    .addToLabels(PodReaper.MASTER_LABEL, PodReaper.getMasterId())
                     .addToLabels("image", containers.get(0).getName())
                 .endMetadata()
                 .withNewSpec()
@@ -164,23 +205,139 @@ public final class KubernetesFacade implements Closeable {
                     .withServiceAccount(podTemplate.getServiceAccount())
                     .endSpec()
                 .done();
+        PodLifecycle.get().record(podTemplate.getName(), PodLifecycle.Stage.CREATED);
         return p;
     }
 
-    private Node getNodeOfPod(String podName) {
+    /**
+     * Describes what ties a pod created by {@link #createPod} to the agent that created it: the node it is pinned to and the
+     * volume it mounts as its workspace. Pods are only interchangeable between agents for which this is the same.
+     * @param hostname          The name of the agent pod.
+     * @param podTemplate       The template of the pod.
+     * @param buildWorkspace    The workspace the pod mounts.
+     */
+    public String getPlacement(String hostname, PodTemplate podTemplate, String buildWorkspace) {
+        Node node = getNodeOfPod(hostname);
+        WorkspaceSource source = getWorkspaceSource(null, buildWorkspace, podTemplate.getVolumes());
+        return "node:" + (node != null ? node.getMetadata().getName() : null) + "|workspace:" + source
+                + (source == WorkspaceSource.HOST_PATH ? ":" + buildWorkspace : "");
+    }
+
+    /**
+     * @param jobname   The name of the job, or null if the pod is not created for a job.
+     * @return          Where the workspace of a pod comes from.
+     */
+    private WorkspaceSource getWorkspaceSource(String jobname, String buildWorkspace, List<PodVolume> volumes) {
+        String rootWorkspace = Paths.get(buildWorkspace).getParent().toAbsolutePath().toString();
+        if (hasWorkspaceMount(rootWorkspace, volumes) || hasWorkspaceMount(buildWorkspace, volumes)) {
+            return WorkspaceSource.TEMPLATE;
+        }
+        // mount jenkins-workspace pvc if available
+        final String buildPvcName = buildPvcName(jobname);
+        //Without a job (e.g. pooled pods) there is no build pvc to look for.
+        if (jobname != null && cache.claims().get(buildPvcName, () -> client.persistentVolumeClaims().withName(buildPvcName).get()) != null) {
+            return WorkspaceSource.BUILD_PVC;
+        } else if (cache.claims().get(ROOT_PVC_NAME, () -> client.persistentVolumeClaims().withName(ROOT_PVC_NAME).get()) != null) {
+            return WorkspaceSource.ROOT_PVC;
+        }
+        return WorkspaceSource.HOST_PATH;
+    }
+
+    private static String buildPvcName(String jobname) {
+        return ROOT_PVC_NAME + "-" + jobname;
+    }
+
+    /**
+     * Creates pods concurrently.
+     * If some of the pods can't be created, the ones that were are left to the caller to delete.
+     * @param templates     The templates of the pods (one pod per template).
+     * @param maxInFlight   The maximum number of create requests in flight.
+     * @param created       Notified of each pod as soon as it is created.
+     * @return              The created pods, in the order of the templates.
+     */
+    public List<Pod> createPods(final String hostname, final String jobname, List<PodTemplate> templates, final String buildWorkspace, final Map<String, String> labels, int maxInFlight,
+                                final Consumer<Pod> created) throws InterruptedException {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxInFlight, templates.size())), r -> {
+            Thread t = new Thread(r, "KubernetesFacade createPods-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Pod>> futures = new ArrayList<>();
+            for (final PodTemplate template : templates) {
+                futures.add(executor.submit(() -> {
+                    Pod pod = createPod(hostname, jobname, template, buildWorkspace, labels);
+                    created.accept(pod);
+                    return pod;
+                }));
+            }
+
+            List<Pod> pods = new ArrayList<>();
+            Throwable failure = null;
+            for (Future<Pod> future : futures) {
+                try {
+                    pods.add(future.get());
+                } catch (ExecutionException e) {
+                    failure = failure != null ? failure : e.getCause();
+                }
+            }
+            if (failure != null) {
+                throw new KubernetesClientException("Failed to create " + (templates.size() - pods.size()) + " of " + templates.size() + " pods.", failure);
+            }
+            return pods;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for all the specified pods to be running, using the shared pod watch.
+     * @param podNames  The names of the pods.
+     * @param timeout   The maximum time to wait in milliseconds.
+     * @return          True if all pods are running, false if any pod completed or got deleted first, or the timeout expired.
+     */
+    public boolean awaitRunning(Collection<String> podNames, long timeout) throws InterruptedException {
+        final CompletableFuture<Void> failed = new CompletableFuture<>();
+        List<CompletableFuture<Pod>> futures = new ArrayList<>();
+        try {
+            for (String podName : podNames) {
+                CompletableFuture<Pod> future = whenRunning(podName);
+                //Don't wait for the rest once one of them is gone.
+                future.whenComplete((pod, t) -> {
+                    if (t != null || isPodCompleted(pod)) {
+                        failed.complete(null);
+                    }
+                });
+                futures.add(future);
+            }
+            CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+            CompletableFuture.anyOf(all, failed).get(timeout, TimeUnit.MILLISECONDS);
+            return !failed.isDone();
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        } finally {
+            for (CompletableFuture<Pod> future : futures) {
+                //Closes the watches of the pods we were still waiting for.
+                future.cancel(false);
+            }
+        }
+    }
+
+    private Node getNodeOfPod(final String podName) {
         Node node;
         if (Utils.isNullOrEmpty(podName)) {
             LOGGER.warning("Failed to find the current pod name.");
             return null;
         }
 
-        Pod pod = client.pods().withName(podName).get();
+        Pod pod = cache.agentPod(podName).get(podName, () -> client.pods().withName(podName).get());
         if (pod == null) {
             LOGGER.warning("Failed to find pod with name:" + podName + " in namespace:" + client.getNamespace() + ".");
             node = null;
         } else {
-            String nodeName = pod.getSpec().getNodeName();
-            node = client.nodes().withName(nodeName).get();
+            final String nodeName = pod.getSpec().getNodeName();
+            node = Utils.isNullOrEmpty(nodeName) ? null : cache.node(nodeName).get(nodeName, () -> client.nodes().withName(nodeName).get());
         }
         if (node == null) {
             LOGGER.warning("Failed to find pod with name:" + podName + ".");
@@ -190,15 +347,31 @@ public final class KubernetesFacade implements Closeable {
         }
     }
 
+    public Pod getPod(final String name) {
+        //The index might not have caught up with a pod that was just created, so a miss is not final.
+        return cache.pods().getOrFetch(name, () -> client.pods().withName(name).get());
+    }
+
+    /**
+     * @return The pods of this master that have the specified label.
+     */
+    public List<Pod> getPods(String label) {
+        return client.pods().withLabel(PodWatchDispatcher.OWNER_LABEL, PodWatchDispatcher.OWNER)
+                .withLabel(PodReaper.MASTER_LABEL, PodReaper.getMasterId()).withLabel(label).list().getItems();
+    }
+
+    public void removeLabel(String podName, String label) {
+        client.pods().withName(podName).edit().editMetadata().removeFromLabels(label).endMetadata().done();
+    }
+
+    public String getNamespace() {
+        return client.getNamespace();
+    }
+
     public Boolean deletePod(String name) {
         LOGGER.info("Deleting pod with name:" + name);
         if (client.pods().withName(name).delete()) {
-            synchronized (closeables) {
-                for (Closeable c : closeables) {
-                    closeQuietly(c);
-                }
-                closeables.clear();
-            }
+            closePod(name);
             return true;
         } else {
             return false;
@@ -207,51 +380,57 @@ public final class KubernetesFacade implements Closeable {
 
     public LogWatch watchLogs(String podName) {
         LogWatch watch = client.pods().withName(podName).watchLog();
-        synchronized (closeables) {
-            closeables.add(watch);
-        }
+        resources.add(podName, PodResources.POD_SCOPE, watch);
         return watch;
     }
 
+    /**
+     * Follows the log of a container, resuming where it left off if the connection drops.
+     * @param podName       The name of the pod.
+     * @param containerName The name of the container.
+     * @param out           The stream to write the log to.
+     * @param limitBytes    The maximum number of bytes to follow, or zero for no limit.
+     * @return              The log stream, which completes once the container has terminated.
+     */
+    public PodLogStream followLogs(String podName, String containerName, OutputStream out, long limitBytes) {
+        PodLogStream stream = new PodLogStream(client, podName, containerName, out, PodLogStream.DEFAULT_BUFFER_SIZE, limitBytes);
+        resources.add(podName, containerName, stream);
+        return stream.start();
+    }
+
+    public PodLogStream followLogs(String podName, String containerName, OutputStream out) {
+        return followLogs(podName, containerName, out, 0);
+    }
 
-    public ExecWatch exec(String podName, String containerName, final AtomicBoolean alive, final CountDownLatch started, final CountDownLatch finished, final PrintStream out, final String... statements) {
+
+    public ExecWatch exec(final String podName, final String containerName, final AtomicBoolean alive, final CountDownLatch started, final CountDownLatch finished, final PrintStream out, final String... statements) {
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+        CompletableFuture<ExecResult> result = new CompletableFuture<>();
+        bind(opened, result, alive, started, finished);
+        ExecWatch watch = startExec(podName, containerName, opened, result, out);
+        waitQuietly(started);
+        writeStatements(watch, statements);
+        return watch;
+    }
+
+    private ExecWatch startExec(String podName, String containerName, CompletableFuture<Void> opened, CompletableFuture<ExecResult> result, PrintStream out) {
+        final AtomicReference<ExecWatch> ref = new AtomicReference<>();
+        //The status channel tells us how the command exited.
+        final ByteArrayOutputStream status = new ByteArrayOutputStream();
         ExecWatch watch = client.pods().withName(podName)
                 .inContainer(containerName)
                 .redirectingInput()
                 .writingOutput(out)
                 .writingError(out)
+                .writingErrorChannel(status)
                 .withTTY()
-                .usingListener(new ExecListener() {
-                    @Override
-                    public void onOpen(Response response) {
-                        alive.set(true);
-                        started.countDown();
-                    }
-
-                    @Override
-
-                    public void onFailure(Throwable t, Response response) {
-                        alive.set(false);
-                        t.printStackTrace(out);
-                        started.countDown();
-                        finished.countDown();
-                    }
-
-                    @Override
-                    public void onClose(int i, String s) {
-                        alive.set(false);
-                        started.countDown();
-                        finished.countDown();
-
-                    }
-                }).exec();
-
-        synchronized (closeables) {
-            closeables.add(watch);
-        }
-
-        waitQuietly(started);
+                .usingListener(newExecListener(podName, containerName, ref, opened, result, status, out))
+                .exec();
+        register(podName, containerName, ref, watch, result);
+        return watch;
+    }
 
+    private static void writeStatements(ExecWatch watch, String... statements) {
         try {
             for (String stmt : statements) {
                 watch.getInput().write((stmt).getBytes(UTF_8));
@@ -265,40 +444,282 @@ public final class KubernetesFacade implements Closeable {
         } catch (Exception e) {
             //e.printStackTrace(out);
         }
+    }
 
+    /**
+     * Runs a command without a TTY, without blocking the calling thread. The command is passed as the arguments of the
+     * exec call, rather than typed into a shell, and its output and error are kept apart.
+     * Cancelling the returned future closes the connection.
+     * @param podName       The name of the pod.
+     * @param containerName The name of the container.
+     * @param out           The stream to write the output of the command to.
+     * @param err           The stream to write the error of the command to.
+     * @param diagnostics   The stream to report exec failures to.
+     * @param command       The command and its arguments.
+     * @return              A future that completes with the exit code of the command when the connection is closed, or exceptionally if the exec fails.
+     */
+    public CompletableFuture<ExecResult> execRawAsync(String podName, String containerName, OutputStream out, OutputStream err, PrintStream diagnostics, String... command) {
+        CompletableFuture<ExecResult> result = new CompletableFuture<>();
+        ExecWatch watch = startExecRaw(podName, containerName, new CompletableFuture<>(), result, out, err, diagnostics, command);
+        closeOnCancel(result, watch);
+        return result;
+    }
+
+    private ExecWatch startExecRaw(String podName, String containerName, CompletableFuture<Void> opened, CompletableFuture<ExecResult> result,
+                                   OutputStream out, OutputStream err, PrintStream diagnostics, String... command) {
+        final AtomicReference<ExecWatch> ref = new AtomicReference<>();
+        //The status channel tells us how the command exited.
+        final ByteArrayOutputStream status = new ByteArrayOutputStream();
+        ExecWatch watch = client.pods().withName(podName)
+                .inContainer(containerName)
+                .writingOutput(out)
+                .writingError(err)
+                .writingErrorChannel(status)
+                .usingListener(newExecListener(podName, containerName, ref, opened, result, status, diagnostics))
+                .exec(command);
+        register(podName, containerName, ref, watch, result);
         return watch;
     }
 
+    /**
+     * Exposes the progress of an exec through the latches of the blocking API.
+     */
+    private static void bind(CompletableFuture<Void> opened, final CompletableFuture<ExecResult> result, final AtomicBoolean alive, final CountDownLatch started, final CountDownLatch finished) {
+        opened.whenComplete((v, t) -> {
+            alive.set(t == null && !result.isDone());
+            started.countDown();
+        });
+        result.whenComplete((r, t) -> {
+            alive.set(false);
+            started.countDown();
+            finished.countDown();
+        });
+    }
+
+    private static void closeOnCancel(final CompletableFuture<ExecResult> result, final ExecWatch watch) {
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                watch.close();
+            }
+        });
+    }
+
+    private ExecListener newExecListener(final String podName, final String containerName, final AtomicReference<ExecWatch> ref,
+                                         final CompletableFuture<Void> opened, final CompletableFuture<ExecResult> result,
+                                         final ByteArrayOutputStream status, final PrintStream diagnostics) {
+        final long startedAt = System.nanoTime();
+        return new ExecListener() {
+            @Override
+            public void onOpen(Response response) {
+                PodLifecycle.get().record(podName, PodLifecycle.Stage.EXEC_READY);
+                opened.complete(null);
+            }
+
+            @Override
+            public void onFailure(Throwable t, Response response) {
+                t.printStackTrace(diagnostics);
+                //The result goes first, so that the exec is never seen as open and alive after it failed.
+                result.completeExceptionally(t);
+                opened.completeExceptionally(t);
+                release();
+            }
+
+            @Override
+            public void onClose(int i, String s) {
+                result.complete(new ExecResult(podName, containerName, ExecResult.exitCodeOf(status), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)));
+                opened.complete(null);
+                release();
+            }
+
+            private void release() {
+                ExecWatch w = ref.get();
+                if (w != null) {
+                    resources.remove(podName, containerName, w);
+                }
+            }
+        };
+    }
+
+    private void register(String podName, String containerName, AtomicReference<ExecWatch> ref, ExecWatch watch, CompletableFuture<ExecResult> result) {
+        ref.set(watch);
+        resources.add(podName, containerName, watch);
+        if (result.isDone()) {
+            //Already closed before we got to register it.
+            resources.remove(podName, containerName, watch);
+        }
+    }
+
+    /**
+     * Runs a command in a long lived shell of the container, reusing an idle shell if there is one.
+     * If the shell turns out to be broken, the command is retried once in a new shell.
+     * @param podName       The name of the pod.
+     * @param containerName The name of the container.
+     * @param out           The stream to write the output of the command to.
+     * @param statements    The statements that make up the command.
+     * @return              The running command.
+     */
+    public ExecSession.Command execInSession(String podName, String containerName, PrintStream out, String... statements) throws IOException, InterruptedException {
+        ExecSession session = acquireSession(podName, containerName);
+        try {
+            return runInSession(session, out, statements);
+        } catch (IOException e) {
+            LOGGER.fine("Shell session in pod:" + podName + " is broken. Reconnecting.");
+            resources.remove(podName, containerName, session);
+            session.close();
+            return runInSession(acquireSession(podName, containerName), out, statements);
+        }
+    }
+
+    private ExecSession.Command runInSession(final ExecSession session, PrintStream out, String... statements) throws IOException {
+        return session.run(out, () -> releaseSession(session), statements);
+    }
+
+    private ExecSession acquireSession(String podName, String containerName) throws IOException, InterruptedException {
+        Deque<ExecSession> idle = sessions.computeIfAbsent(sessionKey(podName, containerName), k -> new ConcurrentLinkedDeque<>());
+        ExecSession session;
+        while ((session = idle.pollFirst()) != null) {
+            if (session.isAlive()) {
+                return session;
+            }
+            resources.remove(podName, containerName, session);
+        }
+        session = new ExecSession(client, podName, containerName);
+        resources.add(podName, containerName, session);
+        return session;
+    }
+
+    private void releaseSession(ExecSession session) {
+        Deque<ExecSession> idle = sessions.get(sessionKey(session.getPodName(), session.getContainerName()));
+        if (session.isAlive() && idle != null) {
+            idle.addFirst(session);
+        } else {
+            resources.remove(session.getPodName(), session.getContainerName(), session);
+        }
+    }
+
+    private static String sessionKey(String podName, String containerName) {
+        return podName + "/" + containerName;
+    }
+
+    private void closePod(String podName) {
+        sessions.keySet().removeIf(k -> k.startsWith(podName + "/"));
+        resources.closePod(podName);
+    }
+
     public Watch watch(final String podName, AtomicBoolean alive, CountDownLatch started, CountDownLatch finished, Boolean cleanUpOnFinish) {
+        return watch(podName, alive, started, finished, cleanUpOnFinish, null);
+    }
+
+    /**
+     * Watches a pod.
+     * @param subscriber    Receives the phase changes and container restarts of the pod (optional).
+     */
+    public Watch watch(final String podName, AtomicBoolean alive, CountDownLatch started, CountDownLatch finished, Boolean cleanUpOnFinish, PodWatcher.Subscriber subscriber) {
         Callable<Void> onCompletion = cleanUpOnFinish ? new Callable<Void>() {
             @Override
             public Void call() throws Exception {
-                cleanUp();
+                closePod(podName);
                 return null;
             }
         } : null;
 
-        Watch watch = client.pods().withName(podName).watch(new PodWatcher(alive, started, finished, onCompletion));
-        synchronized (closeables) {
-            closeables.add(watch);
+        PodWatcher watcher = new PodWatcher(alive, started, finished, onCompletion, (resourceVersion, w) -> reconnect(podName, resourceVersion, w));
+        if (subscriber != null) {
+            watcher.subscribe(subscriber);
         }
+        PodWatchDispatcher dispatcher = PodWatchDispatcher.get();
+        Watch watch = dispatcher.isAvailable() ? dispatcher.watch(podName, watcher) : client.pods().withName(podName).watch(watcher);
+        resources.add(podName, PodResources.POD_SCOPE, watch);
+        //Closes the watch that replaced the original one after a reconnect.
+        resources.add(podName, PodResources.POD_SCOPE, watcher);
         return watch;
     }
 
+    /**
+     * Re-establishes the watch of a single pod. Without a resourceVersion to resume from, the pod is fetched once and
+     * watched from its current version.
+     */
+    private Watch reconnect(String podName, String resourceVersion, Watcher<Pod> watcher) {
+        if (resourceVersion != null) {
+            return client.pods().withName(podName).withResourceVersion(resourceVersion).watch(watcher);
+        }
+        Pod pod = client.pods().withName(podName).get();
+        if (pod == null) {
+            //It's gone while we weren't watching.
+            watcher.onClose(null);
+            return null;
+        }
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod);
+        return client.pods().withName(podName).withResourceVersion(pod.getMetadata().getResourceVersion()).watch(watcher);
+    }
+
+    /**
+     * @return A future that completes with the pod, once it is running or has completed, or exceptionally if it gets deleted.
+     * @see #awaitRunning
+     */
+    public CompletableFuture<Pod> whenRunning(String podName) {
+        return whenPod(podName, pod -> isPodRunning(pod) || isPodCompleted(pod));
+    }
+
+    /**
+     * @return A future that completes with the pod, once it has completed, or exceptionally if it gets deleted.
+     */
+    public CompletableFuture<Pod> whenCompleted(String podName) {
+        return whenPod(podName, KubernetesFacade::isPodCompleted);
+    }
+
+    /**
+     * Watches a pod until it matches the specified condition, without blocking the calling thread.
+     * The watch is closed once the future completes, so cancelling the future stops watching.
+     * @param podName   The name of the pod.
+     * @param condition The condition to wait for.
+     * @return          A future that completes with the first pod state that matches the condition.
+     */
+    public CompletableFuture<Pod> whenPod(final String podName, final Predicate<Pod> condition) {
+        final CompletableFuture<Pod> future = new CompletableFuture<>();
+        Watcher<Pod> watcher = new Watcher<Pod>() {
+            @Override
+            public void eventReceived(Action action, Pod pod) {
+                if (action == Action.DELETED) {
+                    future.completeExceptionally(new KubernetesClientException("Pod:" + podName + " was deleted."));
+                } else if (condition.test(pod)) {
+                    future.complete(pod);
+                }
+            }
+
+            @Override
+            public void onClose(KubernetesClientException cause) {
+                future.completeExceptionally(cause != null ? cause : new KubernetesClientException("Watch of pod:" + podName + " was closed."));
+            }
+        };
+
+        PodWatchDispatcher dispatcher = PodWatchDispatcher.get();
+        boolean shared = dispatcher.isAvailable();
+        final Watch watch = shared ? dispatcher.watch(podName, watcher) : client.pods().withName(podName).watch(watcher);
+        resources.add(podName, PodResources.POD_SCOPE, watch);
+        future.whenComplete((p, t) -> {
+            resources.remove(podName, PodResources.POD_SCOPE, watch);
+            watch.close();
+        });
+        if (!shared) {
+            //A plain watch doesn't tell us about the state the pod is already in.
+            Pod pod = getPod(podName);
+            if (pod != null && condition.test(pod)) {
+                future.complete(pod);
+            }
+        }
+        return future;
+    }
 
     @Override
     public void close() throws IOException {
-        closeQuietly(client);
         cleanUp();
+        clientRef.close();
     }
 
     private void cleanUp() {
-        synchronized (closeables) {
-            for (Closeable c : closeables) {
-                closeQuietly(c);
-            }
-            closeables.clear();
-        }
+        sessions.clear();
+        resources.closeAll();
     }
 
     private static List<String> split(String str) {
@@ -337,15 +758,8 @@ public final class KubernetesFacade implements Closeable {
         try {
             latch.await();
         } catch (InterruptedException e) {
-            //ignore
-        }
-    }
-
-    private static void closeQuietly(Closeable c) {
-        try {
-            c.close();
-        } catch (IOException e) {
-            //ignore
+            //Let the caller know it was interrupted.
+            Thread.currentThread().interrupt();
         }
     }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream that compresses blocks of its input in parallel (in the way pigz does).
+ * Each block is deflated on its own, using the end of the previous block as the dictionary, and flushed to a byte boundary,
+ * so that the compressed blocks can simply be concatenated into a single deflate stream. The checksum is computed in order,
+ * on the writing thread. Anything that reads gzip (e.g. the docker daemon) can read the result.
+ *
+ * Not thread safe: it's written to by a single thread.
+ */
+final class ParallelGzipOutputStream extends OutputStream {
+
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final CRC32 crc = new CRC32();
+    private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private boolean closed;
+
+    private long bytesIn;
+    private long bytesOut;
+    private long startedAt;
+    private long elapsed;
+
+    /**
+     * @param out           The stream to write the compressed stream to.
+     * @param level         The compression level (0-9).
+     * @param executor      The executor to compress blocks on, or null to compress them on the writing thread.
+     * @param parallelism   The number of blocks compressed at the same time.
+     */
+    ParallelGzipOutputStream(OutputStream out, int level, ExecutorService executor, int parallelism) throws IOException {
+        this(out, level, executor, parallelism, DEFAULT_BLOCK_SIZE);
+    }
+
+    ParallelGzipOutputStream(OutputStream out, int level, ExecutorService executor, int parallelism, int blockSize) throws IOException {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: [" + level + "].");
+        }
+        this.out = out;
+        this.level = level;
+        this.executor = executor;
+        //Keep a few blocks in the queue beyond the ones being compressed, so that the workers don't wait for the writer.
+        this.maxInFlight = executor != null ? Math.max(1, parallelism) * 2 : 1;
+        this.block = new byte[Math.max(DICTIONARY_SIZE, blockSize)];
+        this.startedAt = System.nanoTime();
+        out.write(HEADER);
+        bytesOut += HEADER.length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        crc.update(b, off, len);
+        bytesIn += len;
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            int n = Math.min(remaining, block.length - blockLength);
+            System.arraycopy(b, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            remaining -= n;
+            if (blockLength == block.length) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Flushes the compressed blocks that are ready. Data still in the current block isn't flushed, as that would hurt compression.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+            writeHead();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!inFlight.isEmpty()) {
+                writeHead();
+            }
+            byte[] trailer = new byte[8];
+            writeInt(trailer, 0, crc.getValue());
+            writeInt(trailer, 4, bytesIn);
+            out.write(trailer);
+            bytesOut += trailer.length;
+            elapsed = System.nanoTime() - startedAt;
+        } finally {
+            for (Future<byte[]> future : inFlight) {
+                future.cancel(true);
+            }
+            inFlight.clear();
+            out.close();
+        }
+    }
+
+    long getBytesIn() {
+        return bytesIn;
+    }
+
+    long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return The time from opening to closing the stream, in milliseconds.
+     */
+    long getElapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+
+    /**
+     * @return The size of the input divided by the size of the output.
+     */
+    double getRatio() {
+        return bytesOut == 0 ? 0 : (double) bytesIn / bytesOut;
+    }
+
+    private void submit(boolean last) throws IOException {
+        final byte[] input = block;
+        final int length = blockLength;
+        final byte[] dict = dictionary;
+        Callable<byte[]> task = () -> deflate(input, length, dict, level, last);
+
+        //The end of this block is the dictionary of the next one.
+        if (length >= DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+        } else if (length > 0) {
+            byte[] previous = dictionary != null ? dictionary : new byte[0];
+            byte[] merged = new byte[Math.min(DICTIONARY_SIZE, previous.length + length)];
+            int fromPrevious = merged.length - length;
+            System.arraycopy(previous, previous.length - fromPrevious, merged, 0, fromPrevious);
+            System.arraycopy(input, 0, merged, fromPrevious, length);
+            dictionary = merged;
+        }
+        if (!last) {
+            block = new byte[block.length];
+            blockLength = 0;
+        }
+
+        if (executor != null) {
+            inFlight.add(executor.submit(task));
+        } else {
+            try {
+                writeCompressed(task.call());
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        while (inFlight.size() > maxInFlight) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        byte[] compressed;
+        try {
+            compressed = inFlight.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        writeCompressed(compressed);
+    }
+
+    private void writeCompressed(byte[] compressed) throws IOException {
+        out.write(compressed);
+        bytesOut += compressed.length;
+    }
+
+    /**
+     * Deflates a block into raw deflate data that ends on a byte boundary (or ends the deflate stream, for the last block).
+     */
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    result.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    result.write(buffer, 0, n);
+                } while (n == buffer.length || !deflater.needsInput());
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeInt(byte[] b, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            b[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+}
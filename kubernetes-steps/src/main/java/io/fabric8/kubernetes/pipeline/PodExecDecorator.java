@@ -23,24 +23,73 @@ import hudson.model.Node;
 import io.fabric8.kubernetes.client.dsl.ExecWatch;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static io.fabric8.workflow.core.Constants.UTF_8;
+
 public class PodExecDecorator extends LauncherDecorator implements Serializable {
 
+    /**
+     * Runs the command in the background of a shell that records its pid in the file given as $0, so that it can be
+     * killed from another exec, and exits with the exit code of the command.
+     */
+    static final String PID_WRAPPER = "\"$@\" & pid=$!; echo $pid > \"$0\"; wait $pid; code=$?; rm -f \"$0\"; exit $code";
+    /**
+     * Kills the process whose pid is recorded in the file given as $1 (allowing a moment for it to be written).
+     */
+    static final String KILL_SCRIPT = "[ -f \"$1\" ] || sleep 1; kill -TERM \"$(cat \"$1\" 2>/dev/null)\" 2>/dev/null || true";
+    private static final String PID_DIR = "/tmp";
+    private static final long KILL_TIMEOUT = 30;
+
+    /**
+     * How commands are executed in the container.
+     */
+    public enum Mode {
+        /**
+         * A new exec connection with a TTY per command, with the command typed into the shell.
+         */
+        TTY,
+        /**
+         * A new exec connection without a TTY per command, with the command passed as exec arguments.
+         */
+        RAW,
+        /**
+         * A long lived shell per container (see {@link ExecSession}).
+         */
+        SESSION
+    }
+
     private final transient KubernetesFacade kubernetes;
     private final transient String name;
     private final transient String containerName;
     private final transient AtomicBoolean alive;
     private final transient CountDownLatch started;
     private final transient CountDownLatch finished;
+    private final transient Mode mode;
+    private transient long outputFlushInterval = ExecOutputPump.DEFAULT_FLUSH_INTERVAL;
+    private transient int outputFlushSize = ExecOutputPump.DEFAULT_FLUSH_SIZE;
+    private transient String workingDir;
 
     public PodExecDecorator(KubernetesFacade kubernetes, String name, String containerName, AtomicBoolean alive, CountDownLatch started, CountDownLatch finished) {
+        this(kubernetes, name, containerName, alive, started, finished, Mode.TTY);
+    }
+
+    public PodExecDecorator(KubernetesFacade kubernetes, String name, String containerName, AtomicBoolean alive, CountDownLatch started, CountDownLatch finished, Mode mode) {
         this.kubernetes = kubernetes;
+        this.mode = mode;
         this.name = name;
         this.alive = alive;
         this.started = started;
@@ -48,17 +97,67 @@ public class PodExecDecorator extends LauncherDecorator implements Serializable
         this.containerName = containerName;
     }
 
+    /**
+     * Configures how often the exec output is flushed to the build log.
+     * @param interval  The maximum time in milliseconds output is buffered.
+     * @param size      The number of buffered bytes that triggers a flush.
+     */
+    public PodExecDecorator withOutputFlush(long interval, int size) {
+        this.outputFlushInterval = interval;
+        this.outputFlushSize = size;
+        return this;
+    }
+
+    /**
+     * Configures the directory commands are run in, for pods whose working directory is not the build workspace
+     * (e.g. pooled pods, which are shared by all jobs).
+     * @param workingDir    The directory or null to use the working directory of the container.
+     */
+    public PodExecDecorator withWorkingDir(String workingDir) {
+        this.workingDir = workingDir;
+        return this;
+    }
+
     @Override
     public Launcher decorate(final Launcher launcher, Node node) {
         return new Launcher.DecoratedLauncher(launcher) {
             @Override
             public Proc launch(ProcStarter starter) throws IOException {
-                AtomicBoolean processAlive = new AtomicBoolean(false);
-                CountDownLatch processStarted = new CountDownLatch(1);
+                //The exec output goes through a bounded buffer, so that a slow log doesn't stall the websocket.
+                ExecOutputPump pump = new ExecOutputPump(launcher.getListener().getLogger(), outputFlushInterval, outputFlushSize);
+                PrintStream out = new PrintStream(pump, false, UTF_8);
+
+                if (mode == Mode.SESSION) {
+                    try {
+                        ExecSession.Command command = kubernetes.execInSession(name, containerName, out, inWorkingDir(getCommands(starter, false)));
+                        pump.closeWhen(command.getFinished());
+                        return new PodExecProc(name, command);
+                    } catch (InterruptedException e) {
+                        pump.close();
+                        throw new IOException(e);
+                    } catch (IOException e) {
+                        pump.close();
+                        throw e;
+                    }
+                }
+
                 CountDownLatch processFinished = new CountDownLatch(1);
+                pump.closeWhen(processFinished);
 
-                ExecWatch execWatch = kubernetes.exec(name, containerName, processAlive, processStarted, processFinished, launcher.getListener().getLogger(),
-                        getCommands(starter)
+                if (mode == Mode.RAW) {
+                    OutputStream stdout = starter.stdout() != null ? starter.stdout() : out;
+                    OutputStream stderr = starter.stderr() != null ? starter.stderr() : stdout;
+                    final String pidFile = PID_DIR + "/jenkins-exec-" + UUID.randomUUID() + ".pid";
+                    CompletableFuture<ExecResult> result = kubernetes.execRawAsync(name, containerName, stdout, stderr, out,
+                            killable(pidFile, inWorkingDir(getCommands(starter, true))));
+                    result.whenComplete((r, t) -> processFinished.countDown());
+                    return new PodExecProc(name, result, () -> killRaw(pidFile, out));
+                }
+
+                AtomicBoolean processAlive = new AtomicBoolean(false);
+                CountDownLatch processStarted = new CountDownLatch(1);
+                ExecWatch execWatch = kubernetes.exec(name, containerName, processAlive, processStarted, processFinished, out,
+                        inWorkingDir(getCommands(starter, false))
                 );
                 return new PodExecProc(name, processAlive, processFinished, execWatch);
             }
@@ -70,17 +169,76 @@ public class PodExecDecorator extends LauncherDecorator implements Serializable
         };
     }
 
-    static String[] getCommands(Launcher.ProcStarter starter) {
+    /**
+     * Kills a process started with {@link #killable}. Closing the exec connection is not enough, as the process keeps
+     * running in the container without it.
+     */
+    private void killRaw(String pidFile, PrintStream out) throws IOException, InterruptedException {
+        try {
+            kubernetes.execRawAsync(name, containerName, out, out, out, "sh", "-c", KILL_SCRIPT, "sh", pidFile)
+                    .get(KILL_TIMEOUT, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Failed to kill process in pod:" + name + ".", e);
+        }
+    }
+
+    /**
+     * Runs the commands so that their pid is recorded in the pid file.
+     */
+    static String[] killable(String pidFile, String[] commands) {
+        List<String> all = new ArrayList<>();
+        all.add("sh");
+        all.add("-c");
+        all.add(PID_WRAPPER);
+        all.add(pidFile);
+        Collections.addAll(all, commands);
+        return all.toArray(new String[all.size()]);
+    }
+
+    /**
+     * Changes to the working directory (if configured) before running the commands.
+     */
+    String[] inWorkingDir(String[] commands) {
+        if (workingDir == null) {
+            return commands;
+        }
+        List<String> all = new ArrayList<>();
+        if (mode == Mode.SESSION) {
+            //The commands are a statement of the shell session.
+            all.add("cd");
+            all.add("'" + workingDir.replace("'", "'\\''") + "'");
+            all.add("&&");
+        } else {
+            all.add("sh");
+            all.add("-c");
+            all.add("cd \"$1\" && shift && exec \"$@\"");
+            all.add("sh");
+            all.add(workingDir);
+        }
+        Collections.addAll(all, commands);
+        return all.toArray(new String[all.size()]);
+    }
+
+    static String[] getCommands(Launcher.ProcStarter starter, boolean raw) {
+        return getCommands(starter.cmds(), raw);
+    }
+
+    /**
+     * @param raw   Whether the commands are passed as exec arguments, in which case they reach the container as they are.
+     */
+    static String[] getCommands(List<String> cmds, boolean raw) {
         List<String> allCommands = new ArrayList<String>();
 
         boolean first = true;
-        for (String cmd : starter.cmds()) {
+        for (String cmd : cmds) {
             if (first && "nohup".equals(cmd)) {
                 first = false;
                 continue;
             }
+            first = false;
             //I shouldn't been doing that, but clearly the script that is passed to us is wrong?
-            allCommands.add(cmd.replaceAll("\\$\\$", "\\$"));
+            //(only when it's typed into a shell, exec arguments are not expanded)
+            allCommands.add(raw ? cmd : cmd.replaceAll("\\$\\$", "\\$"));
         }
         return allCommands.toArray(new String[allCommands.size()]);
     }
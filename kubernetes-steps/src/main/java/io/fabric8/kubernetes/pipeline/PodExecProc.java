@@ -22,8 +22,11 @@ import io.fabric8.kubernetes.client.dsl.ExecWatch;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.fabric8.workflow.core.Constants.CTRL_C;
 import static io.fabric8.workflow.core.Constants.EXIT;
@@ -36,21 +39,80 @@ public class PodExecProc extends Proc {
     private final AtomicBoolean alive;
     private final CountDownLatch finished;
     private final ExecWatch watch;
+    private final AtomicInteger exitCode;
+    private final ExecSession.Command command;
+    private final CompletableFuture<ExecResult> result;
+    private final Killer killer;
+
+    /**
+     * Stops a process that has no shell to interrupt.
+     */
+    interface Killer {
+        void kill() throws IOException, InterruptedException;
+    }
 
     public PodExecProc(String podName, AtomicBoolean alive, CountDownLatch finished, ExecWatch watch) {
         this.podName = podName;
         this.watch = watch;
         this.alive = alive;
         this.finished = finished;
+        this.exitCode = null;
+        this.command = null;
+        this.result = null;
+        this.killer = null;
+    }
+
+    /**
+     * A process that runs as a command of a shell session.
+     */
+    PodExecProc(String podName, ExecSession.Command command) {
+        this.podName = podName;
+        this.watch = command.getWatch();
+        this.alive = command.getAlive();
+        this.finished = command.getFinished();
+        this.exitCode = command.getExitCode();
+        this.command = command;
+        this.result = null;
+        this.killer = null;
+    }
+
+    /**
+     * A process that runs without a TTY. Its output goes to the streams given to the exec, so there are no streams to
+     * read from or write to here.
+     * @param result    The outcome of the exec, which carries the exit code of the process.
+     * @param killer    Stops the process, as closing the connection leaves it running in the container.
+     */
+    PodExecProc(String podName, CompletableFuture<ExecResult> result, Killer killer) {
+        this.podName = podName;
+        this.watch = null;
+        this.alive = null;
+        this.finished = null;
+        this.exitCode = null;
+        this.command = null;
+        this.result = result;
+        this.killer = killer;
     }
 
     @Override
     public boolean isAlive() throws IOException, InterruptedException {
+        if (result != null) {
+            return !result.isDone();
+        }
         return alive.get();
     }
 
     @Override
     public void kill() throws IOException, InterruptedException {
+        if (command != null) {
+            //The shell is shared by the commands that follow, so only the command is interrupted.
+            command.interrupt();
+            return;
+        }
+        if (killer != null) {
+            //Without a TTY there is no shell to interrupt, so the process is killed by pid.
+            killer.kill();
+            return;
+        }
         //What we actually do is send a ctrl-c to the current process and then exit the shell.
         watch.getInput().write(CTRL_C);
         watch.getInput().write(EXIT.getBytes(UTF_8));
@@ -60,22 +122,34 @@ public class PodExecProc extends Proc {
 
     @Override
     public int join() throws IOException, InterruptedException {
+        if (result != null) {
+            try {
+                Integer code = result.get().getExitCode();
+                //Without a status we don't know how it exited, which is not the same as having succeeded.
+                return code != null ? code : -1;
+            } catch (ExecutionException e) {
+                throw new IOException("Exec in pod:" + podName + " failed.", e.getCause());
+            }
+        }
         finished.await();
-        return 1;
+        if (command != null && command.getFailure() != null) {
+            throw new IOException(command.getFailure());
+        }
+        return exitCode != null ? exitCode.get() : 1;
     }
 
     @Override
     public InputStream getStdout() {
-        return watch.getOutput();
+        return watch != null ? watch.getOutput() : null;
     }
 
     @Override
     public InputStream getStderr() {
-        return watch.getOutput();
+        return watch != null ? watch.getError() : null;
     }
 
     @Override
     public OutputStream getStdin() {
-        return watch.getInput();
+        return watch != null ? watch.getInput() : null;
     }
 }
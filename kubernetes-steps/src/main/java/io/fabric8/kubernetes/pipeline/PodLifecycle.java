@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodCondition;
+import io.fabric8.workflow.core.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records when the pods of the plugin reach each stage of their lifecycle and keeps histograms of the time spent
+ * between stages, so that we can tell where the time goes between asking for a pod and running the first command in it.
+ * The histograms can be inspected from the script console:
+ * <pre>io.fabric8.kubernetes.pipeline.PodLifecycle.get().report()</pre>
+ */
+public final class PodLifecycle {
+
+    public enum Stage {
+        REQUESTED,
+        CREATED,
+        SCHEDULED,
+        IMAGES_PULLED,
+        RUNNING,
+        CLAIMED,
+        EXEC_READY
+    }
+
+    static final String CREATE = "create";
+    static final String SCHEDULE = "schedule";
+    static final String IMAGE_PULL = "image-pull";
+    static final String CONTAINER_START = "container-start";
+    static final String EXEC_READY = "exec-ready";
+    static final String TOTAL = "total";
+
+    private static final String POD_SCHEDULED = "PodScheduled";
+    private static final String TRUE = "True";
+
+    private static final PodLifecycle INSTANCE = new PodLifecycle();
+
+    private final Map<String, Timeline> timelines = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms;
+
+    private PodLifecycle() {
+        Map<String, Histogram> map = new LinkedHashMap<>();
+        for (String name : new String[]{CREATE, SCHEDULE, IMAGE_PULL, CONTAINER_START, EXEC_READY, TOTAL}) {
+            map.put(name, new Histogram());
+        }
+        this.histograms = Collections.unmodifiableMap(map);
+    }
+
+    public static PodLifecycle get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts tracking a pod, which is about to be requested.
+     */
+    void requested(String podName) {
+        timelines.computeIfAbsent(podName, k -> new Timeline()).record(Stage.REQUESTED);
+    }
+
+    /**
+     * Records that a tracked pod reached the specified stage. Only the first time a stage is reached is recorded.
+     */
+    void record(String podName, Stage stage) {
+        Timeline timeline = stage == Stage.CLAIMED
+                ? timelines.computeIfAbsent(podName, k -> new Timeline())
+                : timelines.get(podName);
+        if (timeline != null && timeline.record(stage)) {
+            onStage(timeline, stage);
+        }
+    }
+
+    /**
+     * Derives the stages reached from the status of a tracked pod.
+     */
+    void onEvent(Pod pod) {
+        if (pod == null || pod.getMetadata() == null || !timelines.containsKey(pod.getMetadata().getName())) {
+            return;
+        }
+        String podName = pod.getMetadata().getName();
+        boolean running = KubernetesFacade.isPodRunning(pod);
+        boolean pulled = running || isImagesPulled(pod);
+        boolean scheduled = pulled || isScheduled(pod);
+        //Stages are reached in order, even if we didn't observe the intermediate ones.
+        if (scheduled) {
+            record(podName, Stage.SCHEDULED);
+        }
+        if (pulled) {
+            record(podName, Stage.IMAGES_PULLED);
+        }
+        if (running) {
+            record(podName, Stage.RUNNING);
+        }
+    }
+
+    /**
+     * Stops tracking a pod.
+     * @return  A summary of the pod's lifecycle or null if the pod was not tracked.
+     */
+    String remove(String podName) {
+        Timeline timeline = timelines.remove(podName);
+        return timeline != null ? "Pod [" + podName + "] lifecycle: " + timeline.summary() : null;
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append(" (ms)\n");
+        }
+        return sb.toString();
+    }
+
+    private void onStage(Timeline timeline, Stage stage) {
+        switch (stage) {
+            case CREATED:
+                timeline.observe(CREATE, Stage.REQUESTED, Stage.CREATED);
+                break;
+            case SCHEDULED:
+                timeline.observe(SCHEDULE, Stage.CREATED, Stage.SCHEDULED);
+                break;
+            case IMAGES_PULLED:
+                timeline.observe(IMAGE_PULL, Stage.SCHEDULED, Stage.IMAGES_PULLED);
+                break;
+            case RUNNING:
+                timeline.observe(CONTAINER_START, Stage.IMAGES_PULLED, Stage.RUNNING);
+                timeline.observe(TOTAL, Stage.REQUESTED, Stage.RUNNING);
+                break;
+            case EXEC_READY:
+                //Pods from the pool have been running long before they get claimed.
+                timeline.observe(EXEC_READY, timeline.get(Stage.CLAIMED) > timeline.get(Stage.RUNNING) ? Stage.CLAIMED : Stage.RUNNING, Stage.EXEC_READY);
+                break;
+            default:
+        }
+    }
+
+    private static boolean isScheduled(Pod pod) {
+        if (pod.getSpec() != null && pod.getSpec().getNodeName() != null && !pod.getSpec().getNodeName().isEmpty()) {
+            return true;
+        }
+        if (pod.getStatus() != null && pod.getStatus().getConditions() != null) {
+            for (PodCondition condition : pod.getStatus().getConditions()) {
+                if (POD_SCHEDULED.equals(condition.getType()) && TRUE.equals(condition.getStatus())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isImagesPulled(Pod pod) {
+        if (pod.getStatus() == null) {
+            return false;
+        }
+        List<ContainerStatus> statuses = pod.getStatus().getContainerStatuses();
+        if (statuses == null || statuses.isEmpty()) {
+            return false;
+        }
+        for (ContainerStatus status : statuses) {
+            //The image id is only known once the image has been pulled.
+            if (status.getImageID() == null || status.getImageID().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final class Timeline {
+
+        private final AtomicLongArray times = new AtomicLongArray(Stage.values().length);
+
+        private boolean record(Stage stage) {
+            return times.compareAndSet(stage.ordinal(), 0, System.currentTimeMillis());
+        }
+
+        private long get(Stage stage) {
+            return times.get(stage.ordinal());
+        }
+
+        private void observe(String histogram, Stage from, Stage to) {
+            long start = get(from);
+            long end = get(to);
+            if (start > 0 && end > 0) {
+                histograms.get(histogram).record(end - start);
+            }
+        }
+
+        private String summary() {
+            List<Stage> reached = new ArrayList<>();
+            for (Stage stage : Stage.values()) {
+                if (get(stage) > 0) {
+                    reached.add(stage);
+                }
+            }
+            reached.sort(Comparator.comparingLong(this::get));
+
+            StringBuilder sb = new StringBuilder();
+            long previous = 0;
+            for (Stage stage : reached) {
+                long time = get(stage);
+                if (previous == 0) {
+                    sb.append(stage.name().toLowerCase());
+                } else {
+                    sb.append(", ").append(stage.name().toLowerCase()).append(" +").append(time - previous).append("ms");
+                }
+                previous = time;
+            }
+            return sb.append(".").toString();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.dsl.BytesLimitTerminateTimeTailPrettyLoggable;
+import io.fabric8.kubernetes.client.dsl.LogWatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows the log of a container and survives dropped connections.
+ * The log is requested with timestamps, so that after a reconnect it can be resumed with sinceTime from the last line
+ * we have seen. As sinceTime is not precise enough to tell lines with the same timestamp apart, lines that were
+ * already delivered are skipped. A line that was cut off by the dropped connection is only counted as delivered once
+ * it is complete, after the reconnect just the part of it that wasn't delivered yet is forwarded.
+ * The log is read through a fixed size buffer; lines longer than the buffer are
+ * forwarded in pieces. The byte limit applies to what is delivered and is enforced here, the stream is closed once it
+ * is reached.
+ */
+public final class PodLogStream implements Closeable {
+
+    private static final transient Logger LOGGER = Logger.getLogger(PodLogStream.class.getName());
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "PodLogStream");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final KubernetesClient client;
+    private final String podName;
+    private final String containerName;
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final long limitBytes;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile LogWatch current;
+    private volatile long bytesDelivered;
+    private volatile int reconnects;
+
+    //Where we are in the log: the complete lines with the last timestamp and how much of the line after them we delivered.
+    private Instant lastTimestamp;
+    private int linesAtLastTimestamp;
+    private long bytesOfPartialLine;
+
+    //What the resumed log repeats.
+    private int skipLines;
+    private long skipBytes;
+
+    //The state of the line being read.
+    private boolean continuation;
+    private boolean skipping;
+    private boolean counting;
+
+    /**
+     * @param client        The client to use.
+     * @param podName       The name of the pod.
+     * @param containerName The name of the container.
+     * @param out           The stream to write the log to.
+     * @param bufferSize    The size of the read buffer.
+     * @param limitBytes    The maximum number of bytes to deliver in total, or zero for no limit.
+     */
+    PodLogStream(KubernetesClient client, String podName, String containerName, OutputStream out, int bufferSize, long limitBytes) {
+        this.client = client;
+        this.podName = podName;
+        this.containerName = containerName;
+        this.out = out;
+        this.buffer = new byte[Math.max(1, bufferSize)];
+        this.limitBytes = limitBytes;
+    }
+
+    PodLogStream start() {
+        READERS.execute(this::follow);
+        return this;
+    }
+
+    /**
+     * Waits until the container has terminated (and the log has been read to the end), the limit was reached or the stream was closed.
+     * @return True if the stream is done, false if the timeout expired.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public long getBytesDelivered() {
+        return bytesDelivered;
+    }
+
+    /**
+     * @return The number of times the stream had to reconnect.
+     */
+    public int getReconnects() {
+        return reconnects;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            LogWatch watch = current;
+            if (watch != null) {
+                watch.close();
+            }
+        }
+    }
+
+    private void follow() {
+        long backoff = MIN_BACKOFF;
+        try {
+            while (!closed.get() && !isLimitReached()) {
+                long before = bytesDelivered;
+                try (LogWatch watch = open()) {
+                    current = watch;
+                    if (closed.get()) {
+                        break;
+                    }
+                    pump(watch.getOutput());
+                } catch (IOException | KubernetesClientException e) {
+                    LOGGER.log(Level.FINE, "Log stream of pod:" + podName + " container:" + containerName + " was interrupted.", e);
+                } finally {
+                    current = null;
+                }
+                if (closed.get() || isLimitReached() || isTerminated()) {
+                    break;
+                }
+                backoff = bytesDelivered > before ? MIN_BACKOFF : Math.min(MAX_BACKOFF, backoff * 2);
+                reconnects++;
+                Thread.sleep(backoff);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                //ignore
+            }
+            done.countDown();
+        }
+    }
+
+    private LogWatch open() {
+        //The limit is not passed on to the server, as it would count the timestamps and the lines we skip after a reconnect.
+        BytesLimitTerminateTimeTailPrettyLoggable<String, LogWatch> logs = client.pods().withName(podName).inContainer(containerName).usingTimestamps();
+        return lastTimestamp != null ? logs.sinceTime(lastTimestamp.toString()).watchLog() : logs.watchLog();
+    }
+
+    private boolean isLimitReached() {
+        return limitBytes > 0 && bytesDelivered >= limitBytes;
+    }
+
+    /**
+     * @return True if there is nothing more to follow.
+     */
+    private boolean isTerminated() {
+        try {
+            Pod pod = client.pods().withName(podName).get();
+            if (pod == null || KubernetesFacade.isPodCompleted(pod)) {
+                return true;
+            }
+            if (pod.getStatus() != null && pod.getStatus().getContainerStatuses() != null) {
+                for (ContainerStatus status : pod.getStatus().getContainerStatuses()) {
+                    if (containerName.equals(status.getName()) && status.getState() != null && status.getState().getTerminated() != null) {
+                        return true;
+                    }
+                }
+            }
+        } catch (KubernetesClientException e) {
+            LOGGER.log(Level.FINE, "Failed to get pod:" + podName + ".", e);
+        }
+        return false;
+    }
+
+    /**
+     * Reads a (resumed) log until the end of the stream.
+     */
+    void pump(InputStream in) throws IOException {
+        skipLines = linesAtLastTimestamp;
+        skipBytes = bytesOfPartialLine;
+        continuation = false;
+        skipping = false;
+        counting = false;
+        int length = 0;
+        int n;
+        while (!isLimitReached() && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+            int scanFrom = length;
+            length += n;
+            int lineStart = 0;
+            for (int i = scanFrom; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    line(lineStart, i + 1, true);
+                    lineStart = i + 1;
+                }
+            }
+            length -= lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+            if (length == buffer.length) {
+                //The line doesn't fit, forward what we have.
+                line(0, length, false);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            line(0, length, false);
+        }
+        out.flush();
+    }
+
+    private void line(int from, int to, boolean complete) throws IOException {
+        int offset = from;
+        if (!continuation) {
+            int space = indexOf(' ', from, to);
+            Instant timestamp = space > from ? parse(from, space) : null;
+            if (timestamp != null) {
+                offset = space + 1;
+                begin(timestamp);
+            } else {
+                skipping = false;
+                counting = false;
+            }
+        }
+        if (!skipping) {
+            if (counting) {
+                //The part of a cut off line that was delivered before the reconnect.
+                int skip = (int) Math.min(skipBytes, to - offset);
+                skipBytes -= skip;
+                bytesOfPartialLine += skip;
+                offset += skip;
+                bytesOfPartialLine += deliver(offset, to - offset);
+            } else {
+                deliver(offset, to - offset);
+            }
+        }
+        if (complete && counting) {
+            linesAtLastTimestamp++;
+            bytesOfPartialLine = 0;
+            skipBytes = 0;
+        }
+        continuation = !complete;
+    }
+
+    /**
+     * Starts a line with a timestamp, which is skipped if it was completely delivered before.
+     */
+    private void begin(Instant timestamp) {
+        int cmp = lastTimestamp != null ? timestamp.compareTo(lastTimestamp) : 1;
+        if (cmp < 0 || (cmp == 0 && skipLines > 0)) {
+            if (cmp == 0) {
+                skipLines--;
+            }
+            skipping = true;
+            counting = false;
+            return;
+        }
+        skipping = false;
+        counting = true;
+        if (cmp > 0) {
+            lastTimestamp = timestamp;
+            linesAtLastTimestamp = 0;
+            skipBytes = 0;
+        }
+        if (skipBytes == 0) {
+            bytesOfPartialLine = 0;
+        }
+    }
+
+    /**
+     * @return The number of bytes delivered, which is less than the length if the limit was reached.
+     */
+    private int deliver(int offset, int length) throws IOException {
+        int n = limitBytes > 0 ? (int) Math.min(length, limitBytes - bytesDelivered) : length;
+        if (n <= 0) {
+            return 0;
+        }
+        out.write(buffer, offset, n);
+        bytesDelivered += n;
+        return n;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Instant parse(int from, int to) {
+        try {
+            return Instant.parse(new String(buffer, from, to - from, StandardCharsets.US_ASCII));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import org.csanchez.jenkins.plugins.kubernetes.ContainerEnvVar;
+import org.csanchez.jenkins.plugins.kubernetes.ContainerTemplate;
+import org.csanchez.jenkins.plugins.kubernetes.PodEnvVar;
+import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
+import org.csanchez.jenkins.plugins.kubernetes.volumes.PodVolume;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of pre-created idle pods, grouped by the hash of the template they were created from.
+ * Claiming a pod takes an idle one if available, or creates one on the spot. Either way the pool is refilled in the
+ * background up to the requested number of idle pods. Idle pods are evicted once they exceed their time to live.
+ * Pods are pooled per template and namespace, and mount the workspace root instead of the workspace of a build, so that
+ * they can be claimed by any job. Idle pods are labelled as such (with their time to live), so that the ones that were
+ * left behind by a restart of the master can be reaped (see {@link #reapIdlePods()}).
+ */
+final class PodPool {
+
+    private static final transient Logger LOGGER = Logger.getLogger(PodPool.class.getName());
+
+    static final String POOL_LABEL = "pod-pool";
+    static final String IDLE_LABEL = "pod-pool-idle";
+    static final String TTL_LABEL = "pod-pool-ttl";
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final int REFILL_THREADS = 4;
+    private static final int HASH_LENGTH = 16;
+
+    private static PodPool instance;
+
+    /**
+     * Creates a pod with the specified name.
+     */
+    interface PodFactory {
+        /**
+         * @param podName   The name of the pod.
+         * @param labels    The labels of the pool, to add to the labels of the pod.
+         */
+        Pod create(String podName, Map<String, String> labels) throws Exception;
+    }
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong claimNanos = new AtomicLong();
+    private final AtomicLong maxClaimNanos = new AtomicLong();
+    private long lastReportedClaims;
+
+    private PodPool() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(REFILL_THREADS, r -> {
+            Thread t = new Thread(r, "PodPool-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized PodPool get() {
+        if (instance == null) {
+            instance = new PodPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Claims a pod for the specified template.
+     * @param key           The hash of the template (see {@link #hash(PodTemplate, Map, String, String, String)}).
+     * @param namePrefix    The prefix to use for the names of the pods.
+     * @param maxIdle       The number of idle pods to keep for the template.
+     * @param ttl           The time in milliseconds an idle pod is kept, before it gets evicted.
+     * @param factory       The factory to create pods.
+     * @return              The name of the claimed pod.
+     */
+    String claim(String key, String namePrefix, int maxIdle, long ttl, PodFactory factory) throws Exception {
+        long start = System.nanoTime();
+        Slot slot = slots.computeIfAbsent(key, Slot::new);
+        slot.configure(namePrefix, maxIdle, ttl, factory);
+
+        String podName = slot.poll();
+        if (podName != null) {
+            hits.incrementAndGet();
+            markClaimed(podName);
+        } else {
+            misses.incrementAndGet();
+            podName = slot.newPodName();
+            factory.create(podName, labels(key, false, ttl));
+        }
+        recordClaim(System.nanoTime() - start);
+        slot.refill();
+        return podName;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The percentage of claims that were served by an idle pod.
+     */
+    double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : 100.0 * hits.get() / total;
+    }
+
+    /**
+     * @return The average claim latency in milliseconds.
+     */
+    long getAverageClaimLatency() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(claimNanos.get() / total);
+    }
+
+    /**
+     * @return The maximum claim latency in milliseconds.
+     */
+    long getMaxClaimLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(maxClaimNanos.get());
+    }
+
+    /**
+     * @return The number of idle pods across all templates.
+     */
+    int getIdleCount() {
+        int count = 0;
+        for (Slot slot : slots.values()) {
+            count += slot.size();
+        }
+        return count;
+    }
+
+    private void recordClaim(long nanos) {
+        claimNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxClaimNanos.get();
+        } while (nanos > max && !maxClaimNanos.compareAndSet(max, nanos));
+    }
+
+    private void sweep() {
+        try {
+            for (Slot slot : slots.values()) {
+                slot.evict();
+            }
+        } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, "Failed to evict idle pods.", t);
+        }
+        report();
+    }
+
+    /**
+     * Logs the metrics of the pool, if there have been claims since the last report.
+     */
+    private void report() {
+        long claims = hits.get() + misses.get();
+        if (claims == lastReportedClaims) {
+            return;
+        }
+        lastReportedClaims = claims;
+        LOGGER.info("Pod pool: " + claims + " claims, hit rate: " + String.format(Locale.ROOT, "%.1f", getHitRate())
+                + "%, average claim latency: " + getAverageClaimLatency() + "ms, max claim latency: " + getMaxClaimLatency()
+                + "ms, idle pods: " + getIdleCount() + ".");
+    }
+
+    /**
+     * Deletes the idle pods that were left behind by a previous run of the master once their time to live is exceeded.
+     * They are not known to any pool anymore and would otherwise never be claimed nor evicted.
+     */
+    static void reapIdlePods() {
+        final PodPool pool = get();
+        pool.executor.execute(() -> {
+            try (KubernetesFacade kubernetes = new KubernetesFacade()) {
+                long now = System.currentTimeMillis();
+                for (Pod pod : kubernetes.getPods(IDLE_LABEL)) {
+                    final String podName = pod.getMetadata().getName();
+                    if (pool.isKnown(podName)) {
+                        continue;
+                    }
+                    long remaining = remainingTtl(pod.getMetadata().getLabels(), pod.getMetadata().getCreationTimestamp(), now);
+                    LOGGER.info("Reaping idle pod:" + podName + " left behind by a restart in " + remaining + "ms.");
+                    pool.executor.schedule(() -> delete(podName), remaining, TimeUnit.MILLISECONDS);
+                }
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Failed to reap idle pods.", t);
+            }
+        });
+    }
+
+    /**
+     * @param labels            The labels of an idle pod.
+     * @param creationTimestamp The creation timestamp of the pod.
+     * @param now               The current time.
+     * @return                  The time in milliseconds until the idle pod expires, or 0 if it already has.
+     */
+    static long remainingTtl(Map<String, String> labels, String creationTimestamp, long now) {
+        try {
+            long ttl = Long.parseLong(labels.get(TTL_LABEL));
+            long createdAt = Instant.parse(creationTimestamp).toEpochMilli();
+            return Math.max(0, createdAt + ttl - now);
+        } catch (RuntimeException e) {
+            //Without a valid ttl or timestamp, there is no way to tell.
+            return 0;
+        }
+    }
+
+    /**
+     * @return The labels to add to the pods of a pool.
+     */
+    static Map<String, String> labels(String key, boolean idle, long ttl) {
+        Map<String, String> labels = new HashMap<>();
+        labels.put(POOL_LABEL, key);
+        if (idle) {
+            labels.put(IDLE_LABEL, "true");
+            labels.put(TTL_LABEL, String.valueOf(ttl));
+        }
+        return labels;
+    }
+
+    private boolean isKnown(String podName) {
+        for (Slot slot : slots.values()) {
+            if (slot.contains(podName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void markClaimed(String podName) {
+        try (KubernetesFacade kubernetes = new KubernetesFacade()) {
+            kubernetes.removeLabel(podName, IDLE_LABEL);
+        } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, "Failed to mark pod:" + podName + " as claimed.", t);
+        }
+    }
+
+    private static void delete(final String podName) {
+        PodReaper.get().delete(podName);
+    }
+
+    private static boolean isUsable(String podName) {
+        try (KubernetesFacade kubernetes = new KubernetesFacade()) {
+            Pod pod = kubernetes.getPod(podName);
+            return pod != null && !KubernetesFacade.isPodCompleted(pod);
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static String hash(PodTemplate template, String... extras) {
+        StringBuilder sb = new StringBuilder();
+        for (ContainerTemplate c : template.getContainers()) {
+            sb.append("container:").append(c.getName()).append('|').append(c.getImage())
+                    .append('|').append(c.getCommand()).append('|').append(c.getArgs())
+                    .append('|').append(c.isTtyEnabled()).append('|').append(c.isPrivileged())
+                    .append('|').append(c.getWorkingDir()).append('\n');
+            if (c.getEnvVars() != null) {
+                for (ContainerEnvVar e : c.getEnvVars()) {
+                    sb.append("env:").append(e.getKey()).append('=').append(e.getValue()).append('\n');
+                }
+            }
+        }
+        if (template.getEnvVars() != null) {
+            for (PodEnvVar e : template.getEnvVars()) {
+                sb.append("podenv:").append(e.getKey()).append('=').append(e.getValue()).append('\n');
+            }
+        }
+        for (PodVolume v : template.getVolumes()) {
+            sb.append("volume:").append(v.getMountPath()).append('|').append(v.buildVolume("v")).append('\n');
+        }
+        sb.append("serviceAccount:").append(template.getServiceAccount()).append('\n');
+        sb.append("nodeSelector:").append(template.getNodeSelector()).append('\n');
+        for (String extra : extras) {
+            sb.append("extra:").append(extra).append('\n');
+        }
+        return sha1(sb.toString()).substring(0, HASH_LENGTH);
+    }
+
+    /**
+     * Calculates the hash of everything that makes pods created from the template interchangeable.
+     * @param template      The template.
+     * @param labels        The labels of the pod.
+     * @param namespace     The namespace of the pod.
+     * @param workspaceRoot The workspace root the pod mounts.
+     * @param placement     The node and the workspace volume of the pod (see {@link KubernetesFacade#getPlacement}), as a
+     *                      pod created for an agent on another node would land on another file system.
+     * @return              The hash.
+     */
+    static String hash(PodTemplate template, Map<String, String> labels, String namespace, String workspaceRoot, String placement) {
+        List<String> all = new ArrayList<>();
+        for (Map.Entry<String, String> label : new TreeMap<>(labels).entrySet()) {
+            all.add(label.getKey() + "=" + label.getValue());
+        }
+        all.add("namespace:" + namespace);
+        all.add("workspaceRoot:" + workspaceRoot);
+        all.add("placement:" + placement);
+        return hash(template, all.toArray(new String[all.size()]));
+    }
+
+    private static String sha1(String s) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(s.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class IdlePod {
+        private final String name;
+        private final long createdAt;
+
+        private IdlePod(String name, long createdAt) {
+            this.name = name;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final class Slot {
+        private final String key;
+        private final Deque<IdlePod> idle = new ArrayDeque<>();
+        private int pending;
+
+        private String namePrefix;
+        private int maxIdle;
+        private long ttl;
+        private PodFactory factory;
+
+        private Slot(String key) {
+            this.key = key;
+        }
+
+        private synchronized void configure(String namePrefix, int maxIdle, long ttl, PodFactory factory) {
+            this.namePrefix = namePrefix;
+            this.maxIdle = maxIdle;
+            this.ttl = ttl;
+            this.factory = factory;
+        }
+
+        private synchronized int size() {
+            return idle.size();
+        }
+
+        private synchronized boolean contains(String podName) {
+            for (IdlePod pod : idle) {
+                if (pod.name.equals(podName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String newPodName() {
+            return namePrefix + "-" + UUID.randomUUID().toString();
+        }
+
+        /**
+         * @return The name of a usable idle pod, or null if there is none.
+         */
+        private String poll() {
+            while (true) {
+                IdlePod pod;
+                synchronized (this) {
+                    pod = idle.pollFirst();
+                }
+                if (pod == null) {
+                    return null;
+                } else if (isExpired(pod) || !isUsable(pod.name)) {
+                    delete(pod.name);
+                } else {
+                    return pod.name;
+                }
+            }
+        }
+
+        private synchronized void refill() {
+            int missing = maxIdle - idle.size() - pending;
+            for (int i = 0; i < missing; i++) {
+                pending++;
+                final String podName = newPodName();
+                final PodFactory podFactory = factory;
+                final Map<String, String> labels = labels(key, true, ttl);
+                executor.execute(() -> {
+                    boolean created = false;
+                    try {
+                        podFactory.create(podName, labels);
+                        created = true;
+                    } catch (Throwable t) {
+                        LOGGER.log(Level.WARNING, "Failed to create idle pod for template:" + key, t);
+                    } finally {
+                        synchronized (Slot.this) {
+                            pending--;
+                            if (created) {
+                                idle.addLast(new IdlePod(podName, System.currentTimeMillis()));
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        private void evict() {
+            List<String> evicted = new ArrayList<>();
+            synchronized (this) {
+                for (Iterator<IdlePod> iterator = idle.iterator(); iterator.hasNext(); ) {
+                    IdlePod pod = iterator.next();
+                    if (isExpired(pod)) {
+                        iterator.remove();
+                        evicted.add(pod.name);
+                    }
+                }
+                while (idle.size() > maxIdle) {
+                    evicted.add(idle.pollLast().name);
+                }
+            }
+            for (String podName : evicted) {
+                LOGGER.fine("Evicting idle pod:" + podName);
+                delete(podName);
+            }
+        }
+
+        private boolean isExpired(IdlePod pod) {
+            return System.currentTimeMillis() - pod.createdAt > ttl;
+        }
+    }
+}
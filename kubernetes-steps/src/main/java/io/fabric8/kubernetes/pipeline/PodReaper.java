@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.workflow.core.ClientRegistry;
+import jenkins.model.Jenkins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes pods in the background, so that steps don't have to wait for the deletion.
+ * Queued deletions are issued in batches: pods that use the cluster default grace period are deleted with a single
+ * label selector request, the rest one by one with their grace period. Failed deletions are retried with an exponential
+ * backoff. Completed pods of this master that were left behind (e.g. by a restart of the master) are periodically swept.
+ */
+final class PodReaper implements Closeable {
+
+    private static final transient Logger LOGGER = Logger.getLogger(PodReaper.class.getName());
+
+    /**
+     * A grace period that means: use the default of the cluster.
+     */
+    static final long DEFAULT_GRACE_PERIOD = -1;
+
+    static final String NAME_LABEL = "name";
+
+    /**
+     * The label that scopes the pods to the master that created them, so that masters sharing a namespace don't
+     * sweep each other's pods.
+     */
+    static final String MASTER_LABEL = "jenkins-master";
+
+    private static final long BATCH_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static PodReaper instance;
+
+    /**
+     * The requests the reaper issues against the cluster.
+     */
+    interface Cluster {
+        /**
+         * Deletes the pods with the specified names, using the default grace period.
+         */
+        void delete(String... podNames);
+
+        void delete(String podName, long gracePeriod);
+
+        /**
+         * @return The names of the completed pods of this master.
+         */
+        List<String> listCompleted();
+    }
+
+    private final Cluster cluster;
+    private final Closeable onClose;
+    private final long retryDelay;
+    private final ScheduledExecutorService scheduler;
+    private final DelayQueue<Request> queue = new DelayQueue<>();
+
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong swept = new AtomicLong();
+
+    PodReaper(Cluster cluster, Closeable onClose, long retryDelay) {
+        this.cluster = cluster;
+        this.onClose = onClose;
+        this.retryDelay = retryDelay;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PodReaper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private PodReaper start() {
+        this.scheduler.scheduleWithFixedDelay(this::drain, BATCH_INTERVAL, BATCH_INTERVAL, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    static synchronized PodReaper get() {
+        if (instance == null) {
+            ClientRegistry.Ref<KubernetesClient> clientRef = KubernetesClients.acquire();
+            instance = new PodReaper(new KubernetesCluster(clientRef.get()), clientRef::close, RETRY_DELAY).start();
+        }
+        return instance;
+    }
+
+    /**
+     * @return The id of this master, to use as value of the {@link #MASTER_LABEL}.
+     */
+    static String getMasterId() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.getLegacyInstanceId() : "none";
+    }
+
+    /**
+     * Queues the deletion of a pod.
+     * @param podName       The name of the pod.
+     * @param gracePeriod   The grace period in seconds, or {@link #DEFAULT_GRACE_PERIOD}.
+     */
+    void delete(String podName, long gracePeriod) {
+        PodLifecycle.get().remove(podName);
+        queue.add(new Request(podName, gracePeriod < 0 ? DEFAULT_GRACE_PERIOD : gracePeriod, 1, 0));
+    }
+
+    void delete(String podName) {
+        delete(podName, DEFAULT_GRACE_PERIOD);
+    }
+
+    int getPendingCount() {
+        return queue.size();
+    }
+
+    long getDeletedCount() {
+        return deleted.get();
+    }
+
+    long getFailedCount() {
+        return failed.get();
+    }
+
+    long getSweptCount() {
+        return swept.get();
+    }
+
+    /**
+     * Issues the queued deletions that are due. Retries are only due once their backoff has elapsed.
+     */
+    void drain() {
+        try {
+            List<Request> batch = new ArrayList<>();
+            while (queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+                Map<Long, List<Request>> byGracePeriod = new LinkedHashMap<>();
+                for (Request request : batch) {
+                    byGracePeriod.computeIfAbsent(request.gracePeriod, k -> new ArrayList<>()).add(request);
+                }
+                for (Map.Entry<Long, List<Request>> entry : byGracePeriod.entrySet()) {
+                    if (entry.getKey() == DEFAULT_GRACE_PERIOD && entry.getValue().size() > 1) {
+                        deleteCollection(entry.getValue());
+                    } else {
+                        for (Request request : entry.getValue()) {
+                            deleteOne(request);
+                        }
+                    }
+                }
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, "Failed to delete pods.", t);
+        }
+    }
+
+    private void deleteCollection(List<Request> requests) {
+        String[] names = new String[requests.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = requests.get(i).podName;
+        }
+        try {
+            LOGGER.info("Deleting " + names.length + " pods.");
+            cluster.delete(names);
+            deleted.addAndGet(names.length);
+        } catch (Throwable t) {
+            //Fallback to deleting them one by one.
+            LOGGER.log(Level.FINE, "Failed to delete pods in batch.", t);
+            for (Request request : requests) {
+                deleteOne(request);
+            }
+        }
+    }
+
+    private void deleteOne(Request request) {
+        try {
+            LOGGER.info("Deleting pod with name:" + request.podName);
+            cluster.delete(request.podName, request.gracePeriod);
+            deleted.incrementAndGet();
+        } catch (Throwable t) {
+            if (request.attempt < MAX_ATTEMPTS) {
+                long delay = retryDelay << (request.attempt - 1);
+                LOGGER.log(Level.FINE, "Failed to delete pod:" + request.podName + ". Retrying in " + delay + "ms.", t);
+                queue.add(new Request(request.podName, request.gracePeriod, request.attempt + 1, delay));
+            } else {
+                failed.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Failed to delete pod:" + request.podName + ". It will be picked up by the sweep once completed.", t);
+            }
+        }
+    }
+
+    /**
+     * Deletes completed pods of this master, that no one has deleted.
+     */
+    void sweep() {
+        try {
+            for (String podName : cluster.listCompleted()) {
+                LOGGER.info("Sweeping orphaned pod:" + podName);
+                delete(podName);
+                swept.incrementAndGet();
+            }
+        } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, "Failed to sweep orphaned pods.", t);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (PodReaper.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        scheduler.shutdown();
+        //Flush whatever is still queued.
+        drain();
+        try {
+            onClose.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to release the client.", e);
+        }
+    }
+
+    private static final class Request implements Delayed {
+        private final String podName;
+        private final long gracePeriod;
+        private final int attempt;
+        private final long dueAt;
+
+        private Request(String podName, long gracePeriod, int attempt, long delay) {
+            this.podName = podName;
+            this.gracePeriod = gracePeriod;
+            this.attempt = attempt;
+            this.dueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private static final class KubernetesCluster implements Cluster {
+        private final KubernetesClient client;
+        private final String masterId = getMasterId();
+
+        private KubernetesCluster(KubernetesClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void delete(String... podNames) {
+            client.pods().withLabel(PodWatchDispatcher.OWNER_LABEL, PodWatchDispatcher.OWNER).withLabelIn(NAME_LABEL, podNames).delete();
+        }
+
+        @Override
+        public void delete(String podName, long gracePeriod) {
+            if (gracePeriod == DEFAULT_GRACE_PERIOD) {
+                client.pods().withName(podName).delete();
+            } else {
+                client.pods().withName(podName).withGracePeriod(gracePeriod).delete();
+            }
+        }
+
+        @Override
+        public List<String> listCompleted() {
+            List<String> names = new ArrayList<>();
+            for (Pod pod : client.pods().withLabel(PodWatchDispatcher.OWNER_LABEL, PodWatchDispatcher.OWNER).withLabel(MASTER_LABEL, masterId).list().getItems()) {
+                if (KubernetesFacade.isPodCompleted(pod)) {
+                    names.add(pod.getMetadata().getName());
+                }
+            }
+            return names;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The resources (watches, log and exec streams) held open for pods, grouped by pod and container.
+ * Each pod has its own lifecycle: closing a pod only closes its own resources. Adding and closing don't block,
+ * so that parallel exec sessions don't contend with each other.
+ */
+final class PodResources {
+
+    /**
+     * The container name used for resources that belong to the pod as a whole (e.g. watches).
+     */
+    static final String POD_SCOPE = "";
+
+    private final Map<String, PodEntry> pods = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a resource.
+     * If the pod is being closed concurrently, the resource is closed right away.
+     */
+    void add(String podName, String containerName, Closeable closeable) {
+        pods.computeIfAbsent(podName, k -> new PodEntry()).add(containerName, closeable);
+    }
+
+    /**
+     * Unregisters a resource, without closing it (e.g. because it has already been closed).
+     * @return True if the resource was registered.
+     */
+    boolean remove(String podName, String containerName, Closeable closeable) {
+        PodEntry entry = pods.get(podName);
+        return entry != null && entry.remove(containerName, closeable);
+    }
+
+    /**
+     * Closes all the resources of the specified container.
+     */
+    void closeContainer(String podName, String containerName) {
+        PodEntry entry = pods.get(podName);
+        if (entry != null) {
+            entry.closeContainer(containerName);
+        }
+    }
+
+    /**
+     * Closes all the resources of the specified pod.
+     */
+    void closePod(String podName) {
+        PodEntry entry = pods.remove(podName);
+        if (entry != null) {
+            entry.close();
+        }
+    }
+
+    void closeAll() {
+        for (String podName : pods.keySet()) {
+            closePod(podName);
+        }
+    }
+
+    /**
+     * @return The number of registered resources.
+     */
+    int size() {
+        int size = 0;
+        for (PodEntry entry : pods.values()) {
+            size += entry.size();
+        }
+        return size;
+    }
+
+    private static final class PodEntry {
+
+        private final Map<String, Queue<Closeable>> containers = new ConcurrentHashMap<>();
+        private volatile boolean closed;
+
+        private void add(String containerName, Closeable closeable) {
+            Queue<Closeable> queue = containers.computeIfAbsent(containerName, k -> new ConcurrentLinkedQueue<>());
+            queue.add(closeable);
+            //If the pod got closed while we were adding, make sure that nothing is left open.
+            if (closed) {
+                drain(queue);
+            }
+        }
+
+        private boolean remove(String containerName, Closeable closeable) {
+            Queue<Closeable> queue = containers.get(containerName);
+            return queue != null && queue.remove(closeable);
+        }
+
+        private void closeContainer(String containerName) {
+            Queue<Closeable> queue = containers.get(containerName);
+            if (queue != null) {
+                drain(queue);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            for (Queue<Closeable> queue : containers.values()) {
+                drain(queue);
+            }
+        }
+
+        private int size() {
+            int size = 0;
+            for (Queue<Closeable> queue : containers.values()) {
+                size += queue.size();
+            }
+            return size;
+        }
+
+        private static void drain(Queue<Closeable> queue) {
+            //Each resource is polled (and closed) by a single thread.
+            Closeable c;
+            while ((c = queue.poll()) != null) {
+                try {
+                    c.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.workflow.core.ClientRegistry;
+
+import java.io.Closeable;
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single watch on all pods created by the plugin (owner=jenkins), that routes events to the listeners registered
+ * for each pod. This replaces a dedicated watch (and websocket) per pod.
+ * When the watch is closed with an error, it is re-established from the last seen resourceVersion. If that version is
+ * no longer available, the pods are listed again and the differences are dispatched, so that no event gets lost.
+ */
+final class PodWatchDispatcher implements Closeable {
+
+    private static final transient Logger LOGGER = Logger.getLogger(PodWatchDispatcher.class.getName());
+
+    static final String OWNER_LABEL = "owner";
+    static final String OWNER = "jenkins";
+
+    private static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static PodWatchDispatcher instance;
+
+    /**
+     * Lists and watches the pods of the plugin.
+     */
+    interface PodSource {
+        PodList list();
+
+        /**
+         * @param resourceVersion The version to watch from.
+         */
+        Watch watch(String resourceVersion, Watcher<Pod> watcher);
+    }
+
+    private final ClientRegistry.Ref<KubernetesClient> clientRef;
+    private final PodSource source;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Set<Watcher<Pod>>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, Pod> pods = new ConcurrentHashMap<>();
+
+    private volatile String resourceVersion;
+    private volatile boolean connected;
+    private volatile int generation;
+    private boolean closed;
+    private int failures;
+    private long nextAttempt;
+    private Watch watch;
+
+    private PodWatchDispatcher(ClientRegistry.Ref<KubernetesClient> clientRef) {
+        this(new ClientPodSource(clientRef.get()), clientRef);
+    }
+
+    /**
+     * @param source    The source of the pods.
+     * @param clientRef The reference to release when the dispatcher is closed, or null.
+     */
+    PodWatchDispatcher(PodSource source, ClientRegistry.Ref<KubernetesClient> clientRef) {
+        this.source = source;
+        this.clientRef = clientRef;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PodWatchDispatcher reconnect");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static synchronized PodWatchDispatcher get() {
+        if (instance == null) {
+            instance = new PodWatchDispatcher(KubernetesClients.acquire());
+        }
+        return instance;
+    }
+
+    /**
+     * Checks if the shared watch is (or can be) established.
+     * @return  False if the watch could not be established, in which case callers should watch the pod directly.
+     */
+    synchronized boolean isAvailable() {
+        if (!connected && watch == null && !closed && System.currentTimeMillis() >= nextAttempt) {
+            try {
+                connect();
+            } catch (Throwable t) {
+                nextAttempt = System.currentTimeMillis() + RETRY_DELAY;
+                LOGGER.log(Level.WARNING, "Failed to watch pods with label " + OWNER_LABEL + "=" + OWNER + ". Falling back to a watch per pod.", t);
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Registers a listener for the events of the specified pod.
+     * If the pod has already been seen, the listener is immediately notified of its current state.
+     * @param podName   The name of the pod.
+     * @param listener  The listener.
+     * @return          A {@link Watch} that unregisters the listener when closed.
+     */
+    Watch watch(final String podName, final Watcher<Pod> listener) {
+        listeners.computeIfAbsent(podName, k -> new CopyOnWriteArraySet<>()).add(listener);
+        Pod current = pods.get(podName);
+        if (current != null) {
+            notify(listener, Watcher.Action.MODIFIED, current);
+        }
+        return new PodWatch(podName, listener);
+    }
+
+    /**
+     * @return The number of pods with at least one listener.
+     */
+    int getWatchedPodCount() {
+        return listeners.size();
+    }
+
+    private void connect() {
+        closeWatch();
+        if (resourceVersion == null) {
+            relist();
+        }
+        watch = source.watch(resourceVersion, new DispatchingWatcher(generation));
+        connected = true;
+        failures = 0;
+    }
+
+    private void relist() {
+        PodList list = source.list();
+        Set<String> seen = new HashSet<>();
+        for (Pod pod : list.getItems()) {
+            seen.add(pod.getMetadata().getName());
+            dispatch(Watcher.Action.MODIFIED, pod);
+        }
+        for (Pod pod : pods.values()) {
+            if (!seen.contains(pod.getMetadata().getName())) {
+                dispatch(Watcher.Action.DELETED, pod);
+            }
+        }
+        resourceVersion = list.getMetadata().getResourceVersion();
+    }
+
+    private synchronized void reconnect() {
+        if (closed) {
+            return;
+        }
+        try {
+            connect();
+            LOGGER.info("Re-established pod watch from resourceVersion:" + resourceVersion + ".");
+        } catch (Throwable t) {
+            scheduleReconnect(t);
+        }
+    }
+
+    private synchronized void onWatchClosed(int watchGeneration, KubernetesClientException cause) {
+        if (watchGeneration != generation || closed) {
+            return;
+        }
+        connected = false;
+        watch = null;
+        if (cause == null) {
+            return;
+        }
+        if (cause.getCode() == HttpURLConnection.HTTP_GONE) {
+            //The version we've seen is too old, we need to relist.
+            resourceVersion = null;
+        }
+        scheduleReconnect(cause);
+    }
+
+    private void scheduleReconnect(Throwable cause) {
+        long delay = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures, 16));
+        failures++;
+        LOGGER.log(Level.WARNING, "Pod watch closed. Reconnecting in " + delay + "ms.", cause);
+        scheduler.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(Watcher.Action action, Pod pod) {
+        if (pod == null || pod.getMetadata() == null) {
+            return;
+        }
+        String name = pod.getMetadata().getName();
+        if (pod.getMetadata().getResourceVersion() != null) {
+            resourceVersion = pod.getMetadata().getResourceVersion();
+        }
+        if (action == Watcher.Action.DELETED) {
+            pods.remove(name);
+        } else {
+            pods.put(name, pod);
+            PodLifecycle.get().onEvent(pod);
+        }
+
+        Set<Watcher<Pod>> podListeners = listeners.get(name);
+        if (podListeners != null) {
+            for (Watcher<Pod> listener : podListeners) {
+                notify(listener, action, pod);
+            }
+        }
+    }
+
+    private static void notify(Watcher<Pod> listener, Watcher.Action action, Pod pod) {
+        try {
+            listener.eventReceived(action, pod);
+        } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, "Pod listener failed to handle event.", t);
+        }
+    }
+
+    private void remove(String podName, Watcher<Pod> listener) {
+        listeners.computeIfPresent(podName, (k, set) -> {
+            set.remove(listener);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void closeWatch() {
+        //Events of the previous watch should no longer be dispatched.
+        generation++;
+        connected = false;
+        if (watch != null) {
+            try {
+                watch.close();
+            } catch (Throwable t) {
+                //ignore
+            }
+            watch = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (PodWatchDispatcher.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        synchronized (this) {
+            closed = true;
+            closeWatch();
+        }
+        for (Map.Entry<String, Set<Watcher<Pod>>> entry : listeners.entrySet()) {
+            for (Watcher<Pod> listener : entry.getValue()) {
+                listener.onClose(null);
+            }
+        }
+        listeners.clear();
+        pods.clear();
+        scheduler.shutdownNow();
+        if (clientRef != null) {
+            clientRef.close();
+        }
+    }
+
+    private static class ClientPodSource implements PodSource {
+
+        private final KubernetesClient client;
+
+        private ClientPodSource(KubernetesClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public PodList list() {
+            return client.pods().withLabel(OWNER_LABEL, OWNER).list();
+        }
+
+        @Override
+        public Watch watch(String resourceVersion, Watcher<Pod> watcher) {
+            return client.pods().withLabel(OWNER_LABEL, OWNER).withResourceVersion(resourceVersion).watch(watcher);
+        }
+    }
+
+    private class DispatchingWatcher implements Watcher<Pod> {
+
+        private final int watchGeneration;
+
+        private DispatchingWatcher(int watchGeneration) {
+            this.watchGeneration = watchGeneration;
+        }
+
+        @Override
+        public void eventReceived(Action action, Pod pod) {
+            if (watchGeneration == generation) {
+                dispatch(action, pod);
+            }
+        }
+
+        @Override
+        public void onClose(KubernetesClientException cause) {
+            onWatchClosed(watchGeneration, cause);
+        }
+    }
+
+    private class PodWatch implements Watch {
+
+        private final String podName;
+        private final Watcher<Pod> listener;
+
+        private PodWatch(String podName, Watcher<Pod> listener) {
+            this.podName = podName;
+            this.listener = listener;
+        }
+
+        @Override
+        public void close() {
+            //Unlike closing the shared watch, this doesn't notify the listener, as the caller is the one closing it.
+            remove(podName, listener);
+        }
+    }
+}
@@ -16,34 +16,142 @@
 
 package io.fabric8.kubernetes.pipeline;
 
+import io.fabric8.kubernetes.api.model.ContainerStatus;
 import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.api.model.Status;
 import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
 import io.fabric8.kubernetes.client.Watcher;
 
+import java.io.Closeable;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import static io.fabric8.kubernetes.pipeline.KubernetesFacade.isPodCompleted;
 import static io.fabric8.kubernetes.pipeline.KubernetesFacade.isPodRunning;
 
-public class PodWatcher implements Watcher<Pod> {
+/**
+ * Tracks the state of a single pod. Phase changes and container restarts are published to the subscribers.
+ * When the watch is closed with an error, it is re-established from the last seen resourceVersion (or from the current
+ * state of the pod, if that version is gone), rather than treating the pod as finished.
+ */
+public class PodWatcher implements Watcher<Pod>, Closeable {
+
+    private static final transient Logger LOGGER = Logger.getLogger(PodWatcher.class.getName());
+
+    private static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ScheduledExecutorService RECONNECTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "PodWatcher reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public enum Phase {
+        PENDING, RUNNING, SUCCEEDED, FAILED, UNKNOWN, DELETED;
+
+        static Phase of(Pod pod) {
+            String phase = pod != null && pod.getStatus() != null ? pod.getStatus().getPhase() : null;
+            if (phase == null) {
+                return PENDING;
+            }
+            try {
+                return valueOf(phase.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return UNKNOWN;
+            }
+        }
+
+        public boolean isCompleted() {
+            return this == SUCCEEDED || this == FAILED || this == DELETED;
+        }
+    }
+
+    /**
+     * Receives the transitions of a pod.
+     */
+    public interface Subscriber {
+
+        default void onPhaseChange(String podName, Phase from, Phase to, Pod pod) {
+        }
+
+        default void onContainerRestart(String podName, String containerName, int restartCount, Pod pod) {
+        }
+    }
+
+    /**
+     * Re-establishes the watch of the pod.
+     */
+    public interface Reconnector {
+        /**
+         * @param resourceVersion The version to resume from, or null to start from the current state of the pod, which
+         *                        is then passed to the watcher as a MODIFIED event before the watch is resumed.
+         */
+        Watch reconnect(String resourceVersion, Watcher<Pod> watcher);
+    }
 
     private final AtomicBoolean alive;
     private final CountDownLatch started;
     private final CountDownLatch finisied;
     private final Callable<Void> onCompletion;
+    private final Reconnector reconnector;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> restarts = new HashMap<>();
+
+    private Phase phase;
+    private volatile String resourceVersion;
+    private volatile boolean closed;
+    private volatile Watch current;
+    private int failures;
+    private int reconnects;
 
     public PodWatcher(AtomicBoolean alive, CountDownLatch running, CountDownLatch finisied, Callable<Void> onCompletion) {
+        this(alive, running, finisied, onCompletion, null);
+    }
+
+    public PodWatcher(AtomicBoolean alive, CountDownLatch running, CountDownLatch finisied, Callable<Void> onCompletion, Reconnector reconnector) {
         this.alive = alive;
         this.started = running;
         this.finisied = finisied;
         this.onCompletion = onCompletion;
+        this.reconnector = reconnector;
+    }
+
+    public void subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    public synchronized Phase getPhase() {
+        return phase;
+    }
+
+    public String getResourceVersion() {
+        return resourceVersion;
+    }
+
+    public synchronized int getReconnects() {
+        return reconnects;
     }
 
     @Override
     public void eventReceived(Action action, Pod pod) {
+        PodLifecycle.get().onEvent(pod);
+        transition(action, pod);
         if (isPodRunning(pod)) {
             alive.set(true);
             started.countDown();
@@ -65,10 +173,95 @@ public class PodWatcher implements Watcher<Pod> {
 
     @Override
     public void onClose(KubernetesClientException e) {
+        if (e != null && reconnector != null && !closed && !isCompleted()) {
+            LOGGER.log(Level.FINE, "Watch closed with error. Reconnecting.", e);
+            scheduleReconnect(e.getCode() == HttpURLConnection.HTTP_GONE);
+            return;
+        }
         finisied.countDown();
         callCompletionCallback();
     }
 
+    /**
+     * Stops watching. Unlike a closed watch, this doesn't complete the pod.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Watch watch = current;
+        current = null;
+        if (watch != null) {
+            watch.close();
+        }
+    }
+
+    private void transition(Action action, Pod pod) {
+        Phase from;
+        Phase to = action == Action.DELETED ? Phase.DELETED : Phase.of(pod);
+        Map<String, Integer> restarted = new HashMap<>();
+        synchronized (this) {
+            if (pod.getMetadata() != null && pod.getMetadata().getResourceVersion() != null) {
+                resourceVersion = pod.getMetadata().getResourceVersion();
+            }
+            failures = 0;
+            from = phase;
+            phase = to;
+            if (pod.getStatus() != null && pod.getStatus().getContainerStatuses() != null) {
+                for (ContainerStatus status : pod.getStatus().getContainerStatuses()) {
+                    int count = status.getRestartCount() != null ? status.getRestartCount() : 0;
+                    Integer previous = restarts.put(status.getName(), count);
+                    if (previous != null && count > previous) {
+                        restarted.put(status.getName(), count);
+                    }
+                }
+            }
+        }
+
+        String podName = pod.getMetadata() != null ? pod.getMetadata().getName() : null;
+        for (Subscriber subscriber : subscribers) {
+            try {
+                if (from != to) {
+                    subscriber.onPhaseChange(podName, from, to, pod);
+                }
+                for (Map.Entry<String, Integer> entry : restarted.entrySet()) {
+                    subscriber.onContainerRestart(podName, entry.getKey(), entry.getValue(), pod);
+                }
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Subscriber failed to handle transition of pod:" + podName + ".", t);
+            }
+        }
+    }
+
+    private synchronized boolean isCompleted() {
+        return phase != null && phase.isCompleted();
+    }
+
+    private synchronized void scheduleReconnect(final boolean gone) {
+        long delay = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures, 16));
+        failures++;
+        RECONNECTS.schedule(() -> reconnect(gone), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect(boolean gone) {
+        if (closed) {
+            return;
+        }
+        try {
+            //If the version is gone, we start over from the current state of the pod (which the reconnector replays as MODIFIED).
+            Watch watch = reconnector.reconnect(gone ? null : resourceVersion, this);
+            synchronized (this) {
+                reconnects++;
+            }
+            current = watch;
+            if (closed) {
+                close();
+            }
+        } catch (Throwable t) {
+            LOGGER.log(Level.FINE, "Failed to reconnect watch.", t);
+            scheduleReconnect(false);
+        }
+    }
+
     private void callCompletionCallback() {
         if (onCompletion != null) {
             try {
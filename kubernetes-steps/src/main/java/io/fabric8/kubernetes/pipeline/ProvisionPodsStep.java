@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import hudson.Extension;
+
+import org.csanchez.jenkins.plugins.kubernetes.ContainerTemplate;
+import org.csanchez.jenkins.plugins.kubernetes.volumes.PodVolume;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provisions a number of pods from the same template concurrently and exposes their names to the body,
+ * so that parallel branches can bind to them with {@code withPod(pod: ...)}.
+ */
+public class ProvisionPodsStep extends AbstractPodStep {
+
+    private static final long serialVersionUID = 1L;
+
+    private int count = 1;
+    private int maxInFlight = 10;
+    private long timeout = 600000L;
+
+    @DataBoundConstructor
+    public ProvisionPodsStep(String name, List<ContainerTemplate> containers, Map<String, String> envVars, List<PodVolume> volumes, String serviceAccount, String nodeSelector, String workingDir, Map<String, String> labels) {
+        super(name, containers, envVars, volumes, serviceAccount, nodeSelector, workingDir, labels);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @DataBoundSetter
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @DataBoundSetter
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    @DataBoundSetter
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(ProvisionPodsStepExecution.class);
+        }
+
+        public DescriptorImpl(Class<? extends StepExecution> executionType) {
+            super(executionType);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "provisionPods";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Provision pods for parallel branches";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public boolean isAdvanced() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.workflow.core.Constants;
+
+public class ProvisionPodsStepExecution extends AbstractStepExecutionImpl {
+
+    static final String KUBERNETES_PODS = "KUBERNETES_PODS";
+    static final String BATCH_LABEL = "pod-batch";
+
+    @Inject
+    private ProvisionPodsStep step;
+    @StepContextParameter private transient FilePath workspace;
+    @StepContextParameter private transient EnvVars env;
+    @StepContextParameter private transient TaskListener listener;
+    @StepContextParameter private transient Computer computer;
+    private final List<String> podNames = new ArrayList<>();
+
+    @Override
+    public boolean start() throws Exception {
+        final String hostname = env.get(Constants.HOSTNAME, computer.getName());
+        final String jobname = env.get(Constants.JOB_NAME, computer.getName());
+        final String buildWorkspace = workspace.getRemote();
+
+        List<PodTemplate> templates = new ArrayList<>();
+        for (int i = 0; i < step.getCount(); i++) {
+            templates.add(WithPodStepExecution.newTemplate(step, step.getName() + "-" + UUID.randomUUID().toString()));
+        }
+        Map<String, String> labels = new HashMap<>(step.getLabels());
+        labels.put(BATCH_LABEL, UUID.randomUUID().toString());
+
+        long start = System.currentTimeMillis();
+        try (final KubernetesFacade kubernetes = new KubernetesFacade()) {
+            provision(new Provisioner() {
+                @Override
+                public List<String> createPods(Consumer<String> created) throws Exception {
+                    List<String> names = new ArrayList<>();
+                    for (Pod pod : kubernetes.createPods(hostname, jobname, templates, buildWorkspace, labels, step.getMaxInFlight(),
+                            pod -> created.accept(pod.getMetadata().getName()))) {
+                        names.add(pod.getMetadata().getName());
+                    }
+                    return names;
+                }
+
+                @Override
+                public boolean awaitRunning(List<String> names) throws Exception {
+                    return kubernetes.awaitRunning(names, step.getTimeout());
+                }
+            }, podNames, step.getTimeout(), this::release);
+        }
+        listener.getLogger().println("Provisioned " + podNames.size() + " pods in " + (System.currentTimeMillis() - start) + "ms: " + podNames + ".");
+
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put(KUBERNETES_PODS, String.join(",", podNames));
+        getContext().newBodyInvoker()
+                .withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new PodsExpander(overrides)))
+                .withCallback(new PodsCallback())
+                .start();
+        return false;
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        release();
+    }
+
+    private void release() {
+        synchronized (podNames) {
+            for (String podName : podNames) {
+                PodReaper.get().delete(podName, step.getGracePeriod());
+            }
+            podNames.clear();
+        }
+    }
+
+    /**
+     * Creates the pods and waits for them to be running.
+     */
+    interface Provisioner {
+        /**
+         * @param created   Notified with the name of each pod, as soon as it is created.
+         * @return          The names of the pods, in the order of their templates.
+         */
+        List<String> createPods(Consumer<String> created) throws Exception;
+
+        boolean awaitRunning(List<String> podNames) throws Exception;
+    }
+
+    /**
+     * Provisions the pods, recording each pod as soon as it is created, so that on any failure (some pods could not be
+     * created, the pods didn't start in time, the build was interrupted) all the pods created so far are released.
+     * @param provisioner   The provisioner.
+     * @param podNames      The list to record the names of the pods to.
+     * @param timeout       The time in milliseconds the provisioner waits for the pods to be running.
+     * @param release       Releases the recorded pods.
+     */
+    static void provision(Provisioner provisioner, List<String> podNames, long timeout, Runnable release) throws Exception {
+        try {
+            List<String> ordered = provisioner.createPods(name -> {
+                synchronized (podNames) {
+                    podNames.add(name);
+                }
+            });
+            synchronized (podNames) {
+                podNames.clear();
+                podNames.addAll(ordered);
+            }
+            if (!provisioner.awaitRunning(ordered)) {
+                throw new AbortException("Not all of the " + ordered.size() + " pods were running after " + timeout + "ms.");
+            }
+        } catch (Throwable t) {
+            release.run();
+            throw t;
+        }
+    }
+
+    private static final class PodsExpander extends EnvironmentExpander {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> overrides;
+
+        private PodsExpander(Map<String, String> overrides) {
+            this.overrides = overrides;
+        }
+
+        @Override
+        public void expand(EnvVars env) throws IOException, InterruptedException {
+            env.overrideAll(overrides);
+        }
+    }
+
+    private class PodsCallback extends BodyExecutionCallback {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void onSuccess(StepContext context, Object result) {
+            try {
+                release();
+            } finally {
+                context.onSuccess(result);
+            }
+        }
+
+        @Override
+        public void onFailure(StepContext context, Throwable t) {
+            try {
+                release();
+            } finally {
+                context.onFailure(t);
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ public class PushImageStep extends AbstractDockerStep implements Serializable {
     private String tag;
     private String registry;
     private long timeout = 600000L;
+    private long progressInterval = DockerProgressLog.DEFAULT_REFRESH_INTERVAL;
 
     @DataBoundConstructor
     public PushImageStep(String name) {
@@ -64,6 +65,15 @@ public class PushImageStep extends AbstractDockerStep implements Serializable {
         this.timeout = timeout;
     }
 
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    @DataBoundSetter
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
 
     @Extension
     public static class DescriptorImpl extends AbstractStepDescriptorImpl {
@@ -25,6 +25,7 @@ import io.fabric8.docker.client.utils.RegistryUtils;
 import io.fabric8.docker.client.utils.Utils;
 import io.fabric8.docker.dsl.EventListener;
 import io.fabric8.docker.dsl.OutputHandle;
+import io.fabric8.workflow.core.DockerExecutor;
 import jenkins.security.MasterToSlaveCallable;
 import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousStepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
@@ -50,6 +51,11 @@ public class PushImageStepExecution extends AbstractSynchronousStepExecution<Voi
         return workspace.getChannel().call(new MasterToSlaveCallable<Void, Exception>() {
             @Override
             public Void call() throws Exception {
+                //Pushes count against the limit of the daemon, like builds do.
+                return DockerExecutor.get().call(step.getDockerConfig().getDockerUrl(), this::push);
+            }
+
+            private Void push() throws Exception {
                 OutputHandle handle = null;
                 final BlockingQueue queue = new LinkedBlockingQueue();
                 try (DockerClient client = new DefaultDockerClient(step.getDockerConfig())) {
@@ -72,30 +78,34 @@ public class PushImageStepExecution extends AbstractSynchronousStepExecution<Voi
                         }
                     }
 
+                    final DockerProgressLog progress = new DockerProgressLog(listener.getLogger(), step.getProgressInterval());
                     handle = client.image().withName(image)
                             .push()
                             .usingListener(new EventListener() {
                                 @Override
                                 public void onSuccess(String s) {
+                                    progress.close();
                                     listener.getLogger().println(s);
                                     queue.add(true);
                                 }
 
                                 @Override
                                 public void onError(String s) {
+                                    progress.close();
                                     listener.error(s);
                                     queue.add(new RuntimeException("Failed to push image. Error:" + s));
                                 }
 
                                 @Override
                                 public void onError(Throwable throwable) {
+                                    progress.close();
                                     listener.getLogger().println(throwable);
                                     queue.add(new RuntimeException(throwable));
                                 }
 
                                 @Override
                                 public void onEvent(String s) {
-                                    listener.getLogger().println(s);
+                                    progress.onEvent(s);
                                 }
                             })
                             .withTag(step.getTag())
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.NodeList;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaimList;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.workflow.core.ClientRegistry;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch driven indexes of the resources {@link KubernetesFacade} needs to look up before creating a pod
+ * (workspace claims, the pod of the current agent and its node), shared by all builds.
+ * Only the pods created by the plugin (owner=jenkins) are indexed as a whole. Agent pods and nodes are indexed one by one
+ * (by name), when first looked up, and their indexes are closed once they have not been used for a while.
+ */
+final class ResourceCache implements Closeable {
+
+    private static final String NAME_FIELD = "metadata.name";
+    private static final long NAMED_INDEX_IDLE_TIME = TimeUnit.MINUTES.toMillis(10);
+
+    private static ResourceCache instance;
+
+    private final ClientRegistry.Ref<KubernetesClient> clientRef;
+    private final KubernetesClient client;
+    private final ScheduledExecutorService scheduler;
+    private final ResourceIndex<PersistentVolumeClaim> claims;
+    private final ResourceIndex<Pod> pods;
+    private final Map<String, ResourceIndex<Pod>> agentPods = new ConcurrentHashMap<>();
+    private final Map<String, ResourceIndex<Node>> nodes = new ConcurrentHashMap<>();
+
+    private ResourceCache(ClientRegistry.Ref<KubernetesClient> clientRef) {
+        this.clientRef = clientRef;
+        this.client = clientRef.get();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ResourceCache resync");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.claims = new ResourceIndex<>("PersistentVolumeClaim",
+                () -> {
+                    PersistentVolumeClaimList list = client.persistentVolumeClaims().list();
+                    return new ResourceIndex.Snapshot<>(list.getItems(), list.getMetadata().getResourceVersion());
+                },
+                (resourceVersion, watcher) -> client.persistentVolumeClaims().withResourceVersion(resourceVersion).watch(watcher),
+                scheduler);
+
+        this.pods = new ResourceIndex<>("Pod",
+                () -> {
+                    PodList list = client.pods().withLabel(PodWatchDispatcher.OWNER_LABEL, PodWatchDispatcher.OWNER).list();
+                    return new ResourceIndex.Snapshot<>(list.getItems(), list.getMetadata().getResourceVersion());
+                },
+                (resourceVersion, watcher) -> client.pods().withLabel(PodWatchDispatcher.OWNER_LABEL, PodWatchDispatcher.OWNER)
+                        .withResourceVersion(resourceVersion).watch(watcher),
+                scheduler);
+
+        scheduler.scheduleWithFixedDelay(this::evictIdle, NAMED_INDEX_IDLE_TIME, NAMED_INDEX_IDLE_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The cache for the shared default client.
+     */
+    static synchronized ResourceCache get() {
+        if (instance == null) {
+            instance = new ResourceCache(KubernetesClients.acquire());
+        }
+        return instance;
+    }
+
+    ResourceIndex<PersistentVolumeClaim> claims() {
+        return claims;
+    }
+
+    /**
+     * @return The index of the pods created by the plugin.
+     */
+    ResourceIndex<Pod> pods() {
+        return pods;
+    }
+
+    /**
+     * @return The index of the pod with the specified name (e.g. the pod of the current agent).
+     */
+    ResourceIndex<Pod> agentPod(final String name) {
+        return agentPods.computeIfAbsent(name, n -> new ResourceIndex<>("Pod",
+                () -> {
+                    PodList list = client.pods().withField(NAME_FIELD, n).list();
+                    return new ResourceIndex.Snapshot<>(list.getItems(), list.getMetadata().getResourceVersion());
+                },
+                (resourceVersion, watcher) -> client.pods().withField(NAME_FIELD, n).withResourceVersion(resourceVersion).watch(watcher),
+                scheduler));
+    }
+
+    /**
+     * @return The index of the node with the specified name.
+     */
+    ResourceIndex<Node> node(final String name) {
+        return nodes.computeIfAbsent(name, n -> new ResourceIndex<>("Node",
+                () -> {
+                    NodeList list = client.nodes().withField(NAME_FIELD, n).list();
+                    return new ResourceIndex.Snapshot<>(list.getItems(), list.getMetadata().getResourceVersion());
+                },
+                (resourceVersion, watcher) -> client.nodes().withField(NAME_FIELD, n).withResourceVersion(resourceVersion).watch(watcher),
+                scheduler));
+    }
+
+    private void evictIdle() {
+        evictIdle(agentPods);
+        evictIdle(nodes);
+    }
+
+    private static void evictIdle(Map<String, ? extends ResourceIndex<?>> indexes) {
+        for (Iterator<? extends ResourceIndex<?>> iterator = indexes.values().iterator(); iterator.hasNext(); ) {
+            ResourceIndex<?> index = iterator.next();
+            if (index.isIdle(NAMED_INDEX_IDLE_TIME)) {
+                iterator.remove();
+                index.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (ResourceCache.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        claims.close();
+        pods.close();
+        for (ResourceIndex<Pod> index : agentPods.values()) {
+            index.close();
+        }
+        for (ResourceIndex<Node> index : nodes.values()) {
+            index.close();
+        }
+        agentPods.clear();
+        nodes.clear();
+        scheduler.shutdownNow();
+        clientRef.close();
+    }
+}
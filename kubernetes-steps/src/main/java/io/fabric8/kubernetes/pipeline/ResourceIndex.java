@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory index of resources of a single kind, kept up to date by a list followed by a watch.
+ * Lookups are answered from memory once the index is synced, and fall back to the supplied lookup otherwise
+ * (e.g. when the service account is not allowed to list or watch the resource).
+ * The index is synced in the background on first use, so the lookup that triggers it never waits for the list.
+ *
+ * @param <T> The resource type.
+ */
+class ResourceIndex<T extends HasMetadata> implements Closeable {
+
+    private static final transient Logger LOGGER = Logger.getLogger(ResourceIndex.class.getName());
+
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+    private static final long RESYNC_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    interface Lister<T> {
+        Snapshot<T> list();
+    }
+
+    interface WatchFactory<T> {
+        Watch watch(String resourceVersion, Watcher<T> watcher);
+    }
+
+    static final class Snapshot<T> {
+        private final List<T> items;
+        private final String resourceVersion;
+
+        Snapshot(List<T> items, String resourceVersion) {
+            this.items = items;
+            this.resourceVersion = resourceVersion;
+        }
+    }
+
+    private final String kind;
+    private final Lister<T> lister;
+    private final WatchFactory<T> watchFactory;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, T> items = new ConcurrentHashMap<>();
+
+    private volatile boolean synced;
+    private volatile boolean closed;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private boolean syncing;
+    private long nextAttempt;
+    private volatile int generation;
+    private Watch watch;
+
+    ResourceIndex(String kind, Lister<T> lister, WatchFactory<T> watchFactory, ScheduledExecutorService scheduler) {
+        this.kind = kind;
+        this.lister = lister;
+        this.watchFactory = watchFactory;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Finds the resource with the specified name.
+     * @param name      The name of the resource.
+     * @param fallback  The lookup to use, if the index is not available.
+     * @return          The resource or null if not found.
+     */
+    T get(String name, Supplier<T> fallback) {
+        if (ensureSynced()) {
+            return name != null ? items.get(name) : null;
+        }
+        return fallback.get();
+    }
+
+    /**
+     * Finds the resource with the specified name, using the lookup on a miss.
+     * To be used for resources that might have been created after the last event the index received.
+     * @param name      The name of the resource.
+     * @param lookup    The lookup to use, if the resource is not in the index.
+     * @return          The resource or null if not found.
+     */
+    T getOrFetch(String name, Supplier<T> lookup) {
+        T item = ensureSynced() && name != null ? items.get(name) : null;
+        return item != null ? item : lookup.get();
+    }
+
+    boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * @return True if the index has not been used for the specified time.
+     */
+    boolean isIdle(long idleTime) {
+        return System.currentTimeMillis() - lastAccess > idleTime;
+    }
+
+    private boolean ensureSynced() {
+        lastAccess = System.currentTimeMillis();
+        if (synced) {
+            return true;
+        }
+        synchronized (this) {
+            if (!synced && !syncing && !closed && System.currentTimeMillis() >= nextAttempt) {
+                syncing = true;
+                scheduler.execute(this::sync);
+            }
+            return synced;
+        }
+    }
+
+    private synchronized void sync() {
+        syncing = false;
+        if (closed) {
+            return;
+        }
+        closeWatch();
+        try {
+            Snapshot<T> snapshot = lister.list();
+            items.clear();
+            for (T item : snapshot.items) {
+                items.put(item.getMetadata().getName(), item);
+            }
+            watch = watchFactory.watch(snapshot.resourceVersion, new IndexWatcher(generation));
+            synced = true;
+            LOGGER.fine("Indexed " + items.size() + " " + kind + " resources.");
+        } catch (Throwable t) {
+            synced = false;
+            nextAttempt = System.currentTimeMillis() + RETRY_DELAY;
+            LOGGER.log(Level.WARNING, "Failed to index " + kind + " resources. Falling back to direct lookups.", t);
+        }
+    }
+
+    private void onEvent(Watcher.Action action, T resource) {
+        if (resource == null || resource.getMetadata() == null) {
+            return;
+        }
+        switch (action) {
+            case ADDED:
+            case MODIFIED:
+                items.put(resource.getMetadata().getName(), resource);
+                break;
+            case DELETED:
+                items.remove(resource.getMetadata().getName());
+                break;
+            default:
+        }
+    }
+
+    private synchronized void onWatchClosed(int watchGeneration, KubernetesClientException cause) {
+        if (watchGeneration != generation) {
+            return;
+        }
+        synced = false;
+        if (!closed && cause != null) {
+            LOGGER.log(Level.FINE, "Watch for " + kind + " resources closed. Resyncing.", cause);
+            syncing = true;
+            scheduler.schedule(this::sync, RESYNC_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        synced = false;
+        closeWatch();
+        items.clear();
+    }
+
+    private void closeWatch() {
+        //Events of the previous watch should no longer be applied.
+        generation++;
+        if (watch != null) {
+            try {
+                watch.close();
+            } catch (Throwable t) {
+                //ignore
+            }
+            watch = null;
+        }
+    }
+
+    private class IndexWatcher implements Watcher<T> {
+
+        private final int watchGeneration;
+
+        private IndexWatcher(int watchGeneration) {
+            this.watchGeneration = watchGeneration;
+        }
+
+        @Override
+        public void eventReceived(Action action, T resource) {
+            if (watchGeneration == generation) {
+                onEvent(action, resource);
+            }
+        }
+
+        @Override
+        public void onClose(KubernetesClientException cause) {
+            onWatchClosed(watchGeneration, cause);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import hudson.FilePath;
 import hudson.model.TaskListener;
 import io.fabric8.docker.client.DefaultDockerClient;
 import io.fabric8.docker.client.DockerClient;
+import io.fabric8.workflow.core.DockerExecutor;
 import jenkins.security.MasterToSlaveCallable;
 import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousStepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
@@ -41,6 +42,11 @@ public class TagImageStepExecution extends AbstractSynchronousStepExecution<Bool
         return workspace.getChannel().call(new MasterToSlaveCallable<Boolean, Exception>() {
             @Override
             public Boolean call() throws Exception {
+                //Tagging counts against the limit of the daemon, like builds do.
+                return DockerExecutor.get().call(step.getDockerConfig().getDockerUrl(), this::tag);
+            }
+
+            private Boolean tag() throws Exception {
                 try (DockerClient client = new DefaultDockerClient(step.getDockerConfig())) {
                     listener.getLogger().println("Tagging image:" + step.getName() + " with tag:" + step.getTag() + ".");
                         return client.image()
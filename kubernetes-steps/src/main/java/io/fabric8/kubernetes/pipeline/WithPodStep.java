@@ -16,89 +16,117 @@
 
 package io.fabric8.kubernetes.pipeline;
 
-import com.google.common.base.Strings;
-
 import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 
 import org.csanchez.jenkins.plugins.kubernetes.ContainerTemplate;
-import org.csanchez.jenkins.plugins.kubernetes.PodEnvVar;
 import org.csanchez.jenkins.plugins.kubernetes.volumes.PodVolume;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 @Deprecated //No longer needed as we delegate to the kubernetes-plugin.
-public class WithPodStep extends AbstractStepImpl implements Serializable {
+public class WithPodStep extends AbstractPodStep {
 
     private static final long serialVersionUID = 5588861066775717487L;
 
-    private final String name;
-
-    private final List<ContainerTemplate> containers;
-    private final transient List<PodEnvVar> envVars;
-    private final List<PodVolume> volumes;
-    private final Map<String, String> labels;
-
-    private final String serviceAccount;
-    private final String nodeSelector;
-    private final String workingDir;
+    private int warmPods;
+    private long warmPodTtl = 600000L;
+    private String pod;
+    private String container;
+    private boolean persistentShell;
+    private boolean rawExec;
+    private long outputFlushInterval = ExecOutputPump.DEFAULT_FLUSH_INTERVAL;
+    private int outputFlushSize = ExecOutputPump.DEFAULT_FLUSH_SIZE;
 
     @DataBoundConstructor
     public WithPodStep(String name, List<ContainerTemplate> containers, Map<String, String> envVars, List<PodVolume> volumes, String serviceAccount, String nodeSelector, String workingDir, Map<String, String> labels) {
-        this.name = name;
-        this.containers = containers != null ? containers : Collections.emptyList();
-        this.envVars = envVars != null ? asPodEnvars(envVars) : Collections.emptyList();
-        this.volumes = volumes != null ? volumes : Collections.emptyList();
-        this.serviceAccount = serviceAccount;
-        this.nodeSelector = nodeSelector;
-        this.workingDir = Strings.isNullOrEmpty(workingDir) ? ContainerTemplate.DEFAULT_WORKING_DIR : workingDir;
-        this.labels = labels != null ? labels : Collections.emptyMap();
+        super(name, containers, envVars, volumes, serviceAccount, nodeSelector, workingDir, labels);
+    }
+
+    public int getWarmPods() {
+        return warmPods;
     }
 
-    public String getName() {
-        return name;
+    @DataBoundSetter
+    public void setWarmPods(int warmPods) {
+        this.warmPods = warmPods;
     }
 
-    public List<ContainerTemplate> getContainers() {
-        return containers;
+    public long getWarmPodTtl() {
+        return warmPodTtl;
     }
 
-    public List<PodEnvVar> getEnvVars() {
-        return envVars;
+    @DataBoundSetter
+    public void setWarmPodTtl(long warmPodTtl) {
+        this.warmPodTtl = warmPodTtl;
     }
 
-    public List<PodVolume> getVolumes() {
-        return volumes;
+    public String getPod() {
+        return pod;
     }
 
-    public String getServiceAccount() {
-        return serviceAccount;
+    @DataBoundSetter
+    public void setPod(String pod) {
+        this.pod = pod;
     }
 
-    public String getNodeSelector() {
-        return nodeSelector;
+    public String getContainer() {
+        return container;
     }
 
-    public Map<String, String> getLabels() { return labels; }
+    @DataBoundSetter
+    public void setContainer(String container) {
+        this.container = container;
+    }
 
-    public String getWorkingDir() {
-        return workingDir;
+    public boolean isPersistentShell() {
+        return persistentShell;
     }
 
+    @DataBoundSetter
+    public void setPersistentShell(boolean persistentShell) {
+        this.persistentShell = persistentShell;
+    }
 
-    private List<PodEnvVar> asPodEnvars(Map<String, String> map) {
-        List<PodEnvVar> result = new ArrayList<>();
-        for (Map.Entry<String, String> entry : map.entrySet()) {
-            result.add(new PodEnvVar(entry.getKey(), entry.getValue()));
-        }
-        return result;
+    public boolean isRawExec() {
+        return rawExec;
+    }
+
+    @DataBoundSetter
+    public void setRawExec(boolean rawExec) {
+        this.rawExec = rawExec;
+    }
+
+    public long getOutputFlushInterval() {
+        return outputFlushInterval;
+    }
+
+    @DataBoundSetter
+    public void setOutputFlushInterval(long outputFlushInterval) {
+        this.outputFlushInterval = outputFlushInterval;
+    }
+
+    public int getOutputFlushSize() {
+        return outputFlushSize;
+    }
+
+    @DataBoundSetter
+    public void setOutputFlushSize(int outputFlushSize) {
+        this.outputFlushSize = outputFlushSize;
+    }
+
+    /**
+     * Reaps the idle pods of the pod pool, that were left behind when Jenkins was restarted.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void reapIdlePods() {
+        PodPool.reapIdlePods();
     }
 
     @Extension
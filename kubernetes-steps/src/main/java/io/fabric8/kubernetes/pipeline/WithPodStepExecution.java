@@ -16,6 +16,9 @@
 
 package io.fabric8.kubernetes.pipeline;
 
+import com.google.common.base.Strings;
+
+import org.csanchez.jenkins.plugins.kubernetes.ContainerTemplate;
 import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
@@ -24,7 +27,10 @@ import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -34,12 +40,15 @@ import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.LauncherDecorator;
 import hudson.model.Computer;
 import hudson.model.TaskListener;
+import io.fabric8.kubernetes.api.model.Container;
 import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.workflow.core.Constants;
 
 @Deprecated //No longer needed as we delegate to the kubernetes-plugin.
@@ -54,51 +63,167 @@ public class WithPodStepExecution extends AbstractStepExecutionImpl {
     @StepContextParameter private transient TaskListener listener;
     @StepContextParameter private transient Computer computer;
     private String podName;
+    private boolean ownsPod = true;
+    private String workingDir;
+    private transient KubernetesFacade kubernetes;
 
     @Override
     public boolean start() throws Exception {
         StepContext context = getContext();
-        podName = step.getName() + "-" + UUID.randomUUID().toString();
         final AtomicBoolean podAlive = new AtomicBoolean(false);
         final CountDownLatch podStarted = new CountDownLatch(1);
         final CountDownLatch podFinished = new CountDownLatch(1);
 
         //The body is executed async. so we can't use try with resource here.
-        final KubernetesFacade kubernetes = new KubernetesFacade();
-
-        PodTemplate newTemplate = new PodTemplate();
-        newTemplate.setName(podName);
-        newTemplate.setLabel(step.getName());
-        newTemplate.setVolumes(step.getVolumes());
-        newTemplate.setContainers(step.getContainers());
-        newTemplate.setNodeSelector(step.getNodeSelector());
-        newTemplate.setServiceAccount(step.getServiceAccount());
+        kubernetes = new KubernetesFacade();
 
         //Get host using env vars and fallback to computer name (integration point with kubernetes-plugin).
-        String hostname = env.get(Constants.HOSTNAME, computer.getName());
-        String jobname = env.get(Constants.JOB_NAME, computer.getName());
+        final String hostname = env.get(Constants.HOSTNAME, computer.getName());
+        final String jobname = env.get(Constants.JOB_NAME, computer.getName());
+        final String buildWorkspace = workspace.getRemote();
+        final WithPodStep podStep = step;
+
+        if (!Strings.isNullOrEmpty(podStep.getPod())) {
+            //The pod has been provisioned for us (e.g. by provisionPods), we just bind to it.
+            podName = podStep.getPod();
+            ownsPod = false;
+            PodLifecycle.get().record(podName, PodLifecycle.Stage.CLAIMED);
+            listener.getLogger().println("Using pod: [" + podName + "].");
+        } else if (podStep.getWarmPods() > 0) {
+            //Pooled pods are shared by all jobs, so they mount the workspace root and commands change to the build workspace.
+            final String workspaceRoot = Paths.get(buildWorkspace).getParent().toAbsolutePath().toString();
+            PodTemplate template = newTemplate(podStep, podStep.getName());
+            String key = PodPool.hash(template, podStep.getLabels(), kubernetes.getNamespace(), workspaceRoot,
+                    kubernetes.getPlacement(hostname, template, workspaceRoot));
+            workingDir = buildWorkspace;
+
+            PodPool pool = PodPool.get();
+            podName = pool.claim(key, podStep.getName(), podStep.getWarmPods(), podStep.getWarmPodTtl(), (name, poolLabels) -> {
+                Map<String, String> labels = new HashMap<>(podStep.getLabels());
+                labels.putAll(poolLabels);
+                try (KubernetesFacade k = new KubernetesFacade()) {
+                    return k.createPod(hostname, null, newTemplate(podStep, name), workspaceRoot, labels);
+                }
+            });
+            PodLifecycle.get().record(podName, PodLifecycle.Stage.CLAIMED);
+            listener.getLogger().println("Using pod: [" + podName + "] from pool (hit rate: " + String.format("%.1f", pool.getHitRate())
+                    + "%, average claim latency: " + pool.getAverageClaimLatency() + "ms).");
+        } else {
+            podName = podStep.getName() + "-" + UUID.randomUUID().toString();
+            kubernetes.createPod(hostname, jobname, newTemplate(podStep, podName), buildWorkspace, podStep.getLabels());
+        }
 
-        kubernetes.createPod(hostname, jobname, newTemplate, workspace.getRemote(), step.getLabels());
-        kubernetes.watch(podName, podAlive, podStarted, podFinished, true);
+        final PrintStream logger = listener.getLogger();
+        kubernetes.watch(podName, podAlive, podStarted, podFinished, true, new PodWatcher.Subscriber() {
+            @Override
+            public void onPhaseChange(String name, PodWatcher.Phase from, PodWatcher.Phase to, Pod pod) {
+                if (from != null) {
+                    logger.println("Pod: [" + name + "] " + from + " -> " + to + ".");
+                }
+            }
+
+            @Override
+            public void onContainerRestart(String name, String containerName, int restartCount, Pod pod) {
+                logger.println("Container: [" + containerName + "] of pod: [" + name + "] restarted (restarts: " + restartCount + ").");
+            }
+        });
         podStarted.await();
 
-        String containerName = step.getContainers().get(step.getContainers().size() - 1).getName();
+        String containerName;
+        try {
+            containerName = execContainer(podStep, podName);
+        } catch (AbortException e) {
+            release(podName, step.getGracePeriod());
+            throw e;
+        }
 
         context.newBodyInvoker()
                 .withContext(BodyInvoker
-                        .mergeLauncherDecorators(getContext().get(LauncherDecorator.class), new PodExecDecorator(kubernetes, podName, containerName, podAlive, podStarted, podFinished)))
-                        .withCallback(new PodCallback(podName))
+                        .mergeLauncherDecorators(getContext().get(LauncherDecorator.class), new PodExecDecorator(kubernetes, podName, containerName, podAlive, podStarted, podFinished, execMode(step))
+                                .withOutputFlush(step.getOutputFlushInterval(), step.getOutputFlushSize())
+                                .withWorkingDir(workingDir)))
+                        .withCallback(new PodCallback(podName, step.getGracePeriod()))
                 .start();
         return false;
     }
 
     @Override
     public void stop(Throwable cause) throws Exception {
-        try (KubernetesFacade kubernetes = new KubernetesFacade()) {
-            kubernetes.deletePod(podName);
+        release(podName, step.getGracePeriod());
+    }
+
+    /**
+     * Queues the deletion of the pod and releases the resources of the facade that watched it.
+     */
+    private void release(String podName, long gracePeriod) {
+        String summary = PodLifecycle.get().remove(podName);
+        if (summary != null && listener != null) {
+            listener.getLogger().println(summary);
+        }
+        if (ownsPod) {
+            PodReaper.get().delete(podName, gracePeriod);
+        }
+        if (kubernetes != null) {
+            try {
+                kubernetes.close();
+            } catch (IOException e) {
+                LOGGER.warning("Failed to properly cleanup");
+            }
+            kubernetes = null;
         }
     }
 
+    /**
+     * @return The container to run the body in: the one of the container option or else the last container of the pod,
+     * which for a bound pod is taken from the pod itself, as the containers of the step need not match it.
+     */
+    private String execContainer(WithPodStep step, String podName) throws AbortException {
+        List<String> names = new ArrayList<>();
+        if (!Strings.isNullOrEmpty(step.getPod())) {
+            Pod pod = kubernetes.getPod(podName);
+            if (pod != null && pod.getSpec() != null && pod.getSpec().getContainers() != null) {
+                for (Container container : pod.getSpec().getContainers()) {
+                    names.add(container.getName());
+                }
+            }
+        } else if (step.getContainers() != null) {
+            for (ContainerTemplate container : step.getContainers()) {
+                names.add(container.getName());
+            }
+        }
+
+        if (!Strings.isNullOrEmpty(step.getContainer())) {
+            if (!names.contains(step.getContainer())) {
+                throw new AbortException("Container: [" + step.getContainer() + "] not found in pod: [" + podName + "]. Available containers: " + names + ".");
+            }
+            return step.getContainer();
+        } else if (names.isEmpty()) {
+            throw new AbortException("Could not determine the container to run the body in, as pod: [" + podName + "] has no containers we know of."
+                    + " Specify one with the container option.");
+        }
+        return names.get(names.size() - 1);
+    }
+
+    private static PodExecDecorator.Mode execMode(WithPodStep step) {
+        if (step.isPersistentShell()) {
+            return PodExecDecorator.Mode.SESSION;
+        } else if (step.isRawExec()) {
+            return PodExecDecorator.Mode.RAW;
+        }
+        return PodExecDecorator.Mode.TTY;
+    }
+
+    static PodTemplate newTemplate(AbstractPodStep step, String name) {
+        PodTemplate template = new PodTemplate();
+        template.setName(name);
+        template.setLabel(step.getName());
+        template.setVolumes(step.getVolumes());
+        template.setContainers(step.getContainers());
+        template.setNodeSelector(step.getNodeSelector());
+        template.setServiceAccount(step.getServiceAccount());
+        return template;
+    }
+
     private List<EnvVar> createPodEnv(Map<String,String> explicit) throws IOException, InterruptedException {
         List<EnvVar> podEnv = new ArrayList<EnvVar>();
 
@@ -120,17 +245,17 @@ public class WithPodStepExecution extends AbstractStepExecutionImpl {
     private class PodCallback extends BodyExecutionCallback {
 
         private final String podName;
+        private final long gracePeriod;
 
-        private PodCallback(String podName) {
+        private PodCallback(String podName, long gracePeriod) {
             this.podName = podName;
+            this.gracePeriod = gracePeriod;
         }
 
         @Override
         public void onSuccess(StepContext context, Object result) {
-            try (KubernetesFacade kubernetes = new KubernetesFacade()){
-                kubernetes.deletePod(podName);
-            } catch (IOException e) {
-                LOGGER.warning("Failed to properly cleanup");
+            try {
+                release(podName, gracePeriod);
             } finally {
                 context.onSuccess(result);
             }
@@ -138,10 +263,8 @@ public class WithPodStepExecution extends AbstractStepExecutionImpl {
 
         @Override
         public void onFailure(StepContext context, Throwable t) {
-            try (KubernetesFacade kubernetes = new KubernetesFacade()){
-                kubernetes.deletePod(podName);
-            } catch (IOException e) {
-                LOGGER.warning("Failed to properly cleanup");
+            try {
+                release(podName, gracePeriod);
             } finally {
                 context.onFailure(t);
             }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BuildContextCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void replaysTheTarballOfAnUnchangedContext() throws Exception {
+        File dir = tmp.newFolder("cache");
+        File context = tmp.newFolder("context");
+        File dockerfile = new File(context, "Dockerfile");
+        Files.write(dockerfile.toPath(), "FROM busybox".getBytes(StandardCharsets.UTF_8));
+        //The hash of a file that was just written isn't cached (see doesntCacheTheHashesOfRacilyCleanFiles).
+        dockerfile.setLastModified(System.currentTimeMillis() - 60000);
+
+        BuildContextCache cache = scan(dir, context, dockerfile);
+        assertNull(cache.lookup());
+        assertEquals(1, cache.getFilesHashed());
+        try (OutputStream out = cache.store(new ByteArrayOutputStream())) {
+            out.write("tarball".getBytes(StandardCharsets.UTF_8));
+        }
+        cache.commit();
+
+        BuildContextCache unchanged = scan(dir, context, dockerfile);
+        assertEquals(cache.getRootHash(), unchanged.getRootHash());
+        assertEquals(1, unchanged.getHashesReused());
+        assertNotNull(unchanged.lookup());
+
+        Files.write(dockerfile.toPath(), "FROM alpine".getBytes(StandardCharsets.UTF_8));
+        dockerfile.setLastModified(dockerfile.lastModified() + 1000);
+        BuildContextCache changed = scan(dir, context, dockerfile);
+        assertNotEquals(cache.getRootHash(), changed.getRootHash());
+        assertEquals(1, changed.getFilesHashed());
+        assertNull(changed.lookup());
+    }
+
+    @Test
+    public void doesntCacheTheHashesOfRacilyCleanFiles() throws Exception {
+        File dir = tmp.newFolder("cache");
+        File context = tmp.newFolder("context");
+        File dockerfile = new File(context, "Dockerfile");
+        Files.write(dockerfile.toPath(), "FROM busybox".getBytes(StandardCharsets.UTF_8));
+
+        long modified = dockerfile.lastModified();
+        scan(dir, context, dockerfile).saveHashes();
+        //A rewrite of the same size within the precision of the modification time.
+        Files.write(dockerfile.toPath(), "FROM alpine!".getBytes(StandardCharsets.UTF_8));
+        dockerfile.setLastModified(modified);
+        BuildContextCache rewritten = scan(dir, context, dockerfile);
+        assertEquals(1, rewritten.getFilesHashed());
+        rewritten.saveHashes();
+
+        dockerfile.setLastModified(System.currentTimeMillis() - 60000);
+        scan(dir, context, dockerfile).saveHashes();
+        assertEquals(1, scan(dir, context, dockerfile).getHashesReused());
+    }
+
+    @Test
+    public void evictsFilesThatWerentUsedForTooLong() throws Exception {
+        File dir = tmp.newFolder("cache");
+        File old = new File(dir, "old.tar");
+        File recent = new File(dir, "recent.tar");
+        Files.write(old.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+        Files.write(recent.toPath(), "recent".getBytes(StandardCharsets.UTF_8));
+        old.setLastModified(System.currentTimeMillis() - 120000);
+
+        BuildContextCache.evict(dir, 60000);
+        assertFalse(old.exists());
+        assertTrue(recent.exists());
+    }
+
+    @Test
+    public void hashesFilesInParallel() throws Exception {
+        File context = tmp.newFolder("context");
+        for (int i = 0; i < 50; i++) {
+            Files.write(new File(context, "file" + i).toPath(), ("content " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        BuildContextCache sequential = new BuildContextCache(tmp.newFolder("sequential"), context);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BuildContextCache parallel = new BuildContextCache(tmp.newFolder("parallel"), context, executor);
+            for (int i = 0; i < 50; i++) {
+                File file = new File(context, "file" + i);
+                sequential.addFile(file.getName(), file, 0644);
+                parallel.addFile(file.getName(), file, 0644);
+            }
+            assertEquals(50, parallel.getEntryCount());
+            assertEquals(sequential.getRootHash(), parallel.getRootHash());
+            assertEquals(50, parallel.getFilesHashed());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void noticesFilesThatChangedAfterTheyWereHashed() throws Exception {
+        File dir = tmp.newFolder("cache");
+        File context = tmp.newFolder("context");
+        File dockerfile = new File(context, "Dockerfile");
+        Files.write(dockerfile.toPath(), "FROM busybox".getBytes(StandardCharsets.UTF_8));
+
+        BuildContextCache unchanged = scan(dir, context, dockerfile);
+        unchanged.getRootHash();
+        //Files that were hashed but not archived count as changed.
+        assertTrue(unchanged.isStale());
+        unchanged.verify("Dockerfile", dockerfile);
+        assertFalse(unchanged.isStale());
+
+        BuildContextCache cache = scan(dir, context, dockerfile);
+        assertNull(cache.lookup());
+        try (OutputStream out = cache.store(new ByteArrayOutputStream())) {
+            //The file changes between the walk that hashed it and the one that archives it.
+            Files.write(dockerfile.toPath(), "FROM alpine".getBytes(StandardCharsets.UTF_8));
+            dockerfile.setLastModified(dockerfile.lastModified() + 1000);
+            out.write("FROM alpine".getBytes(StandardCharsets.UTF_8));
+            cache.verify("Dockerfile", dockerfile);
+        }
+        assertTrue(cache.isStale());
+        cache.abort();
+
+        assertNull(scan(dir, context, dockerfile).lookup());
+        assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".tar") || name.endsWith(".tmp")).length);
+    }
+
+    @Test
+    public void concurrentBuildsOfTheSameContextCommitOneTarball() throws Exception {
+        final File dir = tmp.newFolder("cache");
+        final File context = tmp.newFolder("context");
+        final File dockerfile = new File(context, "Dockerfile");
+        Files.write(dockerfile.toPath(), "FROM busybox".getBytes(StandardCharsets.UTF_8));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> builds = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                builds.add(executor.submit(() -> {
+                    BuildContextCache cache = scan(dir, context, dockerfile);
+                    File cached = cache.lookup();
+                    if (cached == null) {
+                        try (OutputStream out = cache.store(new ByteArrayOutputStream())) {
+                            out.write("tarball".getBytes(StandardCharsets.UTF_8));
+                        }
+                        cache.verify("Dockerfile", dockerfile);
+                        cache.commit();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> build : builds) {
+                build.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        File cached = scan(dir, context, dockerfile).lookup();
+        assertNotNull(cached);
+        assertEquals("tarball", new String(Files.readAllBytes(cached.toPath()), StandardCharsets.UTF_8));
+        assertEquals(1, dir.listFiles((d, name) -> name.endsWith(".tar")).length);
+        assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".tmp")).length);
+    }
+
+    private static BuildContextCache scan(File dir, File context, File dockerfile) throws IOException {
+        BuildContextCache cache = new BuildContextCache(dir, context);
+        cache.addDirectory("./", 0755);
+        cache.addFile("Dockerfile", dockerfile, 0644);
+        return cache;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuildDedupTest {
+
+    @Test
+    public void identicalBuildsWaitForTheFirstOne() throws Exception {
+        final AtomicInteger built = new AtomicInteger();
+        final AtomicInteger building = new AtomicInteger();
+        final AtomicInteger maxBuilding = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> waited = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                waited.add(executor.submit(() -> {
+                    start.await();
+                    try (BuildDedup.Permit permit = BuildDedup.acquire("daemon hash", 10000)) {
+                        maxBuilding.accumulateAndGet(building.incrementAndGet(), Math::max);
+                        if (built.get() == 0) {
+                            //Only the first build builds, the others find its image.
+                            Thread.sleep(50);
+                            built.incrementAndGet();
+                        }
+                        building.decrementAndGet();
+                        return permit.hasWaited();
+                    }
+                }));
+            }
+            start.countDown();
+            int waits = 0;
+            for (Future<Boolean> future : waited) {
+                waits += future.get(10, TimeUnit.SECONDS) ? 1 : 0;
+            }
+            assertEquals(1, built.get());
+            assertEquals(1, maxBuilding.get());
+            assertTrue(waits >= 1);
+            assertEquals(0, BuildDedup.getFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void differentBuildsDontWait() throws Exception {
+        try (BuildDedup.Permit first = BuildDedup.acquire("daemon a", 10000)) {
+            try (BuildDedup.Permit second = BuildDedup.acquire("daemon b", 10000)) {
+                assertFalse(first.hasWaited());
+                assertFalse(second.hasWaited());
+                assertEquals(2, BuildDedup.getFlightCount());
+            }
+        }
+        assertEquals(0, BuildDedup.getFlightCount());
+    }
+
+    @Test
+    public void waitingForAnIdenticalBuildTimesOut() throws Exception {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                try (BuildDedup.Permit permit = BuildDedup.acquire("daemon slow", 10000)) {
+                    acquired.countDown();
+                    done.await();
+                }
+                return null;
+            });
+            assertTrue(acquired.await(10, TimeUnit.SECONDS));
+            try {
+                BuildDedup.acquire("daemon slow", 50);
+                fail("Expected a timeout.");
+            } catch (TimeoutException e) {
+                //Expected
+            }
+            assertEquals(1, BuildDedup.getFlightCount());
+        } finally {
+            done.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertEquals(0, BuildDedup.getFlightCount());
+    }
+
+    @Test
+    public void hashesAndNames() {
+        assertEquals(BuildDedup.imageHash("abc", false), BuildDedup.imageHash("abc", false));
+        assertNotEquals(BuildDedup.imageHash("abc", false), BuildDedup.imageHash("abd", false));
+        assertNotEquals(BuildDedup.imageHash("abc", false), BuildDedup.imageHash("abc", true));
+        assertEquals(64, BuildDedup.imageHash("abc", false).length());
+        assertEquals("kubernetes-pipeline-context:abc", BuildDedup.reference("abc"));
+        assertArrayEquals(new String[]{"example", "latest"}, BuildDedup.repositoryAndTag("example"));
+        assertArrayEquals(new String[]{"registry:5000/example", "1.0"}, BuildDedup.repositoryAndTag("registry:5000/example:1.0"));
+        assertArrayEquals(new String[]{"registry:5000/example", "latest"}, BuildDedup.repositoryAndTag("registry:5000/example"));
+    }
+}
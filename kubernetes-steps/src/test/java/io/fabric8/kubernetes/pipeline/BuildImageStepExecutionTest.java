@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import hudson.FilePath;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import hudson.util.io.Archiver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class BuildImageStepExecutionTest {
+
+    private static final String NFC_NAME = "\u00e9.txt";
+    private static final String NFD_NAME = "e\u0301.txt";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void reproducibleContextsOfTheSameContentAreIdentical() throws Exception {
+        File first = createContext("e.txt", 1000000000000L, "rw-r--r--", "rwxr-xr-x");
+        File second = createContext("e.txt", 1500000000000L, "rw-rw-r--", "rwxrwxr-x");
+        chown(second, "nobody");
+
+        assertArrayEquals(archive(first, true), archive(second, true));
+        assertFalse(Arrays.equals(archive(first, false), archive(second, false)));
+    }
+
+    @Test
+    public void reproducibleContextsDontDependOnTheUnicodeFormOfNames() throws Exception {
+        //The names can only be created where the file system encoding has them.
+        assumeTrue(Charset.forName(System.getProperty("sun.jnu.encoding", "UTF-8")).newEncoder().canEncode(NFD_NAME));
+        File first = createContext(NFC_NAME, 1000000000000L, "rw-r--r--", "rwxr-xr-x");
+        File second = createContext(NFD_NAME, 1000000000000L, "rw-r--r--", "rwxr-xr-x");
+
+        assertArrayEquals(archive(first, true), archive(second, true));
+    }
+
+    @Test
+    public void aFailedArchiveFailsTheReader() throws Exception {
+        File context = createContext("e.txt", 1000000000000L, "rw-r--r--", "rwxr-xr-x");
+        final ContextPipe pipe = new ContextPipe();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> reader = executor.submit(() -> readAll(pipe.source()));
+            try {
+                //The archiver writes the end of the tarball when it is closed, even though the walk failed.
+                new FilePath(context).archive(new BuildImageStepExecution.DockerArchiverFactory(null, 0, null, false, null), pipe.unclosedSink(),
+                        new DirScanner() {
+                            @Override
+                            public void scan(File dir, FileVisitor visitor) throws IOException {
+                                new DockerIgnoreScanner(DockerIgnoreMatcher.compile(Collections.<String>emptyList())).scan(dir, visitor);
+                                throw new IOException("Broken context");
+                            }
+                        });
+                fail("Expected the failure of the archive.");
+            } catch (IOException e) {
+                //Give the reader the time to drain the pipe, as a slow catch block would.
+                Thread.sleep(100);
+                pipe.fail(e);
+            }
+            try {
+                reader.get(10, TimeUnit.SECONDS);
+                fail("Expected the failure of the archive to reach the reader.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates a context of the same content, with the specified metadata and name of one of its files.
+     */
+    private File createContext(String name, long modified, String fileMode, String executableMode) throws IOException {
+        Path root = tmp.newFolder().toPath();
+        Path dir = Files.createDirectory(root.resolve("src"));
+        write(root.resolve("Dockerfile"), "FROM busybox\nCOPY . /app\n", modified, fileMode);
+        //An accented e sorts before f.txt in the NFD form, but after it in the NFC form.
+        write(dir.resolve(name), "accent", modified, fileMode);
+        write(dir.resolve("f.txt"), "plain", modified, fileMode);
+        write(dir.resolve("run.sh"), "#!/bin/sh\n", modified, executableMode);
+        Files.createSymbolicLink(root.resolve("link"), root.relativize(dir.resolve("run.sh")));
+        dir.toFile().setLastModified(modified);
+        root.toFile().setLastModified(modified);
+        return root.toFile();
+    }
+
+    private static void write(Path file, String content, long modified, String mode) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString(mode));
+        file.toFile().setLastModified(modified);
+    }
+
+    /**
+     * Changes the owner of the files of the context, where the user running the test is allowed to.
+     */
+    private static void chown(File root, String owner) throws IOException {
+        try {
+            UserPrincipal principal = root.toPath().getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(owner);
+            try (Stream<Path> files = Files.walk(root.toPath())) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.setOwner(file, principal);
+                }
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            //Only root can give files away, the rest of the metadata still differs.
+        }
+    }
+
+    private static byte[] archive(File root, boolean reproducible) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Archiver archiver = new BuildImageStepExecution.DockerArchiverFactory(null, 0, null, reproducible, null).create(out);
+        try {
+            new DockerIgnoreScanner(DockerIgnoreMatcher.compile(Collections.<String>emptyList()), null, reproducible).scan(root, archiver);
+        } finally {
+            archiver.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
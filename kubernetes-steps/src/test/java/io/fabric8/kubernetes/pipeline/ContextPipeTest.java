@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ContextPipeTest {
+
+    @Test
+    public void transfersEverythingInOrder() throws Exception {
+        final byte[] data = new byte[5 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(data);
+        final ContextPipe pipe = new ContextPipe(64 * 1024);
+        Thread writer = new Thread(() -> {
+            try {
+                OutputStream out = pipe.sink();
+                for (int i = 0; i < data.length; i += 10240) {
+                    out.write(data, i, Math.min(10240, data.length - i));
+                }
+                //Only a complete tarball is closed, a failed one is failed instead.
+                out.close();
+            } catch (IOException e) {
+                pipe.fail(e);
+            }
+        });
+        writer.start();
+        assertArrayEquals(data, readAll(pipe.source()));
+        writer.join();
+        assertEquals(data.length, pipe.getTransferred());
+    }
+
+    @Test
+    public void passesTheFailureOfTheWriterToTheReader() throws Exception {
+        ContextPipe pipe = new ContextPipe();
+        pipe.sink().write(new byte[]{1, 2, 3});
+        pipe.fail(new IllegalStateException("Broken context"));
+        try {
+            readAll(pipe.source());
+            fail("Expected the failure of the writer.");
+        } catch (IOException e) {
+            assertEquals("Broken context", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void closingTheUnclosedSinkDoesntEndTheStream() throws Exception {
+        ContextPipe pipe = new ContextPipe();
+        pipe.unclosedSink().write(new byte[]{1, 2, 3});
+        pipe.unclosedSink().close();
+        assertEquals(3, pipe.source().read(new byte[8]));
+        pipe.fail(new IllegalStateException("Broken context"));
+        try {
+            readAll(pipe.source());
+            fail("Expected the failure of the writer.");
+        } catch (IOException e) {
+            assertEquals("Broken context", e.getCause().getMessage());
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ContextPrefetcherTest {
+
+    @Test
+    public void writesInOrderWithinTheBudget() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final long budget = 8 * 1024;
+            final AtomicLong inMemory = new AtomicLong();
+            final AtomicLong maxInMemory = new AtomicLong();
+            final List<Integer> written = new ArrayList<>();
+            final Random random = new Random(0);
+            try (ContextPrefetcher<Integer> prefetcher = new ContextPrefetcher<>(executor, budget)) {
+                for (int i = 0; i < 500; i++) {
+                    final int index = i;
+                    final long delay = random.nextInt(3);
+                    if (i % 50 == 0) {
+                        //A directory, or a file that is streamed.
+                        prefetcher.add(value -> written.add(index));
+                        continue;
+                    }
+                    prefetcher.add(1024, () -> {
+                        maxInMemory.accumulateAndGet(inMemory.addAndGet(1024), Math::max);
+                        Thread.sleep(delay);
+                        return index;
+                    }, value -> {
+                        inMemory.addAndGet(-1024);
+                        written.add(value);
+                    });
+                }
+            }
+            assertEquals(500, written.size());
+            for (int i = 0; i < written.size(); i++) {
+                assertEquals(i, (int) written.get(i));
+            }
+            assertTrue(maxInMemory.get() <= budget);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failsOnTheFailureOfARead() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ContextPrefetcher<String> prefetcher = new ContextPrefetcher<>(executor, 1024 * 1024);
+            prefetcher.add(1, () -> "a", value -> { });
+            prefetcher.add(1, () -> {
+                throw new IOException("Unreadable");
+            }, value -> { });
+            prefetcher.close();
+            fail("Expected the failure of the read.");
+        } catch (IOException e) {
+            assertEquals("Unreadable", e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void readsLargeEntriesInOrderWithoutReadingAhead() throws Exception {
+        ContextPrefetcher<String> prefetcher = new ContextPrefetcher<>(null, 1024);
+        assertFalse(prefetcher.accepts(1));
+        final List<String> written = new ArrayList<>();
+        prefetcher.add(1, () -> "inline", written::add);
+        prefetcher.close();
+        assertEquals("inline", written.get(0));
+        assertEquals(0, prefetcher.getPrefetched());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContextStatsTest {
+
+    @Test
+    public void summarizesTheContext() {
+        ContextStats stats = new ContextStats();
+        stats.record(".", 0, true, 10);
+        stats.record("src", 0, true, 10);
+        for (int i = 0; i < 10; i++) {
+            stats.record("src/file" + i, i * 1024, false, 1000);
+        }
+        stats.record("big.bin", 10 * 1024 * 1024, false, 5000000);
+        stats.recordSymlink();
+        stats.setPrunedDirectories(2);
+        stats.done();
+
+        assertEquals(11, stats.getFiles());
+        assertEquals(2, stats.getDirectories());
+        assertEquals(1, stats.getSymlinks());
+        assertEquals(45 * 1024 + 10 * 1024 * 1024, stats.getBytes());
+
+        List<Map.Entry<String, Long>> largest = stats.getLargestFiles();
+        assertEquals(ContextStats.TOP, largest.size());
+        assertEquals("big.bin", largest.get(0).getKey());
+        assertEquals("src/file9", largest.get(1).getKey());
+        assertEquals("src/file6", largest.get(4).getKey());
+
+        assertEquals(".", stats.getSlowestDirectories().get(0).getKey());
+        assertEquals("src", stats.getSlowestDirectories().get(1).getKey());
+
+        String summary = stats.summary();
+        assertTrue(summary, summary.startsWith("Build context: 11 files, 2 directories, 1 symlinks, 10.0 MB in "));
+        assertTrue(summary, summary.contains("(2 ignored directories skipped)"));
+        assertTrue(summary, summary.contains("Largest files: big.bin (10.0 MB) src/file9 (9.0 KB)"));
+    }
+
+    @Test
+    public void formatsBytes() {
+        assertEquals("512 B", ContextStats.formatBytes(512));
+        assertEquals("1.5 KB", ContextStats.formatBytes(1536));
+        assertEquals("2.0 GB", ContextStats.formatBytes(2L * 1024 * 1024 * 1024));
+    }
+}
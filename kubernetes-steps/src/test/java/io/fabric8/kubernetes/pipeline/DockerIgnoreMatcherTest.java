@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DockerIgnoreMatcherTest {
+
+    @Test
+    public void matchesPathsAndTheirParents() {
+        DockerIgnoreMatcher matcher = DockerIgnoreMatcher.compile(Arrays.asList("# comment", "", ".git", "/target/", "*.log", "docs/*.md", "**/tmp"));
+        assertTrue(matcher.isExcluded(".git"));
+        assertTrue(matcher.isExcluded(".git/objects/ab"));
+        assertTrue(matcher.isExcluded("target/classes/Foo.class"));
+        assertTrue(matcher.isExcluded("build.log"));
+        assertFalse(matcher.isExcluded("src/build.log"));
+        assertTrue(matcher.isExcluded("docs/readme.md"));
+        assertFalse(matcher.isExcluded("docs/images/logo.png"));
+        assertTrue(matcher.isExcluded("tmp"));
+        assertTrue(matcher.isExcluded("a/b/tmp/c"));
+        assertFalse(matcher.isExcluded("src/main/Foo.java"));
+        assertFalse(matcher.isExcluded("# comment"));
+    }
+
+    @Test
+    public void negationsIncludePathsAgain() {
+        DockerIgnoreMatcher matcher = DockerIgnoreMatcher.compile(Arrays.asList("*.md", "!README.md", "README-secret.md"));
+        assertTrue(matcher.isExcluded("CHANGES.md"));
+        assertFalse(matcher.isExcluded("README.md"));
+        assertTrue(matcher.isExcluded("README-secret.md"));
+
+        //The last matching pattern wins.
+        matcher = DockerIgnoreMatcher.compile(Arrays.asList("!README.md", "*.md"));
+        assertTrue(matcher.isExcluded("README.md"));
+    }
+
+    @Test
+    public void prunesDirectoriesWithNothingIncludedBelow() {
+        DockerIgnoreMatcher matcher = DockerIgnoreMatcher.compile(Arrays.asList("node_modules", "vendor", "!vendor/keep", "dist", "!**/*.keep"));
+        DockerIgnoreMatcher.State root = matcher.root();
+        assertFalse(root.child("src").isPruned());
+        assertTrue(root.child("node_modules").isExcluded());
+        assertFalse(root.child("node_modules").isPruned());
+
+        matcher = DockerIgnoreMatcher.compile(Arrays.asList("node_modules", "vendor", "!vendor/keep"));
+        root = matcher.root();
+        assertTrue(root.child("node_modules").isPruned());
+        DockerIgnoreMatcher.State vendor = root.child("vendor");
+        assertTrue(vendor.isExcluded());
+        assertFalse(vendor.isPruned());
+        assertTrue(vendor.child("other").isPruned());
+        assertFalse(vendor.child("keep").isExcluded());
+        assertFalse(vendor.child("keep").child("file").isExcluded());
+    }
+
+    @Test
+    public void supportsCharacterClassesAndEscapes() {
+        DockerIgnoreMatcher matcher = DockerIgnoreMatcher.compile(Arrays.asList("file[0-9].txt", "data-[!a]", "\\*literal", "?.tmp"));
+        assertTrue(matcher.isExcluded("file1.txt"));
+        assertFalse(matcher.isExcluded("fileA.txt"));
+        assertTrue(matcher.isExcluded("data-b"));
+        assertFalse(matcher.isExcluded("data-a"));
+        assertTrue(matcher.isExcluded("*literal"));
+        assertFalse(matcher.isExcluded("xliteral"));
+        assertTrue(matcher.isExcluded("a.tmp"));
+        assertFalse(matcher.isExcluded("ab.tmp"));
+    }
+}
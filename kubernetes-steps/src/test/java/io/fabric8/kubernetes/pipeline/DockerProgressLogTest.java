@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DockerProgressLogTest {
+
+    @Test
+    public void coalescesProgressAndPassesMessagesThrough() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        DockerProgressLog log = new DockerProgressLog(out, 60000);
+        log.onEvent("{\"status\":\"The push refers to repository [registry/example]\"}");
+        log.onEvent("{\"status\":\"Preparing\",\"progressDetail\":{},\"id\":\"aaaaaaaaaaaa1111\"}");
+        log.onEvent("{\"status\":\"Preparing\",\"progressDetail\":{},\"id\":\"bbbbbbbbbbbb2222\"}");
+        for (int i = 1; i <= 1000; i++) {
+            log.onEvent("{\"status\":\"Pushing\",\"progressDetail\":{\"current\":" + (i * 1024) + ",\"total\":2048000},\"progress\":\"[=>  ]\",\"id\":\"aaaaaaaaaaaa1111\"}");
+        }
+        log.onEvent("{\"status\":\"Layer already exists\",\"progressDetail\":{},\"id\":\"bbbbbbbbbbbb2222\"}");
+        log.onEvent("{\"stream\":\"Step 1/2 : FROM busybox\\n\"}");
+        log.onEvent("not json");
+        log.close();
+
+        String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("The push refers to repository [registry/example]", lines[0]);
+        assertEquals("bbbbbbbbbbbb: Layer already exists", lines[1]);
+        assertEquals("Step 1/2 : FROM busybox", lines[2]);
+        assertEquals("not json", lines[3]);
+        assertTrue(lines[4], lines[4].startsWith("Progress: 1/2 layers done, aaaaaaaaaaaa Pushing 50% (1000.0 KB, "));
+        assertEquals(1000 * 1024, log.getTotalBytes());
+    }
+
+    @Test
+    public void printsEveryEventWithoutARefreshInterval() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DockerProgressLog log = new DockerProgressLog(new PrintStream(bytes, true, "UTF-8"), 0);
+        log.onEvent("{\"status\":\"Pushing\",\"progressDetail\":{\"current\":1,\"total\":2},\"id\":\"a\"}");
+        log.onEvent("{\"status\":\"Pushing\",\"progressDetail\":{\"current\":2,\"total\":2},\"id\":\"a\"}");
+        log.close();
+        assertEquals(2, new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n").length);
+    }
+}
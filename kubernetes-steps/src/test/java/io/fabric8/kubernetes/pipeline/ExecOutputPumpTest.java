@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExecOutputPumpTest {
+
+    @Test
+    public void pumpsOutputInOrder() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        ExecOutputPump pump = new ExecOutputPump(target, 10, 16, 10000);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            pump.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+        pump.close();
+        assertEquals(expected.toString(), new String(target.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(0, pump.getDroppedBytes());
+    }
+
+    @Test
+    public void dropsOutputWhenTheTargetCannotKeepUp() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        OutputStream stuck = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                received.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                received.write(b, off, len);
+            }
+        };
+        ExecOutputPump pump = new ExecOutputPump(stuck, 10, 4, 50);
+        for (int i = 0; i < 100; i++) {
+            pump.write("0123456789\n".getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(pump.getThrottledCount() > 0);
+        assertTrue(pump.getDroppedLines() > 0);
+        unblock.countDown();
+        pump.close();
+        assertEquals(1100, pump.getBytesOut() + pump.getDroppedBytes());
+    }
+
+    @Test
+    public void stuckLogsDontHoldBackOtherPumps() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        List<ExecOutputPump> stuckPumps = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ExecOutputPump stuck = new ExecOutputPump(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }, 10, 4, 50);
+            stuck.write("0123456789\n".getBytes(StandardCharsets.UTF_8));
+            stuckPumps.add(stuck);
+        }
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        ExecOutputPump pump = new ExecOutputPump(target, 10, 1024, 50);
+        for (int i = 0; i < 100; i++) {
+            pump.write("line\n".getBytes(StandardCharsets.UTF_8));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pump.getBytesOut() < 500 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(500, pump.getBytesOut());
+        assertEquals(0, pump.getThrottledCount());
+        assertEquals(0, pump.getDroppedBytes());
+
+        unblock.countDown();
+        pump.close();
+        for (ExecOutputPump stuck : stuckPumps) {
+            stuck.close();
+        }
+    }
+}
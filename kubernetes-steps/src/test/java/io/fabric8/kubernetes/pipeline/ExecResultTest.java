@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ExecResultTest {
+
+    @Test
+    public void readsSuccessAsZero() {
+        assertEquals(Integer.valueOf(0), ExecResult.exitCodeOf("{\"metadata\":{},\"status\":\"Success\"}"));
+    }
+
+    @Test
+    public void readsTheExitCodeOfFailures() {
+        String status = "{\"metadata\":{},\"status\":\"Failure\",\"message\":\"command terminated with non-zero exit code: exit status 143\","
+                + "\"reason\":\"NonZeroExitCode\",\"details\":{\"causes\":[{\"reason\":\"ExitCode\",\"message\":\"143\"}]}}";
+        assertEquals(Integer.valueOf(143), ExecResult.exitCodeOf(status));
+        //The order of the fields is up to the server.
+        assertEquals(Integer.valueOf(2), ExecResult.exitCodeOf("{\"details\":{\"causes\":[{\"message\":\"2\",\"reason\":\"ExitCode\"}]},\"status\":\"Failure\"}"));
+    }
+
+    @Test
+    public void exitCodeIsUnknownWithoutStatus() {
+        assertNull(ExecResult.exitCodeOf(""));
+        assertNull(ExecResult.exitCodeOf("{\"status\":\"Failure\",\"message\":\"container not found\"}"));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExecSessionTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ExecSession.SessionOutput output = new ExecSession.SessionOutput();
+
+    @Test
+    public void completesOnTheMarkerOfTheCommand() throws Exception {
+        ExecSession.Command command = start(7);
+        write("hello\r\nworld\r\n__EXEC_DONE_7:0\r\n");
+
+        assertCompleted(command, 0);
+        assertEquals("hello\r\nworld\r\n", output());
+    }
+
+    @Test
+    public void reportsNonZeroExitCodes() throws Exception {
+        ExecSession.Command command = start(1);
+        write("__EXEC_DONE_1:130\n");
+        assertCompleted(command, 130);
+    }
+
+    @Test
+    public void sendsTheMarkerAsPartOfTheCommandLine() {
+        //Only the newline before the closing brace may precede the marker, so that the shell reads both before it runs anything.
+        assertEquals("{ echo hi # comment \n}; printf '%s%s:%s\\n' '__EXEC_' 'DONE_3' \"$?\"\n",
+                ExecSession.commandLine(3, "echo", "hi", "# comment"));
+    }
+
+    @Test
+    public void ignoresMarkersOfOtherCommands() throws Exception {
+        ExecSession.Command command = start(2);
+        write("__EXEC_DONE_1:0\n");
+        assertFalse(isFinished(command));
+        write("__EXEC_DONE_2:1\n");
+        assertCompleted(command, 1);
+    }
+
+    @Test
+    public void completesWhenTheOutputHasNoTrailingNewline() throws Exception {
+        ExecSession.Command command = start(3);
+        write("no newline__EXEC_DONE_3:0\n");
+
+        assertCompleted(command, 0);
+        assertEquals("no newline", output());
+    }
+
+    @Test
+    public void matchesMarkersSplitAcrossWrites() throws Exception {
+        ExecSession.Command command = start(4);
+        for (byte b : "out\n__EXEC_DONE_4:2\n".getBytes(StandardCharsets.UTF_8)) {
+            output.write(new byte[]{b}, 0, 1);
+        }
+        assertCompleted(command, 2);
+        assertEquals("out\n", output());
+    }
+
+    @Test
+    public void matchesMarkersAfterALongPartialLine() throws Exception {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+        //Every offset of the marker relative to the partial line limit.
+        for (int shift = 0; shift < 100; shift++) {
+            out.reset();
+            ExecSession.Command command = start(100 + shift);
+            String text = longLine.substring(0, 4000 + shift);
+            write(text);
+            write("__EXEC_DONE_" + (100 + shift) + ":5\n");
+
+            assertCompleted(command, 5);
+            assertEquals(text, output());
+        }
+    }
+
+    private ExecSession.Command start(long id) {
+        ExecSession.Command command = new ExecSession.Command(id, null, new PrintStream(out, true), null, null);
+        output.start(command);
+        return command;
+    }
+
+    private void write(String text) throws Exception {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private String output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isFinished(ExecSession.Command command) {
+        return command.getFinished().getCount() == 0;
+    }
+
+    private static void assertCompleted(ExecSession.Command command, int exitCode) {
+        assertTrue(isFinished(command));
+        assertEquals(exitCode, command.getExitCode().get());
+        assertNull(command.getFailure());
+    }
+}
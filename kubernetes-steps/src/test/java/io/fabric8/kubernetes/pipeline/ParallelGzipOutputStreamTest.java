@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void producesASingleGzipStream() throws Exception {
+        byte[] data = sample(3 * 64 * 1024 + 123);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int level = 0; level <= 9; level += 3) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, level, executor, 4, 64 * 1024);
+                for (int i = 0; i < data.length; i += 1000) {
+                    gzip.write(data, i, Math.min(1000, data.length - i));
+                }
+                gzip.close();
+                assertArrayEquals(data, gunzip(compressed.toByteArray()));
+                assertEquals(data.length, gzip.getBytesIn());
+                assertEquals(compressed.size(), gzip.getBytesOut());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void compressesOnTheWritingThreadWithoutAnExecutor() throws Exception {
+        byte[] data = sample(200 * 1024);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, 6, null, 1, 64 * 1024);
+        gzip.write(data);
+        gzip.close();
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+        assertTrue(gzip.getRatio() > 2);
+    }
+
+    @Test
+    public void handlesAnEmptyStream() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, 6, null, 1).close();
+        assertEquals(0, gunzip(compressed.toByteArray()).length);
+    }
+
+    /**
+     * Text with some random bytes, so that it compresses, but not too well.
+     */
+    private static byte[] sample(int size) {
+        Random random = new Random(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < size) {
+            byte[] line = ("line " + random.nextInt(1000) + " of the build context\n").getBytes(StandardCharsets.UTF_8);
+            out.write(line, 0, line.length);
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(out.toByteArray(), 0, result, 0, size);
+        return result;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
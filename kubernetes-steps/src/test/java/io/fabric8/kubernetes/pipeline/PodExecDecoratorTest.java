@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class PodExecDecoratorTest {
+
+    @Test
+    public void passesRawArgumentsAsTheyAre() {
+        String[] commands = PodExecDecorator.getCommands(Arrays.asList("nohup", "sh", "-c", "echo $$ > pid; echo '$HOME'"), true);
+        assertArrayEquals(new String[]{"sh", "-c", "echo $$ > pid; echo '$HOME'"}, commands);
+    }
+
+    @Test
+    public void unescapesArgumentsTypedIntoTheShell() {
+        String[] commands = PodExecDecorator.getCommands(Arrays.asList("nohup", "sh", "-c", "echo $$"), false);
+        assertArrayEquals(new String[]{"sh", "-c", "echo $"}, commands);
+    }
+
+    @Test
+    public void onlySkipsALeadingNohup() {
+        String[] commands = PodExecDecorator.getCommands(Arrays.asList("env", "nohup", "sleep", "1"), true);
+        assertArrayEquals(new String[]{"env", "nohup", "sleep", "1"}, commands);
+    }
+
+    @Test
+    public void recordsThePidOfRawCommands() {
+        String[] commands = PodExecDecorator.killable("/tmp/x.pid", new String[]{"sh", "-c", "exit 3"});
+        assertArrayEquals(new String[]{"sh", "-c", PodExecDecorator.PID_WRAPPER, "/tmp/x.pid", "sh", "-c", "exit 3"}, commands);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.PodStatus;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PodLifecycleTest {
+
+    private final PodLifecycle lifecycle = PodLifecycle.get();
+
+    @Test
+    public void recordsTheDurationsBetweenStages() throws Exception {
+        Map<String, Long> before = counts();
+        lifecycle.requested("created");
+        Thread.sleep(20);
+        lifecycle.record("created", PodLifecycle.Stage.CREATED);
+        lifecycle.onEvent(pod("created", "node-a", "Pending"));
+        //Pulling the images is implied by the pod running.
+        lifecycle.onEvent(pod("created", "node-a", "Running"));
+        lifecycle.record("created", PodLifecycle.Stage.EXEC_READY);
+        //Only the first time a stage is reached counts.
+        lifecycle.record("created", PodLifecycle.Stage.CREATED);
+
+        Map<String, Long> after = counts();
+        for (String histogram : after.keySet()) {
+            assertEquals(histogram, before.get(histogram) + 1, (long) after.get(histogram));
+        }
+        assertTrue(lifecycle.getHistograms().get(PodLifecycle.CREATE).getMax() >= 20);
+
+        String summary = lifecycle.remove("created");
+        assertTrue(summary, summary.matches("Pod \\[created\\] lifecycle: requested, created \\+\\d+ms, scheduled \\+\\d+ms,"
+                + " images_pulled \\+\\d+ms, running \\+\\d+ms, exec_ready \\+\\d+ms\\."));
+        assertNull(lifecycle.remove("created"));
+    }
+
+    @Test
+    public void measuresExecReadinessOfPooledPodsFromTheClaim() throws Exception {
+        Map<String, Long> before = counts();
+        lifecycle.record("pooled", PodLifecycle.Stage.CLAIMED);
+        lifecycle.record("pooled", PodLifecycle.Stage.EXEC_READY);
+
+        Map<String, Long> after = counts();
+        assertEquals(before.get(PodLifecycle.EXEC_READY) + 1, (long) after.get(PodLifecycle.EXEC_READY));
+        assertEquals(before.get(PodLifecycle.TOTAL), after.get(PodLifecycle.TOTAL));
+        String summary = lifecycle.remove("pooled");
+        assertTrue(summary, summary.matches("Pod \\[pooled\\] lifecycle: claimed, exec_ready \\+\\d+ms\\."));
+    }
+
+    @Test
+    public void ignoresPodsThatAreNotTracked() {
+        lifecycle.onEvent(pod("untracked", "node-a", "Running"));
+        lifecycle.record("untracked", PodLifecycle.Stage.EXEC_READY);
+        assertNull(lifecycle.remove("untracked"));
+    }
+
+    private Map<String, Long> counts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (String histogram : lifecycle.getHistograms().keySet()) {
+            counts.put(histogram, lifecycle.getHistograms().get(histogram).getCount());
+        }
+        return counts;
+    }
+
+    private static Pod pod(String name, String nodeName, String phase) {
+        ObjectMeta metadata = new ObjectMeta();
+        metadata.setName(name);
+        PodSpec spec = new PodSpec();
+        spec.setNodeName(nodeName);
+        PodStatus status = new PodStatus();
+        status.setPhase(phase);
+        Pod pod = new Pod();
+        pod.setMetadata(metadata);
+        pod.setSpec(spec);
+        pod.setStatus(status);
+        return pod;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class PodLogStreamTest {
+
+    @Test
+    public void skipsLinesThatWereDeliveredBeforeTheReconnect() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PodLogStream stream = new PodLogStream(null, "pod", "container", out, 1024, 0);
+        stream.pump(log("2017-01-01T00:00:01.5Z a\n2017-01-01T00:00:02.1Z b\n2017-01-01T00:00:02.1Z c\n2017-01-01T00:00:02.5Z d\n"));
+        //The server resumes from the start of the second.
+        stream.pump(log("2017-01-01T00:00:02.1Z b\n2017-01-01T00:00:02.1Z c\n2017-01-01T00:00:02.5Z d\n2017-01-01T00:00:02.5Z e\n2017-01-01T00:00:03Z f\n"));
+        assertEquals("a\nb\nc\nd\ne\nf\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void resumesALineThatWasCutOff() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PodLogStream stream = new PodLogStream(null, "pod", "container", out, 1024, 0);
+        stream.pump(log("2017-01-01T00:00:01Z a\n2017-01-01T00:00:02Z b\n2017-01-01T00:00:02Z cd"));
+        //The cut off line is repeated as a whole, as are the other lines of its second.
+        stream.pump(log("2017-01-01T00:00:02Z b\n2017-01-01T00:00:02Z cdef\n2017-01-01T00:00:02Z g\n"));
+        stream.pump(log("2017-01-01T00:00:02Z b\n2017-01-01T00:00:02Z cdef\n2017-01-01T00:00:02Z g\n2017-01-01T00:00:03Z h\n"));
+        assertEquals("a\nb\ncdef\ng\nh\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void resumesALineLongerThanTheBufferThatWasCutOff() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PodLogStream stream = new PodLogStream(null, "pod", "container", out, 32, 0);
+        stream.pump(log("2017-01-01T00:00:01Z 0123456789012345678901234567"));
+        stream.pump(log("2017-01-01T00:00:01Z 0123456789012345678901234567890123456789\n2017-01-01T00:00:02Z short\n"));
+        assertEquals("0123456789012345678901234567890123456789\nshort\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void forwardsLinesLongerThanTheBuffer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PodLogStream stream = new PodLogStream(null, "pod", "container", out, 32, 0);
+        stream.pump(log("2017-01-01T00:00:01Z 0123456789012345678901234567890123456789\n2017-01-01T00:00:02Z short\n"));
+        assertEquals("0123456789012345678901234567890123456789\nshort\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(47, stream.getBytesDelivered());
+    }
+
+    @Test
+    public void enforcesTheLimitAcrossReconnects() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PodLogStream stream = new PodLogStream(null, "pod", "container", out, 1024, 8);
+        stream.pump(log("2017-01-01T00:00:01Z a\n2017-01-01T00:00:02Z b\n"));
+        //Close to the limit, with the resumed log repeating a line and counting the timestamps.
+        stream.pump(log("2017-01-01T00:00:02Z b\n2017-01-01T00:00:03Z cc\n2017-01-01T00:00:04Z dd\n"));
+        assertEquals("a\nb\ncc\nd", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(8, stream.getBytesDelivered());
+    }
+
+    private static InputStream log(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.csanchez.jenkins.plugins.kubernetes.ContainerTemplate;
+import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class PodPoolTest {
+
+    private static final Map<String, String> NO_LABELS = Collections.emptyMap();
+    private static final String PLACEMENT = "node:node-a|workspace:ROOT_PVC";
+
+    @Test
+    public void keysOnTemplateAndNamespace() {
+        String key = PodPool.hash(template("maven:3"), NO_LABELS, "ns", "/home/jenkins/workspace", PLACEMENT);
+        assertEquals(key, PodPool.hash(template("maven:3"), NO_LABELS, "ns", "/home/jenkins/workspace", PLACEMENT));
+        assertNotEquals(key, PodPool.hash(template("maven:3"), NO_LABELS, "other", "/home/jenkins/workspace", PLACEMENT));
+        assertNotEquals(key, PodPool.hash(template("golang:1.8"), NO_LABELS, "ns", "/home/jenkins/workspace", PLACEMENT));
+        assertNotEquals(key, PodPool.hash(template("maven:3"), Collections.singletonMap("team", "a"), "ns", "/home/jenkins/workspace", PLACEMENT));
+        //A pod of an agent on another node mounts another file system.
+        assertNotEquals(key, PodPool.hash(template("maven:3"), NO_LABELS, "ns", "/home/jenkins/workspace", "node:node-b|workspace:ROOT_PVC"));
+    }
+
+    @Test
+    public void labelsIdlePodsWithTheirTtl() {
+        Map<String, String> idle = PodPool.labels("key", true, 60000);
+        assertEquals("key", idle.get(PodPool.POOL_LABEL));
+        assertEquals("true", idle.get(PodPool.IDLE_LABEL));
+        assertEquals("60000", idle.get(PodPool.TTL_LABEL));
+
+        Map<String, String> claimed = PodPool.labels("key", false, 60000);
+        assertEquals("key", claimed.get(PodPool.POOL_LABEL));
+        assertFalse(claimed.containsKey(PodPool.IDLE_LABEL));
+    }
+
+    @Test
+    public void computesRemainingTtlOfLeftBehindPods() {
+        long now = Instant.parse("2017-01-01T00:10:00Z").toEpochMilli();
+        Map<String, String> labels = PodPool.labels("key", true, 900000);
+        assertEquals(300000, PodPool.remainingTtl(labels, "2017-01-01T00:00:00Z", now));
+        assertEquals(0, PodPool.remainingTtl(labels, "2016-12-31T23:00:00Z", now));
+        //Pods without a valid ttl are reaped right away.
+        assertEquals(0, PodPool.remainingTtl(NO_LABELS, "2017-01-01T00:00:00Z", now));
+        assertEquals(0, PodPool.remainingTtl(labels, "not a timestamp", now));
+    }
+
+    private static PodTemplate template(String image) {
+        PodTemplate template = new PodTemplate();
+        template.setName("pool");
+        template.setContainers(Arrays.asList(new ContainerTemplate("build", image)));
+        return template;
+    }
+}
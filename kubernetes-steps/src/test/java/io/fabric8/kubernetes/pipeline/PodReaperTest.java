@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PodReaperTest {
+
+    @Test
+    public void deletesPodsWithTheDefaultGracePeriodInOneRequest() {
+        FakeCluster cluster = new FakeCluster();
+        PodReaper reaper = new PodReaper(cluster, () -> { }, 0);
+        reaper.delete("a");
+        reaper.delete("b");
+        reaper.delete("c", 30);
+        reaper.drain();
+
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b")), cluster.batches);
+        assertEquals(Collections.singletonList("c:30"), cluster.single);
+        assertEquals(3, reaper.getDeletedCount());
+        reaper.close();
+    }
+
+    @Test
+    public void fallsBackToSingleDeletesWhenTheBatchFails() {
+        FakeCluster cluster = new FakeCluster();
+        cluster.failBatches = true;
+        PodReaper reaper = new PodReaper(cluster, () -> { }, 0);
+        reaper.delete("a");
+        reaper.delete("b");
+        reaper.drain();
+
+        assertEquals(Arrays.asList("a:-1", "b:-1"), cluster.single);
+        assertEquals(2, reaper.getDeletedCount());
+        reaper.close();
+    }
+
+    @Test
+    public void retriesFailedDeletionsAfterABackoff() throws Exception {
+        FakeCluster cluster = new FakeCluster();
+        cluster.failures = 1;
+        PodReaper reaper = new PodReaper(cluster, () -> { }, 200);
+        reaper.delete("a");
+        reaper.drain();
+
+        //The retry is not due yet.
+        assertEquals(Collections.singletonList("a:-1"), cluster.single);
+        assertEquals(1, reaper.getPendingCount());
+
+        Thread.sleep(300);
+        reaper.drain();
+        assertEquals(Arrays.asList("a:-1", "a:-1"), cluster.single);
+        assertEquals(1, reaper.getDeletedCount());
+        assertEquals(0, reaper.getPendingCount());
+        reaper.close();
+    }
+
+    @Test
+    public void givesUpAfterTheMaximumAttempts() {
+        FakeCluster cluster = new FakeCluster();
+        cluster.failures = Integer.MAX_VALUE;
+        PodReaper reaper = new PodReaper(cluster, () -> { }, 0);
+        reaper.delete("a");
+        for (int i = 0; i < 5; i++) {
+            reaper.drain();
+        }
+        assertEquals(3, cluster.single.size());
+        assertEquals(1, reaper.getFailedCount());
+        reaper.close();
+    }
+
+    @Test
+    public void sweepsCompletedPods() {
+        FakeCluster cluster = new FakeCluster();
+        cluster.completed.add("done");
+        PodReaper reaper = new PodReaper(cluster, () -> { }, 0);
+        reaper.sweep();
+        reaper.drain();
+
+        assertEquals(Collections.singletonList("done:-1"), cluster.single);
+        assertEquals(1, reaper.getSweptCount());
+        reaper.close();
+    }
+
+    private static class FakeCluster implements PodReaper.Cluster {
+        private final List<List<String>> batches = new ArrayList<>();
+        private final List<String> single = new ArrayList<>();
+        private final List<String> completed = new ArrayList<>();
+        private boolean failBatches;
+        private int failures;
+
+        @Override
+        public void delete(String... podNames) {
+            if (failBatches) {
+                throw new IllegalStateException("Batch failed");
+            }
+            batches.add(Arrays.asList(podNames));
+        }
+
+        @Override
+        public void delete(String podName, long gracePeriod) {
+            single.add(podName + ":" + gracePeriod);
+            if (failures-- > 0) {
+                throw new IllegalStateException("Delete failed");
+            }
+        }
+
+        @Override
+        public List<String> listCompleted() {
+            return completed;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class PodResourcesTest {
+
+    @Test
+    public void closesOnlyTheResourcesOfThePod() {
+        PodResources resources = new PodResources();
+        AtomicInteger closedA = new AtomicInteger();
+        AtomicInteger closedB = new AtomicInteger();
+
+        resources.add("pod-a", PodResources.POD_SCOPE, closedA::incrementAndGet);
+        resources.add("pod-a", "maven", closedA::incrementAndGet);
+        resources.add("pod-b", "maven", closedB::incrementAndGet);
+
+        resources.closePod("pod-a");
+        assertEquals(2, closedA.get());
+        assertEquals(0, closedB.get());
+        assertEquals(1, resources.size());
+
+        resources.closeAll();
+        assertEquals(1, closedB.get());
+        assertEquals(0, resources.size());
+    }
+
+    @Test
+    public void removedResourcesAreNotClosed() {
+        PodResources resources = new PodResources();
+        AtomicInteger closed = new AtomicInteger();
+        Closeable exec = closed::incrementAndGet;
+
+        resources.add("pod", "maven", exec);
+        resources.remove("pod", "maven", exec);
+        resources.closePod("pod");
+        assertEquals(0, closed.get());
+    }
+
+    @Test
+    public void closesContainerResources() throws Exception {
+        final PodResources resources = new PodResources();
+        final AtomicInteger closed = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final String container = "c" + (i % 2);
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    resources.add("pod", container, closed::incrementAndGet);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        resources.closeContainer("pod", "c0");
+        assertEquals(4000, closed.get());
+        assertEquals(4000, resources.size());
+    }
+}
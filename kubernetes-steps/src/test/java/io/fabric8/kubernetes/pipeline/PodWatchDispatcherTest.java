@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.ListMeta;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PodWatchDispatcherTest {
+
+    private final AtomicInteger lists = new AtomicInteger();
+    private final LinkedBlockingQueue<String> watches = new LinkedBlockingQueue<>();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private volatile List<Pod> current = Arrays.asList(pod("a", "1"), pod("b", "2"));
+    private volatile String listVersion = "10";
+    private volatile Watcher<Pod> server;
+
+    private final PodWatchDispatcher dispatcher = new PodWatchDispatcher(new PodWatchDispatcher.PodSource() {
+        @Override
+        public PodList list() {
+            lists.incrementAndGet();
+            ListMeta metadata = new ListMeta();
+            metadata.setResourceVersion(listVersion);
+            PodList list = new PodList();
+            list.setItems(current);
+            list.setMetadata(metadata);
+            return list;
+        }
+
+        @Override
+        public Watch watch(String resourceVersion, Watcher<Pod> watcher) {
+            server = watcher;
+            watches.add(resourceVersion);
+            return () -> { };
+        }
+    }, null);
+
+    @After
+    public void tearDown() {
+        dispatcher.close();
+    }
+
+    @Test
+    public void dispatchesEventsToTheListenersOfThePod() throws Exception {
+        assertTrue(dispatcher.isAvailable());
+        assertEquals("10", watches.poll());
+
+        Watch watch = dispatcher.watch("a", listener("a"));
+        dispatcher.watch("c", listener("c"));
+        assertEquals(2, dispatcher.getWatchedPodCount());
+        //Pods that have been seen are replayed to new listeners.
+        assertEquals(Collections.singletonList("a:MODIFIED:1"), events);
+
+        server.eventReceived(Watcher.Action.MODIFIED, pod("b", "11"));
+        server.eventReceived(Watcher.Action.ADDED, pod("c", "12"));
+        server.eventReceived(Watcher.Action.MODIFIED, pod("a", "13"));
+        watch.close();
+        server.eventReceived(Watcher.Action.DELETED, pod("a", "14"));
+
+        assertEquals(Arrays.asList("a:MODIFIED:1", "c:ADDED:12", "a:MODIFIED:13"), events);
+        assertEquals(1, dispatcher.getWatchedPodCount());
+    }
+
+    @Test
+    public void reconnectsFromTheLastResourceVersion() throws Exception {
+        assertTrue(dispatcher.isAvailable());
+        assertEquals("10", watches.poll());
+        dispatcher.watch("a", listener("a"));
+        Watcher<Pod> closed = server;
+        server.eventReceived(Watcher.Action.MODIFIED, pod("a", "11"));
+
+        closed.onClose(new KubernetesClientException("connection reset", HttpURLConnection.HTTP_INTERNAL_ERROR, null));
+        assertEquals("11", watches.poll(10, TimeUnit.SECONDS));
+        assertEquals(1, lists.get());
+
+        //Events of the previous watch are no longer dispatched.
+        closed.eventReceived(Watcher.Action.MODIFIED, pod("a", "12"));
+        server.eventReceived(Watcher.Action.MODIFIED, pod("a", "13"));
+        assertEquals(Arrays.asList("a:MODIFIED:1", "a:MODIFIED:11", "a:MODIFIED:13"), events);
+    }
+
+    @Test
+    public void relistsWhenTheVersionIsGone() throws Exception {
+        assertTrue(dispatcher.isAvailable());
+        assertEquals("10", watches.poll());
+        dispatcher.watch("a", listener("a"));
+        dispatcher.watch("b", listener("b"));
+
+        //While the watch was down, a was deleted and b was modified.
+        current = Collections.singletonList(pod("b", "15"));
+        listVersion = "20";
+        server.onClose(new KubernetesClientException("too old resource version", HttpURLConnection.HTTP_GONE, null));
+        assertEquals("20", watches.poll(10, TimeUnit.SECONDS));
+        assertEquals(2, lists.get());
+
+        assertEquals(Arrays.asList("a:MODIFIED:1", "b:MODIFIED:2", "b:MODIFIED:15", "a:DELETED:1"), events);
+    }
+
+    private Watcher<Pod> listener(final String podName) {
+        return new Watcher<Pod>() {
+            @Override
+            public void eventReceived(Action action, Pod pod) {
+                events.add(podName + ":" + action + ":" + pod.getMetadata().getResourceVersion());
+            }
+
+            @Override
+            public void onClose(KubernetesClientException cause) {
+            }
+        };
+    }
+
+    private static Pod pod(String name, String resourceVersion) {
+        ObjectMeta metadata = new ObjectMeta();
+        metadata.setName(name);
+        metadata.setResourceVersion(resourceVersion);
+        Pod pod = new Pod();
+        pod.setMetadata(metadata);
+        return pod;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodStatus;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watcher;
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PodWatcherTest {
+
+    private static final String RESUME_FROM_CURRENT = "<current>";
+
+    private final AtomicBoolean alive = new AtomicBoolean();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicInteger completions = new AtomicInteger();
+    private final List<String> transitions = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<String> reconnects = new LinkedBlockingQueue<>();
+
+    private final PodWatcher watcher = new PodWatcher(alive, started, finished, () -> {
+        completions.incrementAndGet();
+        return null;
+    }, (resourceVersion, w) -> {
+        reconnects.add(resourceVersion != null ? resourceVersion : RESUME_FROM_CURRENT);
+        return () -> { };
+    });
+
+    {
+        watcher.subscribe(new PodWatcher.Subscriber() {
+            @Override
+            public void onPhaseChange(String podName, PodWatcher.Phase from, PodWatcher.Phase to, Pod pod) {
+                transitions.add(podName + ":" + from + "->" + to);
+            }
+
+            @Override
+            public void onContainerRestart(String podName, String containerName, int restartCount, Pod pod) {
+                transitions.add(podName + ":" + containerName + " restarted " + restartCount);
+            }
+        });
+    }
+
+    @Test
+    public void publishesPhaseChangesAndRestarts() throws Exception {
+        watcher.eventReceived(Watcher.Action.ADDED, pod("1", "Pending", 0));
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod("2", "Running", 0));
+        assertTrue(alive.get());
+        assertEquals(0, started.getCount());
+
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod("3", "Running", 1));
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod("4", "Succeeded", 1));
+
+        assertEquals(Arrays.asList("pod:null->PENDING", "pod:PENDING->RUNNING", "pod:c restarted 1", "pod:RUNNING->SUCCEEDED"), transitions);
+        assertEquals(PodWatcher.Phase.SUCCEEDED, watcher.getPhase());
+        assertEquals("4", watcher.getResourceVersion());
+        assertEquals(0, finished.getCount());
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void completesWhenThePodIsDeleted() throws Exception {
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod("1", "Running", 0));
+        watcher.eventReceived(Watcher.Action.DELETED, pod("2", "Running", 0));
+
+        assertEquals(Arrays.asList("pod:null->RUNNING", "pod:RUNNING->DELETED"), transitions);
+        assertEquals(0, finished.getCount());
+    }
+
+    @Test
+    public void resumesFromTheCurrentStateWhenTheVersionIsGone() throws Exception {
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod("5", "Running", 0));
+
+        watcher.onClose(new KubernetesClientException("too old resource version", HttpURLConnection.HTTP_GONE, null));
+        assertEquals(RESUME_FROM_CURRENT, reconnects.poll(10, TimeUnit.SECONDS));
+        assertEquals(1, finished.getCount());
+        //The current state is replayed as MODIFIED, which is not a change of phase.
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod("9", "Running", 0));
+        assertEquals(Collections.singletonList("pod:null->RUNNING"), transitions);
+
+        //Any other error resumes from the last version we have seen.
+        watcher.onClose(new KubernetesClientException("connection reset", HttpURLConnection.HTTP_INTERNAL_ERROR, null));
+        assertEquals("9", reconnects.poll(10, TimeUnit.SECONDS));
+        assertEquals(2, watcher.getReconnects());
+        assertEquals(1, finished.getCount());
+        watcher.close();
+    }
+
+    @Test
+    public void completesWhenTheWatchIsClosedWithoutError() throws Exception {
+        watcher.eventReceived(Watcher.Action.MODIFIED, pod("1", "Running", 0));
+        watcher.onClose(null);
+
+        assertEquals(0, finished.getCount());
+        assertEquals(1, completions.get());
+        assertEquals(0, reconnects.size());
+    }
+
+    private static Pod pod(String resourceVersion, String phase, int restarts) {
+        ObjectMeta metadata = new ObjectMeta();
+        metadata.setName("pod");
+        metadata.setResourceVersion(resourceVersion);
+        ContainerStatus container = new ContainerStatus();
+        container.setName("c");
+        container.setRestartCount(restarts);
+        PodStatus status = new PodStatus();
+        status.setPhase(phase);
+        status.setContainerStatuses(Collections.singletonList(container));
+        Pod pod = new Pod();
+        pod.setMetadata(metadata);
+        pod.setStatus(status);
+        return pod;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import hudson.AbortException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProvisionPodsStepExecutionTest {
+
+    @Test
+    public void recordsPodsInTheOrderOfTheirTemplates() throws Exception {
+        List<String> podNames = new ArrayList<>();
+        List<String> released = new ArrayList<>();
+        ProvisionPodsStepExecution.provision(new FakeProvisioner(Arrays.asList("b", "a"), null, true), podNames, 1000, () -> released.addAll(podNames));
+
+        assertEquals(Arrays.asList("a", "b"), podNames);
+        assertTrue(released.isEmpty());
+    }
+
+    @Test
+    public void releasesThePodsCreatedBeforeAFailure() throws Exception {
+        List<String> podNames = new ArrayList<>();
+        List<String> released = new ArrayList<>();
+        try {
+            ProvisionPodsStepExecution.provision(new FakeProvisioner(Arrays.asList("a"), new IllegalStateException("quota exceeded"), true), podNames, 1000, () -> released.addAll(podNames));
+            fail("Expected the failure to propagate");
+        } catch (IllegalStateException e) {
+            assertEquals("quota exceeded", e.getMessage());
+        }
+        assertEquals(Arrays.asList("a"), released);
+    }
+
+    @Test
+    public void releasesThePodsWhenTheyDoNotStart() throws Exception {
+        List<String> podNames = new ArrayList<>();
+        List<String> released = new ArrayList<>();
+        try {
+            ProvisionPodsStepExecution.provision(new FakeProvisioner(Arrays.asList("a", "b"), null, false), podNames, 1000, () -> released.addAll(podNames));
+            fail("Expected the provisioning to abort");
+        } catch (AbortException e) {
+            assertEquals("Not all of the 2 pods were running after 1000ms.", e.getMessage());
+        }
+        assertEquals(Arrays.asList("a", "b"), released);
+    }
+
+    private static class FakeProvisioner implements ProvisionPodsStepExecution.Provisioner {
+        private final List<String> createdInOrder;
+        private final RuntimeException failure;
+        private final boolean running;
+
+        private FakeProvisioner(List<String> createdInOrder, RuntimeException failure, boolean running) {
+            this.createdInOrder = createdInOrder;
+            this.failure = failure;
+            this.running = running;
+        }
+
+        @Override
+        public List<String> createPods(Consumer<String> created) {
+            for (String name : createdInOrder) {
+                created.accept(name);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            List<String> ordered = new ArrayList<>(createdInOrder);
+            ordered.sort(String::compareTo);
+            return ordered;
+        }
+
+        @Override
+        public boolean awaitRunning(List<String> podNames) {
+            return running;
+        }
+    }
+}
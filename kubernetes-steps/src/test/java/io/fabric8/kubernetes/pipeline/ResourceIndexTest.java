@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.kubernetes.pipeline;
+
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.Watcher;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceIndexTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicReference<Watcher<Pod>> watcher = new AtomicReference<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void firstLookupDoesNotWaitForTheList() throws Exception {
+        final CountDownLatch listed = new CountDownLatch(1);
+        final Pod pod = pod("a");
+        ResourceIndex<Pod> index = new ResourceIndex<>("Pod", () -> {
+            try {
+                listed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ResourceIndex.Snapshot<>(Arrays.asList(pod), "1");
+        }, this::watch, scheduler);
+
+        Pod fallback = pod("a");
+        assertSame(fallback, index.get("a", () -> fallback));
+        assertFalse(index.isSynced());
+
+        listed.countDown();
+        awaitSynced(index);
+        assertSame(pod, index.get("a", () -> {
+            throw new AssertionError("The index is synced");
+        }));
+        assertNull(index.get("b", () -> {
+            throw new AssertionError("The index is synced");
+        }));
+    }
+
+    @Test
+    public void fetchesOnceOnMiss() throws Exception {
+        ResourceIndex<Pod> index = new ResourceIndex<>("Pod", () -> new ResourceIndex.Snapshot<>(Arrays.<Pod>asList(), "1"), this::watch, scheduler);
+        final AtomicInteger fetches = new AtomicInteger();
+        index.getOrFetch("a", () -> {
+            fetches.incrementAndGet();
+            return null;
+        });
+        assertEquals(1, fetches.get());
+
+        awaitSynced(index);
+        final Pod created = pod("a");
+        assertSame(created, index.getOrFetch("a", () -> {
+            fetches.incrementAndGet();
+            return created;
+        }));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void appliesWatchEvents() throws Exception {
+        ResourceIndex<Pod> index = new ResourceIndex<>("Pod", () -> new ResourceIndex.Snapshot<>(Arrays.asList(pod("a")), "1"), this::watch, scheduler);
+        index.get("a", () -> null);
+        awaitSynced(index);
+
+        Pod b = pod("b");
+        watcher.get().eventReceived(Watcher.Action.ADDED, b);
+        watcher.get().eventReceived(Watcher.Action.DELETED, pod("a"));
+        assertSame(b, index.get("b", () -> null));
+        assertNull(index.get("a", () -> pod("a")));
+    }
+
+    @Test
+    public void tracksIdleTime() throws Exception {
+        ResourceIndex<Pod> index = new ResourceIndex<>("Pod", () -> new ResourceIndex.Snapshot<>(Arrays.<Pod>asList(), "1"), this::watch, scheduler);
+        index.get("a", () -> null);
+        assertFalse(index.isIdle(TimeUnit.MINUTES.toMillis(1)));
+        Thread.sleep(20);
+        assertTrue(index.isIdle(10));
+    }
+
+    private io.fabric8.kubernetes.client.Watch watch(String resourceVersion, Watcher<Pod> w) {
+        watcher.set(w);
+        return () -> watcher.set(null);
+    }
+
+    private static void awaitSynced(ResourceIndex<?> index) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!index.isSynced() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(index.isSynced());
+    }
+
+    private static Pod pod(String name) {
+        ObjectMeta metadata = new ObjectMeta();
+        metadata.setName(name);
+        Pod pod = new Pod();
+        pod.setMetadata(metadata);
+        return pod;
+    }
+}